@@ -0,0 +1,256 @@
+package general;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Набор JMH-бенчмарков для движка калькулятора.
+ * Измеряется пропускная способность (оп/с); с профилировщиком gc
+ * ({@code -prof gc}) JMH дополнительно печатает объем памяти,
+ * выделяемой на одну операцию ({@code gc.alloc.rate.norm}, байт/оп).
+ * <p>
+ * Запуск: {@code gradle jmh} (профилировщик gc подключен в build.gradle) или
+ * {@code java -jar build/libs/Lab_2-jmh.jar -prof gc [фильтр]} после {@code gradle jmhJar}.
+ *
+ * @author Кристина
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CalculatorBenchmark {
+    private static final int BATCH_ROWS = 10000;
+
+    /**
+     * Одно выражение заданной формы: строка для calculate() и скомпилированное дерево.
+     */
+    @State(Scope.Thread)
+    public static class Expressions {
+        @Param({"flat", "brackets", "functions", "variables", "generated"})
+        String shape;
+
+        SimpleCalculator calculator;
+        Bindings bindings;
+        String source;
+        CompiledExpression compiled;
+
+        @Setup
+        public void setUp() {
+            calculator = new SimpleCalculator();
+            bindings = new Bindings();
+            for (char name = 'a'; name <= 'h'; name++) {
+                calculator.setVariable(String.valueOf(name), name - 'a' + 1.5);
+                bindings.set(String.valueOf(name), name - 'a' + 1.5);
+            }
+            calculator.setVariable("x", 0.75);
+            bindings.set("x", 0.75);
+
+            switch (shape) {
+                case "flat":
+                    source = "1 + 2 * 3 - 4 / 5 + 6 * 7 - 8";
+                    break;
+                case "brackets":
+                    source = deepBrackets(20);
+                    break;
+                case "functions":
+                    source = "sin(cos(tan(sqrt(x + 1)))) + sqrt(sin(x) * sin(x) + cos(x) * cos(x))";
+                    break;
+                case "variables":
+                    source = "a + b * c - d / e + f * g - h";
+                    break;
+                default:
+                    source = longExpression(10000);
+                    break;
+            }
+            compiled = new ExpressionEngine().compile(source);
+        }
+    }
+
+    /**
+     * Пакеты из BATCH_ROWS строк по двум столбцам.
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+        CompiledExpression arithmetic;
+        CompiledExpression signal;
+        CompiledExpression fastSignal;
+        double[][] columns;
+        double[] out;
+
+        @Setup
+        public void setUp() {
+            ExpressionEngine engine = new ExpressionEngine();
+            arithmetic = engine.compile("(x + y) * (x - y) / (x * y + 1) + 2 * x * y - 1");
+            signal = engine.compile("sin(x) * cos(y) + tan(x / 7) - sin(x + y)");
+            fastSignal = signal.withPrecision(Precision.FAST);
+            columns = new double[2][BATCH_ROWS];
+            for (int row = 0; row < BATCH_ROWS; row++) {
+                columns[0][row] = 1 + row % 100;
+                columns[1][row] = 0.5 + row % 7;
+            }
+            out = new double[BATCH_ROWS];
+        }
+    }
+
+    /**
+     * Четыре формулы с общими подвыражениями: по отдельности и одним набором.
+     */
+    @State(Scope.Thread)
+    public static class Formulas {
+        CompiledExpression[] separate;
+        FormulaSet set;
+        Bindings bindings;
+        double[] results;
+
+        @Setup
+        public void setUp() {
+            String[] formulas = {
+                "sqrt(a * a + b * b) + sin(x) * c",
+                "sqrt(a * a + b * b) / (sin(x) * c + d)",
+                "(sin(x) * c + d) * (e - f) + sqrt(a * a + b * b)",
+                "exp(-(e - f) * (e - f)) * sin(x) * c"
+            };
+            ExpressionEngine engine = new ExpressionEngine();
+            separate = new CompiledExpression[formulas.length];
+            for (int i = 0; i < formulas.length; i++) {
+                separate[i] = engine.compile(formulas[i]);
+            }
+            set = engine.compileSet(formulas);
+            bindings = new Bindings();
+            for (char name = 'a'; name <= 'f'; name++) {
+                bindings.set(String.valueOf(name), name - 'a' + 1.5);
+            }
+            bindings.set("x", 0.75);
+            results = new double[formulas.length];
+        }
+    }
+
+    /**
+     * Значение и шесть производных гладкой функции.
+     */
+    @State(Scope.Thread)
+    public static class Gradients {
+        CompiledExpression smooth;
+        double[] point;
+        double[] gradient;
+
+        @Setup
+        public void setUp() {
+            smooth = new ExpressionEngine().compile(
+                    "sin(a * b) * exp(-c / d) + sqrt(e * e + f * f) * cos(a - f)");
+            point = smooth.newSlots();
+            for (int i = 0; i < smooth.getVariableCount(); i++) {
+                point[i] = 0.5 + i * 0.25;
+            }
+            gradient = new double[smooth.getVariableCount()];
+        }
+    }
+
+    // ========== ОДНО ВЫРАЖЕНИЕ ==========
+
+    @Benchmark
+    public double calculate(Expressions state) {
+        return state.calculator.calculate(state.source);
+    }
+
+    @Benchmark
+    public double compiled(Expressions state) {
+        return state.compiled.evaluate(state.bindings);
+    }
+
+    // ========== ПАКЕТЫ: ОДНА ОПЕРАЦИЯ - BATCH_ROWS СТРОК ==========
+
+    @Benchmark
+    public double[] batchRows(Batch state) {
+        state.arithmetic.evaluateBatch(state.columns, state.out, false);
+        return state.out;
+    }
+
+    @Benchmark
+    public double[] batchColumnar(Batch state) {
+        state.arithmetic.evaluateBatch(state.columns, state.out, true);
+        return state.out;
+    }
+
+    @Benchmark
+    public double[] precisionExact(Batch state) {
+        state.signal.evaluateBatch(state.columns, state.out, false);
+        return state.out;
+    }
+
+    @Benchmark
+    public double[] precisionFast(Batch state) {
+        state.fastSignal.evaluateBatch(state.columns, state.out, false);
+        return state.out;
+    }
+
+    // ========== НАБОРЫ ФОРМУЛ: ОДНА ОПЕРАЦИЯ - ВСЕ ФОРМУЛЫ ==========
+
+    @Benchmark
+    public void formulasSeparate(Formulas state, Blackhole blackhole) {
+        for (CompiledExpression formula : state.separate) {
+            blackhole.consume(formula.evaluate(state.bindings));
+        }
+    }
+
+    @Benchmark
+    public double[] formulasSet(Formulas state) {
+        state.set.evaluate(state.bindings, state.results);
+        return state.results;
+    }
+
+    // ========== ГРАДИЕНТ: ОДИН ПРОХОД ПРОТИВ 2N + 1 ВЫЧИСЛЕНИЙ ==========
+
+    @Benchmark
+    public double[] gradientDifferences(Gradients state, Blackhole blackhole) {
+        double[] point = state.point;
+        double[] gradient = state.gradient;
+        double step = 1e-6;
+        blackhole.consume(state.smooth.evaluate(point));
+        for (int i = 0; i < gradient.length; i++) {
+            double saved = point[i];
+            point[i] = saved + step;
+            double plus = state.smooth.evaluate(point);
+            point[i] = saved - step;
+            double minus = state.smooth.evaluate(point);
+            point[i] = saved;
+            gradient[i] = (plus - minus) / (2 * step);
+        }
+        return gradient;
+    }
+
+    @Benchmark
+    public double[] gradientForward(Gradients state, Blackhole blackhole) {
+        blackhole.consume(state.smooth.evaluateGradient(state.point, state.gradient));
+        return state.gradient;
+    }
+
+    /**
+     * Строит выражение с заданной глубиной вложенных скобок.
+     */
+    static String deepBrackets(int depth) {
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            expression.append("(");
+        }
+        expression.append("1");
+        for (int i = 0; i < depth; i++) {
+            expression.append(i % 2 == 0 ? " + 2) * 0.5" : " - 1) / 0.5");
+        }
+        return expression.toString();
+    }
+
+    /**
+     * Строит длинное выражение из переменных и чисел не короче заданной длины.
+     */
+    static String longExpression(int minLength) {
+        StringBuilder expression = new StringBuilder("x");
+        String[] parts = {" + a * 1.5", " - b / 3", " + sqrt(c)", " * 0.999", " - d"};
+        for (int i = 0; expression.length() < minLength; i++) {
+            expression.append(parts[i % parts.length]);
+        }
+        return expression.toString();
+    }
+}
@@ -0,0 +1,145 @@
+package general;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Генератор нагрузки для {@link EvaluationServer}.
+ * Несколько клиентов в виртуальных потоках в течение заданного времени
+ * отправляют пакеты заданий и считают пропускную способность,
+ * задержки и число отклоненных запросов.
+ * <p>
+ * Запуск: {@code java general.LoadGenerator [адрес]}, например
+ * {@code http://127.0.0.1:8080/evaluate}. Без адреса генератор сам поднимает
+ * сервер на локальном интерфейсе. Параметры задаются системными свойствами:
+ * {@code load.clients} (число клиентов, по умолчанию 16),
+ * {@code load.batch} (заданий в пакете, по умолчанию 100),
+ * {@code load.time} (длительность в миллисекундах, по умолчанию 10000),
+ * {@code load.concurrency} и {@code load.queue} (ограничения нагрузки
+ * встроенного сервера, по умолчанию число процессоров и 64).
+ * 
+ * @author Кристина
+ */
+public class LoadGenerator {
+    private static final int CLIENTS = Integer.getInteger("load.clients", 16);
+    private static final int BATCH = Integer.getInteger("load.batch", 100);
+    private static final long TIME_MILLIS = Long.getLong("load.time", 10000);
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency",
+            Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE = Integer.getInteger("load.queue", 64);
+    
+    private static final String[] EXPRESSIONS = {
+        "x * y + 1",
+        "sqrt(x * x + y * y)",
+        "sin(x) * cos(y) + tan(x / 10)",
+        "pow(x, 2) - max(x, y, 3) / (y + 1)",
+        "(x + y) * (x - y) / (x * y + 1)"
+    };
+    
+    private final URI target;
+    private final HttpClient client = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+    private final Histogram latency = new Histogram();
+    private final LongAdder expressions = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    
+    /**
+     * @param target адрес ресурса /evaluate
+     */
+    public LoadGenerator(URI target) {
+        this.target = target;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            new LoadGenerator(URI.create(args[0])).run(CLIENTS, BATCH, TIME_MILLIS);
+            return;
+        }
+        ExpressionEngine engine = new ExpressionEngine(FunctionRegistry.standard(), ExpressionLimits.UNTRUSTED,
+                new ExpressionCache(1000), new EvaluationMetrics());
+        try (EvaluationServer server = new EvaluationServer(engine,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), CONCURRENCY, QUEUE)) {
+            server.start();
+            URI target = URI.create("http://127.0.0.1:" + server.getPort() + "/evaluate");
+            System.out.println("Встроенный сервер: " + target);
+            new LoadGenerator(target).run(CLIENTS, BATCH, TIME_MILLIS);
+            System.out.println();
+            System.out.println(engine.getMetrics().snapshot());
+        }
+    }
+    
+    /**
+     * Создает нагрузку и печатает итоги.
+     * 
+     * @param clients число одновременных клиентов
+     * @param batch число заданий в одном запросе
+     * @param millis длительность в миллисекундах
+     */
+    public void run(int clients, int batch, long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                long seed = i;
+                executor.submit(() -> runClient(new Random(seed), batch, deadline));
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        Histogram.Snapshot snapshot = latency.snapshot();
+        System.out.printf("Клиентов: %d, заданий в пакете: %d, время: %.1f с%n", clients, batch, seconds);
+        System.out.printf("Запросов: %d (%.0f в секунду)%n", snapshot.getCount(), snapshot.getCount() / seconds);
+        System.out.printf("Выражений: %d (%.0f в секунду)%n", expressions.sum(), expressions.sum() / seconds);
+        System.out.printf("Отклонено (503): %d, ошибок: %d%n", rejected.sum(), failed.sum());
+        System.out.printf("Задержка, мкс: p50=%d, p90=%d, p99=%d, макс=%d%n",
+                snapshot.getValueAtPercentile(50) / 1000, snapshot.getValueAtPercentile(90) / 1000,
+                snapshot.getValueAtPercentile(99) / 1000, snapshot.getMax() / 1000);
+    }
+    
+    private void runClient(Random random, int batch, long deadline) {
+        while (System.nanoTime() < deadline) {
+            HttpRequest request = HttpRequest.newBuilder(target)
+                    .POST(HttpRequest.BodyPublishers.ofString(createBatch(random, batch)))
+                    .build();
+            long start = System.nanoTime();
+            try {
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 200) {
+                    latency.record(System.nanoTime() - start);
+                    expressions.add(batch);
+                } else if (response.statusCode() == 503) {
+                    rejected.increment();
+                    // Сервер просит подождать: не усиливаем перегрузку
+                    Thread.sleep(10);
+                } else {
+                    failed.increment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                failed.increment();
+            }
+        }
+    }
+    
+    private static String createBatch(Random random, int batch) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < batch; i++) {
+            body.append(EXPRESSIONS[random.nextInt(EXPRESSIONS.length)])
+                    .append(" | x=").append(random.nextInt(100) / 10.0)
+                    .append(" y=").append(random.nextInt(100) / 10.0)
+                    .append('\n');
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package general;
+import java.lang.management.ManagementFactory;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Проверяет, что после прогрева вычисление не выделяет память
+ */
+public class AllocationTest {
+    private static final int WARMUP = 50000;
+    private static final int CALLS = 10000;
+    private static final int ROUNDS = 3;
+    
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    
+    private static long allocatedBytes() {
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+    
+    /**
+     * Выполняет несколько замеров по CALLS вызовов и возвращает наименьший.
+     * Счетчик выделенной памяти потока иногда учитывает байты, выделенные
+     * до начала замера (например при загрузке скрытого класса во время прогрева);
+     * настоящее выделение памяти на каждом вызове видно в любом замере.
+     */
+    private static long allocatedBytes(Runnable calls) {
+        long minimum = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = allocatedBytes();
+            calls.run();
+            minimum = Math.min(minimum, allocatedBytes() - before);
+        }
+        return minimum;
+    }
+    
+    @Test
+    public void testCalculateDoesNotAllocate() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        calculator.setVariable("x", 2.0);
+        double sum = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sum += calculator.calculate("2 + 3 * x");
+        }
+        
+        double[] total = {sum};
+        long allocated = allocatedBytes(() -> {
+            for (int i = 0; i < CALLS; i++) {
+                total[0] += calculator.calculate("2 + 3 * x");
+            }
+        });
+        
+        assertEquals((WARMUP + ROUNDS * CALLS) * 8.0, total[0], 0.001);
+        assertEquals(0, allocated);
+    }
+    
+    @Test
+    public void testEvaluateWithBindingsDoesNotAllocate() {
+        CompiledExpression expression = new ExpressionEngine().compile("sqrt(a * a + b * b) / (a + 1) - sin(b)");
+        Bindings bindings = new Bindings().set("a", 3.0).set("b", 4.0);
+        double sum = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sum += expression.evaluate(bindings);
+        }
+        
+        double[] total = {sum};
+        long allocated = allocatedBytes(() -> {
+            for (int i = 0; i < CALLS; i++) {
+                total[0] += expression.evaluate(bindings);
+            }
+        });
+        
+        assertTrue(total[0] != 0);
+        assertEquals(0, allocated);
+    }
+    
+    @Test
+    public void testInterpreterDoesNotAllocate() {
+        // x * (x - 1) + cos(x)
+        Node x = new Node.Variable("x", 0);
+        Node tree = new Node.Add(
+                new Node.Multiply(x, new Node.Subtract(x, new Node.Constant(1))),
+                new Node.Call(MathFunction.of(BuiltinFunction.COS), x));
+        Program program = Program.compile(tree, 1);
+        double[] slots = new double[1 + program.maxStack];
+        slots[0] = 0.5;
+        double sum = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sum += program.evaluate(slots);
+        }
+        
+        double[] total = {sum};
+        long allocated = allocatedBytes(() -> {
+            for (int i = 0; i < CALLS; i++) {
+                total[0] += program.evaluate(slots);
+            }
+        });
+        
+        assertEquals((0.5 * -0.5 + Math.cos(0.5)) * (WARMUP + ROUNDS * CALLS), total[0], 1e-6);
+        assertEquals(0, allocated);
+    }
+}
@@ -0,0 +1,100 @@
+package general;
+
+import java.util.*;
+
+/**
+ * Значения переменных для одного вычисления.
+ * В отличие от калькулятора, привязки передаются в каждый вызов явно,
+ * поэтому один {@link ExpressionEngine} может обслуживать много потоков.
+ * Сам объект привязок не потокобезопасен и должен использоваться одним потоком.
+ * 
+ * @author Кристина
+ */
+public final class Bindings {
+    /** Начало сообщения об ошибке, когда значение переменной не задано. */
+    static final String MISSING_VALUE = "Не задано значение переменной ";
+    
+    private String[] names;
+    private double[] values;
+    private int size;
+    
+    /**
+     * Создает пустой набор привязок.
+     */
+    public Bindings() {
+        names = new String[4];
+        values = new double[4];
+    }
+    
+    /**
+     * Устанавливает значение переменной.
+     * 
+     * @param name имя переменной
+     * @param value значение переменной
+     * @return этот же объект для цепочки вызовов
+     */
+    public Bindings set(String name, double value) {
+        int index = indexOf(name);
+        if (index < 0) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            index = size++;
+            names[index] = name;
+        }
+        values[index] = value;
+        return this;
+    }
+    
+    /**
+     * Проверяет, задано ли значение переменной.
+     * 
+     * @param name имя переменной
+     * @return true если значение задано, иначе false
+     */
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+    
+    /**
+     * Возвращает значение переменной.
+     * 
+     * @param name имя переменной
+     * @return значение переменной
+     * @throws MissingVariableException если значение не задано
+     */
+    public double get(String name) {
+        int index = indexOf(name);
+        if (index < 0) {
+            throw new MissingVariableException(name);
+        }
+        return values[index];
+    }
+    
+    /**
+     * Возвращает имена всех заданных переменных.
+     * 
+     * @return множество имен переменных
+     */
+    public Set<String> getNames() {
+        return new LinkedHashSet<>(Arrays.asList(names).subList(0, size));
+    }
+    
+    /**
+     * Удаляет все значения, чтобы объект можно было использовать повторно.
+     */
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        size = 0;
+    }
+    
+    private int indexOf(String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,111 @@
+package general;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Встроенные математические функции калькулятора.
+ * Для каждой функции кроме реализации известен статический метод,
+ * который вызывает сгенерированный байткод.
+ * 
+ * @author Кристина
+ */
+enum BuiltinFunction {
+    SIN("sin", Math::sin, "java/lang/Math"),
+    COS("cos", Math::cos, "java/lang/Math"),
+    TAN("tan", Math::tan, "java/lang/Math"),
+    SQRT("sqrt", BuiltinFunction::sqrt, "general/BuiltinFunction"),
+    LOG("log", Math::log, "java/lang/Math"),
+    EXP("exp", Math::exp, "java/lang/Math"),
+    ABS("abs", Math::abs, "java/lang/Math"),
+    POW("pow", Math::pow, "java/lang/Math"),
+    MIN("min", Math::min, "java/lang/Math"),
+    MAX("max", Math::max, "java/lang/Math"),
+    
+    // Приближения для Precision.FAST; в реестр функций не попадают
+    FAST_SIN("sin", FastMath::sin, "general/FastMath"),
+    FAST_COS("cos", FastMath::cos, "general/FastMath"),
+    FAST_TAN("tan", FastMath::tan, "general/FastMath");
+    
+    /** Сообщение об ошибке при корне из отрицательного числа. */
+    static final String NEGATIVE_SQRT = "Корень из отрицательного числа";
+    
+    private final String name;
+    final DoubleUnaryOperator unary;
+    final DoubleBinaryOperator binary;
+    /** Класс со статическим методом name, реализующим функцию, во внутренней форме JVM. */
+    final String owner;
+    
+    BuiltinFunction(String name, DoubleUnaryOperator unary, String owner) {
+        this.name = name;
+        this.unary = unary;
+        this.binary = null;
+        this.owner = owner;
+    }
+    
+    BuiltinFunction(String name, DoubleBinaryOperator binary, String owner) {
+        this.name = name;
+        this.unary = null;
+        this.binary = binary;
+        this.owner = owner;
+    }
+    
+    /**
+     * Возвращает имя функции в том виде, в котором оно пишется в выражении.
+     * 
+     * @return имя функции
+     */
+    String getName() {
+        return name;
+    }
+    
+    /**
+     * @return число аргументов функции
+     */
+    int getArity() {
+        return unary != null ? 1 : 2;
+    }
+    
+    /**
+     * Возвращает быстрое приближение функции для {@link Precision#FAST}.
+     * 
+     * @return приближение или эта же функция, если приближения нет
+     */
+    BuiltinFunction approximation() {
+        switch (this) {
+            case SIN: return FAST_SIN;
+            case COS: return FAST_COS;
+            case TAN: return FAST_TAN;
+            default: return this;
+        }
+    }
+    
+    /**
+     * @return true если функция - приближение другой встроенной функции
+     */
+    boolean isApproximation() {
+        return owner.equals("general/FastMath");
+    }
+    
+    /**
+     * Возвращает дескриптор статического метода функции для байткода.
+     * 
+     * @return "(D)D" или "(DD)D"
+     */
+    String descriptor() {
+        return unary != null ? "(D)D" : "(DD)D";
+    }
+    
+    /**
+     * Квадратный корень с проверкой аргумента. Вынесен в статический метод,
+     * чтобы тем же методом пользовался сгенерированный байткод.
+     * 
+     * @param value аргумент
+     * @return квадратный корень
+     * @throws NegativeSqrtException при отрицательном аргументе
+     */
+    static double sqrt(double value) {
+        if (value < 0) throw new NegativeSqrtException();
+        return Math.sqrt(value);
+    }
+}
@@ -0,0 +1,372 @@
+package general;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+
+/**
+ * Компилирует дерево выражения в байткод JVM.
+ * Для выражения генерируется скрытый класс (hidden class) с методом
+ * {@code double evaluate(double[] slots)}, в котором операции записаны
+ * напрямую инструкциями dadd, dmul и т.д. После этого JIT-компилятор JVM
+ * встраивает и оптимизирует выражение как обычный код.
+ * <p>
+ * В JDK 21 нет стандартного API для записи class-файлов, поэтому
+ * файл собирается вручную. Генерируемый код линейный, без переходов,
+ * поэтому таблица StackMapTable не нужна. Деление и корень вызывают
+ * те же статические методы, что и интерпретатор, чтобы ошибки совпадали.
+ * Встроенные функции вызываются напрямую; выражения с пользовательскими
+ * функциями не компилируются и остаются на интерпретаторе.
+ * Скрытые классы выгружаются сборщиком мусора вместе с выражением.
+ * 
+ * @author Кристина
+ */
+final class BytecodeCompiler {
+    
+    /**
+     * Число вычислений, после которого выражение компилируется в байткод.
+     * Задается системным свойством calculator.jit.threshold, отрицательное значение
+     * выключает компиляцию.
+     */
+    static final int THRESHOLD = Integer.getInteger("calculator.jit.threshold", 10000);
+    
+    private static final int MAX_CODE_LENGTH = 65535;
+    /**
+     * Наибольшая глубина дерева, которое компилируется в байткод. Код выписывается
+     * рекурсивно, поэтому более глубокие выражения остаются на интерпретаторе,
+     * которому глубина не важна.
+     */
+    static final int MAX_DEPTH = 2000;
+    
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int DALOAD = 0x31;
+    private static final int DASTORE = 0x52;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    
+    private final ConstantPool pool = new ConstantPool();
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private int stack;
+    private int maxStack;
+    
+    private BytecodeCompiler() {
+    }
+    
+    /**
+     * Компилирует дерево в экземпляр сгенерированного класса.
+     * 
+     * @param root корень оптимизированного дерева
+     * @return сгенерированная реализация выражения
+     * @throws IllegalStateException если выражение не удалось скомпилировать,
+     *         в том числе если оно глубже {@link #MAX_DEPTH} или его код слишком велик
+     */
+    static SlotFunction compile(Node root) {
+        if (depth(root) > MAX_DEPTH) {
+            throw new IllegalStateException("Выражение слишком глубокое для компиляции в байткод");
+        }
+        try {
+            byte[] bytes = new BytecodeCompiler().generate(root);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (SlotFunction) lookup.lookupClass().getConstructor().newInstance();
+        } catch (IOException | ReflectiveOperationException | LinkageError | IllegalArgumentException e) {
+            // Ошибки JVM, например переполнение стека или нехватка памяти, не перехватываются
+            throw new IllegalStateException("Не удалось скомпилировать выражение в байткод", e);
+        }
+    }
+    
+    /**
+     * Вычисляет глубину дерева без рекурсии.
+     * 
+     * @param root корень дерева
+     * @return число узлов на самом длинном пути от корня до листа
+     */
+    static int depth(Node root) {
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        nodes.push(root);
+        depths.push(1);
+        int max = 0;
+        while (!nodes.isEmpty()) {
+            Node node = nodes.pop();
+            int depth = depths.pop();
+            max = Math.max(max, depth);
+            List<Node> children = new ArrayList<>();
+            if (node instanceof Node.Negate) {
+                children.add(((Node.Negate) node).operand);
+            } else if (node instanceof Node.Binary) {
+                children.add(((Node.Binary) node).left);
+                children.add(((Node.Binary) node).right);
+            } else if (node instanceof Node.Call) {
+                children.addAll(Arrays.asList(((Node.Call) node).arguments));
+            } else if (node instanceof Node.Block) {
+                children.addAll(Arrays.asList(((Node.Block) node).definitions));
+                children.add(((Node.Block) node).body);
+            }
+            for (Node child : children) {
+                nodes.push(child);
+                depths.push(depth + 1);
+            }
+        }
+        return max;
+    }
+    
+    private byte[] generate(Node root) throws IOException {
+        emit(root);
+        code.write(DRETURN);
+        if (code.size() > MAX_CODE_LENGTH) {
+            throw new IllegalStateException("Выражение слишком велико для одного метода");
+        }
+        
+        int thisClass = pool.classRef("general/GeneratedExpression");
+        int superClass = pool.classRef("java/lang/Object");
+        int interfaceClass = pool.classRef("general/SlotFunction");
+        int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+        int codeName = pool.utf8("Code");
+        int initName = pool.utf8("<init>");
+        int initType = pool.utf8("()V");
+        int evaluateName = pool.utf8("evaluate");
+        int evaluateType = pool.utf8("([D)D");
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(65);
+        pool.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(interfaceClass);
+        out.writeShort(0);
+        
+        out.writeShort(2);
+        byte[] initCode = {
+            (byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN
+        };
+        writeMethod(out, initName, initType, codeName, 1, 1, initCode);
+        writeMethod(out, evaluateName, evaluateType, codeName, maxStack, 2, code.toByteArray());
+        
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+    
+    private static void writeMethod(DataOutputStream out, int name, int type, int codeName,
+                                    int maxStack, int maxLocals, byte[] body) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + body.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+    
+    /**
+     * Записывает код, оставляющий значение узла (double) на вершине стека операндов.
+     */
+    private void emit(Node node) {
+        if (node instanceof Node.Constant) {
+            double value = ((Node.Constant) node).value;
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                op(DCONST_0, 2);
+            } else if (value == 1.0) {
+                op(DCONST_1, 2);
+            } else {
+                op(LDC2_W, 2);
+                u2(pool.doubleConstant(value));
+            }
+        } else if (node instanceof Node.Variable) {
+            loadSlot(((Node.Variable) node).slot);
+        } else if (node instanceof Node.Temporary) {
+            loadSlot(((Node.Temporary) node).slot);
+        } else if (node instanceof Node.Negate) {
+            emit(((Node.Negate) node).operand);
+            op(DNEG, 0);
+        } else if (node instanceof Node.Binary) {
+            Node.Binary binary = (Node.Binary) node;
+            emit(binary.left);
+            emit(binary.right);
+            switch (binary.operator()) {
+                case '+': op(DADD, -2); break;
+                case '-': op(DSUB, -2); break;
+                case '*': op(DMUL, -2); break;
+                default: invokeStatic("general/Node", "divide", "(DD)D", -2); break;
+            }
+        } else if (node instanceof Node.Call) {
+            Node.Call call = (Node.Call) node;
+            BuiltinFunction builtin = call.function.builtin;
+            if (builtin == null) {
+                throw new IllegalStateException("Функция " + call.function.getName() + " не компилируется в байткод");
+            }
+            // min(a, b, c) вычисляется как min(min(a, b), c)
+            emit(call.arguments[0]);
+            for (int i = builtin.getArity() - 1; i < call.arguments.length; i++) {
+                if (i > 0) {
+                    emit(call.arguments[i]);
+                }
+                invokeStatic(builtin.owner, builtin.getName(), builtin.descriptor(), 2 - 2 * builtin.getArity());
+            }
+        } else if (node instanceof Node.Block) {
+            Node.Block block = (Node.Block) node;
+            for (int i = 0; i < block.definitions.length; i++) {
+                op(ALOAD_1, 1);
+                pushInt(block.targets[i]);
+                emit(block.definitions[i]);
+                op(DASTORE, -4);
+            }
+            emit(block.body);
+        } else {
+            throw new IllegalStateException("Неизвестный узел: " + node.getClass().getSimpleName());
+        }
+    }
+    
+    private void loadSlot(int slot) {
+        op(ALOAD_1, 1);
+        pushInt(slot);
+        op(DALOAD, 0);
+    }
+    
+    private void pushInt(int value) {
+        if (value <= 5) {
+            op(ICONST_0 + value, 1);
+        } else if (value <= Byte.MAX_VALUE) {
+            op(BIPUSH, 1);
+            code.write(value);
+        } else if (value <= Short.MAX_VALUE) {
+            op(SIPUSH, 1);
+            u2(value);
+        } else {
+            op(LDC_W, 1);
+            u2(pool.intConstant(value));
+        }
+    }
+    
+    private void invokeStatic(String owner, String name, String descriptor, int stackChange) {
+        op(INVOKESTATIC, stackChange);
+        u2(pool.methodRef(owner, name, descriptor));
+    }
+    
+    /**
+     * Записывает код операции и учитывает изменение глубины стека (double занимает две ячейки).
+     */
+    private void op(int opcode, int stackChange) {
+        code.write(opcode);
+        stack += stackChange;
+        maxStack = Math.max(maxStack, stack);
+    }
+    
+    private void u2(int value) {
+        code.write(value >> 8);
+        code.write(value);
+    }
+    
+    /**
+     * Пул констант class-файла с повторным использованием одинаковых записей.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int next = 1;
+        
+        int utf8(String value) {
+            return entry("U" + value, 1, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+        
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, 1, () -> {
+                out.writeByte(7);
+                out.writeShort(name);
+            });
+        }
+        
+        int methodRef(String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int typeIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + descriptor, 1, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(typeIndex);
+            });
+            return entry("M" + owner + "." + name + descriptor, 1, () -> {
+                out.writeByte(10);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+        
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            // Константа double занимает две записи пула
+            return entry("D" + bits, 2, () -> {
+                out.writeByte(6);
+                out.writeLong(bits);
+            });
+        }
+        
+        int intConstant(int value) {
+            return entry("I" + value, 1, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+        
+        void writeTo(DataOutputStream target) throws IOException {
+            if (next > 0xFFFF) {
+                throw new IllegalStateException("Переполнен пул констант");
+            }
+            target.writeShort(next);
+            bytes.writeTo(target);
+        }
+        
+        private int entry(String key, int size, Writer writer) {
+            Integer index = indexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            index = next;
+            next += size;
+            indexes.put(key, index);
+            return index;
+        }
+        
+        private interface Writer {
+            void write() throws IOException;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package general;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для компиляции выражений в байткод
+ */
+public class BytecodeCompilerTest {
+    
+    private static final String[] EXPRESSIONS = {
+        "2 + 3 * 4",
+        "-(x - y) / 4",
+        "sin(x) * cos(y) + tan(x / 10)",
+        "sqrt(x * x + y * y) * x + sqrt(x * x + y * y)",
+        "x * 0 + 1 - y",
+        "(((x + 1) * (y - 2)) / (x + 3)) - -y",
+        "pow(abs(y), x) + exp(y) * log(x)",
+        "min(x, y, 0) - max(x * 2, y)"
+    };
+    
+    // ========== ТЕСТЫ СОВПАДЕНИЯ С ИНТЕРПРЕТАТОРОМ ==========
+    
+    @Test
+    public void testGeneratedCodeMatchesInterpreter() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        Map<String, Double> variables = new HashMap<>();
+        variables.put("x", 3.5);
+        variables.put("y", -1.25);
+        
+        for (String source : EXPRESSIONS) {
+            CompiledExpression interpreted = calculator.compile(source);
+            double expected = interpreted.evaluate(variables);
+            
+            CompiledExpression generated = new SimpleCalculator(new ExpressionEngine()).compile(source);
+            generated.promote();
+            assertTrue(generated.isBytecodeCompiled(), source);
+            assertEquals(expected, generated.evaluate(variables), 0.0);
+        }
+    }
+    
+    @Test
+    public void testManySlots() {
+        StringBuilder source = new StringBuilder("v");
+        for (int i = 0; i < 300; i++) {
+            source.append(" + v").append((char) ('a' + i % 26)).append((char) ('a' + i / 26));
+        }
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile(source.toString());
+        Map<String, Double> variables = new HashMap<>();
+        for (String name : expression.getVariableNames()) {
+            variables.put(name, 1.0);
+        }
+        expression.promote();
+        assertTrue(expression.isBytecodeCompiled());
+        assertEquals(301.0, expression.evaluate(variables), 0.0);
+    }
+    
+    // ========== ТЕСТЫ ОШИБОК ==========
+    
+    @Test
+    public void testGeneratedCodeReportsErrors() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression division = calculator.compile("1 / x");
+        division.promote();
+        Exception exception = assertThrows(ArithmeticException.class, () -> {
+            division.evaluate(Collections.singletonMap("x", 0.0));
+        });
+        assertTrue(exception.getMessage().contains("Деление на ноль"));
+        
+        CompiledExpression root = calculator.compile("sqrt(x)");
+        root.promote();
+        assertThrows(IllegalArgumentException.class, () -> {
+            root.evaluate(Collections.singletonMap("x", -1.0));
+        });
+    }
+    
+    @Test
+    public void testDeepExpressionStaysInterpreted() {
+        // Левая цепочка из 24000 операций: глубже MAX_DEPTH, компиляция отказывается заранее
+        StringBuilder source = new StringBuilder("x");
+        for (int i = 0; i < 12000; i++) {
+            source.append("+x*y");
+        }
+        CompiledExpression expression = new ExpressionEngine().compile(source.toString());
+        assertTrue(BytecodeCompiler.depth(expression.getOptimizedTree()) > BytecodeCompiler.MAX_DEPTH);
+        IllegalStateException exception = assertThrows(IllegalStateException.class,
+                () -> BytecodeCompiler.compile(expression.getOptimizedTree()));
+        assertNull(exception.getCause());
+        
+        expression.promote();
+        assertFalse(expression.isBytecodeCompiled());
+        assertEquals(12002.0, expression.evaluate(new Bindings().set("x", 2).set("y", 0.5)), 0.001);
+    }
+    
+    // ========== ТЕСТЫ УРОВНЕЙ ИСПОЛНЕНИЯ ==========
+    
+    @Test
+    public void testColdExpressionIsInterpreted() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("x + 1");
+        expression.evaluate(Collections.singletonMap("x", 1.0));
+        assertFalse(expression.isBytecodeCompiled());
+    }
+    
+    @Test
+    public void testHotExpressionIsCompiled() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("x * 2 + 1");
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[BytecodeCompiler.THRESHOLD]);
+        double[] out = new double[BytecodeCompiler.THRESHOLD];
+        
+        expression.evaluateBatch(columns, out);
+        
+        assertTrue(expression.isBytecodeCompiled());
+        assertEquals(1.0, out[0], 0.0);
+        assertEquals(7.0, expression.evaluate(Collections.singletonMap("x", 3.0)), 0.0);
+    }
+}
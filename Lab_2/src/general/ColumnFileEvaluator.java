@@ -0,0 +1,150 @@
+package general;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Пакетное вычисление выражения по столбцам, хранящимся в двоичных файлах.
+ * <p>
+ * Каждый столбец - отдельный файл из чисел double по 8 байт в порядке
+ * little-endian, без заголовка (такие файлы пишет, например, numpy.tofile).
+ * Результаты пишутся в файл того же формата. Файлы отображаются в память
+ * окнами через {@link FileChannel#map}, и вычисление идет прямо по отображенным
+ * буферам, поэтому набор данных может быть больше кучи и больше 2 ГБ,
+ * а куча занята лишь небольшими порциями строк: сборщику мусора
+ * не приходится обходить гигабайты массивов.
+ * 
+ * @author Кристина
+ */
+public class ColumnFileEvaluator {
+    private static final long DEFAULT_WINDOW_ROWS = 8L << 20;
+    
+    private final CompiledExpression expression;
+    private final long windowRows;
+    
+    /**
+     * Создает вычислитель для одного выражения.
+     * 
+     * @param expression скомпилированное выражение
+     */
+    public ColumnFileEvaluator(CompiledExpression expression) {
+        this(expression, DEFAULT_WINDOW_ROWS);
+    }
+    
+    ColumnFileEvaluator(CompiledExpression expression, long windowRows) {
+        this.expression = expression;
+        this.windowRows = windowRows;
+    }
+    
+    /**
+     * Вычисляет выражение для каждой строки столбцов и записывает результаты в файл.
+     * Все входные файлы должны содержать одинаковое число значений.
+     * 
+     * @param inputs файлы столбцов по именам переменных
+     * @param outputFile файл результатов; перезаписывается
+     * @return число вычисленных строк
+     * @throws IOException при ошибке чтения или записи
+     * @throws IllegalArgumentException если нет файла для переменной или размеры файлов не совпадают
+     * @throws ArithmeticException при делении на ноль в любой из строк
+     */
+    public long evaluate(Map<String, Path> inputs, Path outputFile) throws IOException {
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("Не заданы файлы столбцов");
+        }
+        for (String name : expression.getVariableNames()) {
+            if (!inputs.containsKey(name)) {
+                throw new IllegalArgumentException("Не задан файл для переменной " + name);
+            }
+        }
+        
+        Map<String, FileChannel> channels = new LinkedHashMap<>();
+        try {
+            long rows = -1;
+            for (Map.Entry<String, Path> input : inputs.entrySet()) {
+                FileChannel channel = FileChannel.open(input.getValue(), StandardOpenOption.READ);
+                channels.put(input.getKey(), channel);
+                long size = channel.size();
+                if (size % Double.BYTES != 0 || (rows >= 0 && size != rows * Double.BYTES)) {
+                    throw new IllegalArgumentException("Размер файла " + input.getValue()
+                            + " не совпадает с размером остальных столбцов");
+                }
+                rows = size / Double.BYTES;
+            }
+            
+            try (FileChannel output = FileChannel.open(outputFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Map<String, DoubleBuffer> window = new HashMap<>();
+                for (long start = 0; start < rows; start += windowRows) {
+                    long count = Math.min(windowRows, rows - start);
+                    for (String name : expression.getVariableNames()) {
+                        window.put(name, map(channels.get(name), FileChannel.MapMode.READ_ONLY, start, count));
+                    }
+                    expression.evaluateBatch(window, map(output, FileChannel.MapMode.READ_WRITE, start, count));
+                }
+            }
+            return rows;
+        } finally {
+            for (FileChannel channel : channels.values()) {
+                channel.close();
+            }
+        }
+    }
+    
+    private static DoubleBuffer map(FileChannel channel, FileChannel.MapMode mode, long start, long count)
+            throws IOException {
+        return channel.map(mode, start * Double.BYTES, count * Double.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+    
+    /**
+     * Записывает столбец в файл в формате, который читает {@link #evaluate}.
+     * 
+     * @param file файл; перезаписывается
+     * @param values значения
+     * @throws IOException при ошибке записи
+     */
+    public static void write(Path file, double[] values) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.min(values.length, 8192) * Double.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int start = 0; start < values.length; start += buffer.capacity() / Double.BYTES) {
+                int count = Math.min(buffer.capacity() / Double.BYTES, values.length - start);
+                buffer.clear();
+                buffer.asDoubleBuffer().put(values, start, count);
+                buffer.limit(count * Double.BYTES);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Читает столбец из файла целиком. Подходит для файлов, которые помещаются в кучу.
+     * 
+     * @param file файл столбца
+     * @return значения
+     * @throws IOException при ошибке чтения
+     * @throws IllegalArgumentException если размер файла не кратен 8 байтам или больше 2 ГБ
+     */
+    public static double[] read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size % Double.BYTES != 0 || size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Файл " + file + " не является столбцом чисел");
+            }
+            double[] values = new double[(int) (size / Double.BYTES)];
+            if (values.length > 0) {
+                map(channel, FileChannel.MapMode.READ_ONLY, 0, values.length).get(values);
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package general;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для вычисления по столбцам вне кучи
+ */
+public class ColumnFileEvaluatorTest {
+    private static final int ROWS = 10_000;
+    
+    private static double[] column(long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            values[i] = 1 + random.nextDouble() * 100;
+        }
+        return values;
+    }
+    
+    private static DoubleBuffer direct(double[] values, int offset) {
+        DoubleBuffer buffer = ByteBuffer.allocateDirect((values.length + offset) * Double.BYTES)
+                .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        buffer.position(offset);
+        buffer.put(values);
+        buffer.position(offset);
+        return buffer;
+    }
+    
+    private static double[] expected(CompiledExpression expression, double[]... columns) {
+        double[] out = new double[ROWS];
+        expression.evaluateBatch(columns, out, false);
+        return out;
+    }
+    
+    // ========== ТЕСТЫ БУФЕРОВ ==========
+    
+    @Test
+    public void testDirectBuffersMatchArrays() {
+        CompiledExpression expression = new ExpressionEngine().compile("x * y + sin(x) / y");
+        double[] x = column(1);
+        double[] y = column(2);
+        Map<String, DoubleBuffer> columns = new HashMap<>();
+        columns.put("x", direct(x, 3));
+        columns.put("y", direct(y, 0));
+        DoubleBuffer out = ByteBuffer.allocateDirect((ROWS + 5) * Double.BYTES).asDoubleBuffer();
+        out.position(5);
+        
+        expression.evaluateBatch(columns, out);
+        
+        // Позиции не меняются, результаты лежат после позиции out
+        assertEquals(5, out.position());
+        assertEquals(3, columns.get("x").position());
+        double[] actual = new double[ROWS];
+        out.get(5, actual);
+        assertArrayEquals(expected(expression, x, y), actual, 0.0);
+    }
+    
+    @Test
+    public void testShortBufferIsRejected() {
+        CompiledExpression expression = new ExpressionEngine().compile("x + 1");
+        Map<String, DoubleBuffer> columns = Collections.singletonMap("x", DoubleBuffer.allocate(10));
+        assertThrows(IllegalArgumentException.class,
+                () -> expression.evaluateBatch(columns, DoubleBuffer.allocate(11)));
+        assertThrows(IllegalArgumentException.class,
+                () -> expression.evaluateBatch(Collections.emptyMap(), DoubleBuffer.allocate(1)));
+    }
+    
+    @Test
+    public void testDivisionByZeroInBuffer() {
+        CompiledExpression expression = new ExpressionEngine().compile("1 / x");
+        double[] x = new double[ROWS];
+        Arrays.fill(x, 2);
+        x[ROWS - 1] = 0;
+        DoubleBuffer out = DoubleBuffer.allocate(ROWS);
+        ArithmeticException exception = assertThrows(ArithmeticException.class,
+                () -> expression.evaluateBatch(Collections.singletonMap("x", DoubleBuffer.wrap(x)), out));
+        assertEquals("Деление на ноль!", exception.getMessage());
+        assertEquals(0.5, out.get(0), 0.0);
+    }
+    
+    // ========== ТЕСТЫ ФАЙЛОВ ==========
+    
+    @Test
+    public void testFilesInSeveralWindows() throws Exception {
+        CompiledExpression expression = new ExpressionEngine().compile("sqrt(a * a + b * b) - c");
+        double[] a = column(3);
+        double[] b = column(4);
+        double[] c = column(5);
+        Path directory = Files.createTempDirectory("columns");
+        try {
+            Map<String, Path> inputs = new LinkedHashMap<>();
+            inputs.put("a", directory.resolve("a.bin"));
+            inputs.put("b", directory.resolve("b.bin"));
+            inputs.put("c", directory.resolve("c.bin"));
+            ColumnFileEvaluator.write(inputs.get("a"), a);
+            ColumnFileEvaluator.write(inputs.get("b"), b);
+            ColumnFileEvaluator.write(inputs.get("c"), c);
+            Path output = directory.resolve("out.bin");
+            
+            // Окно не кратно ни числу строк, ни порции копирования
+            long rows = new ColumnFileEvaluator(expression, 3001).evaluate(inputs, output);
+            
+            assertEquals(ROWS, rows);
+            assertEquals(ROWS * Double.BYTES, Files.size(output));
+            assertArrayEquals(expected(expression, a, b, c), ColumnFileEvaluator.read(output), 0.0);
+        } finally {
+            for (Path file : Files.list(directory).toArray(Path[]::new)) {
+                Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+    
+    @Test
+    public void testFileFormatIsLittleEndian() throws Exception {
+        Path file = Files.createTempFile("column", ".bin");
+        try {
+            ColumnFileEvaluator.write(file, new double[] {1.5, -2});
+            ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(16, bytes.remaining());
+            assertEquals(1.5, bytes.getDouble(0), 0.0);
+            assertEquals(-2.0, bytes.getDouble(8), 0.0);
+            assertArrayEquals(new double[] {1.5, -2}, ColumnFileEvaluator.read(file), 0.0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    @Test
+    public void testMismatchedFiles() throws Exception {
+        CompiledExpression expression = new ExpressionEngine().compile("x + y");
+        Path x = Files.createTempFile("x", ".bin");
+        Path y = Files.createTempFile("y", ".bin");
+        Path output = Files.createTempFile("out", ".bin");
+        try {
+            ColumnFileEvaluator.write(x, new double[] {1, 2, 3});
+            ColumnFileEvaluator.write(y, new double[] {1, 2});
+            Map<String, Path> inputs = new LinkedHashMap<>();
+            inputs.put("x", x);
+            ColumnFileEvaluator evaluator = new ColumnFileEvaluator(expression);
+            assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(inputs, output));
+            inputs.put("y", y);
+            assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(inputs, output));
+        } finally {
+            Files.deleteIfExists(x);
+            Files.deleteIfExists(y);
+            Files.deleteIfExists(output);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package general;
+
+import java.util.*;
+
+/**
+ * Программа для пакетного вычисления выражения по столбцам.
+ * <p>
+ * Вместо того чтобы для каждой строки выполнять всю программу, каждая операция
+ * выполняется сразу для порции строк: {@code r[i] = a[i] * b[i]} для всех i.
+ * Такие циклы без ветвлений JIT-компилятор HotSpot переводит в векторные
+ * инструкции (SSE, AVX, NEON), обрабатывающие несколько значений за раз.
+ * Значения переменных порции сначала копируются в промежуточные столбцы:
+ * когда все массивы цикла читаются с одного индекса, компилятору не нужно
+ * доказывать, что они не перекрываются. Промежуточные столбцы занимают
+ * по {@link #CHUNK} значений и помещаются в кэш L1.
+ * <p>
+ * Поддерживаются только выражения из чисел, переменных, операций + - * /,
+ * унарного минуса и функций sqrt и abs. Для остальных выражений {@link #of}
+ * возвращает null, и они вычисляются по строкам.
+ * Если в порции встречается деление на ноль или корень из отрицательного числа,
+ * {@link #evaluate} сообщает об этом, и вызывающий пересчитывает порцию по строкам,
+ * чтобы получить то же исключение в той же строке, что и без векторизации.
+ * 
+ * @author Кристина
+ */
+final class ColumnarProgram {
+    
+    /**
+     * Включено ли вычисление по столбцам. Задается системным свойством
+     * calculator.columnar, значение false выключает его.
+     */
+    static final boolean ENABLED = !"false".equals(System.getProperty("calculator.columnar"));
+    
+    /** Число строк в порции. */
+    static final int CHUNK = 256;
+    
+    private static final int SQRT = 100;
+    private static final int ABS = 101;
+    
+    /** Правый операнд унарной операции. */
+    private static final int NO_OPERAND = Integer.MIN_VALUE;
+    
+    private final int[] loadSlots;
+    private final int[] loadRegisters;
+    private final int[] opcodes;
+    private final int[] targets;
+    private final int[] lefts;
+    private final int[] rights;
+    private final double[] constants;
+    private final int result;
+    private final int registerCount;
+    
+    private ColumnarProgram(Builder builder, int result, double[] constants) {
+        this.loadSlots = toArray(builder.loadSlots);
+        this.loadRegisters = toArray(builder.loadRegisters);
+        this.opcodes = toArray(builder.opcodes);
+        this.targets = toArray(builder.targets);
+        this.lefts = toArray(builder.lefts);
+        this.rights = toArray(builder.rights);
+        this.constants = constants;
+        this.result = result;
+        this.registerCount = builder.registerCount;
+    }
+    
+    /**
+     * Переводит программу стекового интерпретатора в программу по столбцам.
+     * Положение каждого значения на стеке известно заранее, поэтому каждая
+     * операция получает свой промежуточный столбец и стек при вычислении не нужен.
+     * 
+     * @param program программа интерпретатора
+     * @param variableCount число переменных
+     * @return программа по столбцам или null если выражение не поддерживается
+     */
+    static ColumnarProgram of(Program program, int variableCount) {
+        Builder builder = new Builder(program.maxStack, variableCount);
+        int[] temporaries = new int[program.stackBase - variableCount];
+        Deque<Integer> stack = new ArrayDeque<>();
+        int[] code = program.code;
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc++];
+            switch (opcode) {
+                case Program.CONST:
+                    stack.push(-1 - code[pc++]);
+                    break;
+                case Program.LOAD: {
+                    int slot = code[pc++];
+                    stack.push(slot < variableCount ? builder.load(slot) : temporaries[slot - variableCount]);
+                    break;
+                }
+                case Program.STORE: {
+                    int value = stack.pop();
+                    if (value >= 0 && value < program.maxStack) {
+                        // Значение только что вычислено на стеке: пишем его сразу в свой столбец
+                        value = builder.registerCount++;
+                        builder.targets.set(builder.targets.size() - 1, value);
+                    }
+                    temporaries[code[pc++] - variableCount] = value;
+                    break;
+                }
+                case Program.NEG:
+                    if (!builder.unary(opcode, stack)) {
+                        return null;
+                    }
+                    break;
+                case Program.ADD:
+                case Program.SUB:
+                case Program.MUL:
+                case Program.DIV:
+                    if (!builder.binary(opcode, stack)) {
+                        return null;
+                    }
+                    break;
+                default: {
+                    BuiltinFunction builtin = program.functions[code[pc++]].builtin;
+                    int count = code[pc++];
+                    int columnar = builtin == BuiltinFunction.SQRT ? SQRT : builtin == BuiltinFunction.ABS ? ABS : -1;
+                    if (columnar < 0 || count != 1 || !builder.unary(columnar, stack)) {
+                        return null;
+                    }
+                    break;
+                }
+            }
+        }
+        return new ColumnarProgram(builder, stack.pop(), program.constants);
+    }
+    
+    /**
+     * Создает промежуточные столбцы для {@link #evaluate}.
+     * Один набор можно переиспользовать для всех порций одного пакета.
+     * 
+     * @return промежуточные столбцы
+     */
+    double[][] newRegisters() {
+        return new double[registerCount][CHUNK];
+    }
+    
+    /**
+     * Вычисляет выражение для порции строк.
+     * 
+     * @param columns столбцы переменных по номерам ячеек
+     * @param start номер первой строки порции
+     * @param count число строк, не больше {@link #CHUNK}
+     * @param registers промежуточные столбцы из {@link #newRegisters()}
+     * @param out массив результатов; заполняются элементы с start по start + count - 1
+     * @return false если в порции есть деление на ноль или корень из отрицательного числа;
+     *         тогда результаты порции не определены
+     */
+    boolean evaluate(double[][] columns, int start, int count, double[][] registers, double[] out) {
+        for (int i = 0; i < loadSlots.length; i++) {
+            System.arraycopy(columns[loadSlots[i]], start, registers[loadRegisters[i]], 0, count);
+        }
+        
+        for (int k = 0; k < opcodes.length; k++) {
+            int opcode = opcodes[k];
+            double[] target = registers[targets[k]];
+            int left = lefts[k];
+            int right = rights[k];
+            boolean success;
+            if (right == NO_OPERAND) {
+                success = unary(opcode, registers[left], target, count);
+            } else if (left < 0) {
+                success = binary(opcode, constants[-1 - left], registers[right], target, count);
+            } else if (right < 0) {
+                success = binary(opcode, registers[left], constants[-1 - right], target, count);
+            } else {
+                success = binary(opcode, registers[left], registers[right], target, count);
+            }
+            if (!success) {
+                return false;
+            }
+        }
+        
+        if (result < 0) {
+            Arrays.fill(out, start, start + count, constants[-1 - result]);
+        } else {
+            System.arraycopy(registers[result], 0, out, start, count);
+        }
+        return true;
+    }
+    
+    private static boolean unary(int opcode, double[] a, double[] r, int n) {
+        switch (opcode) {
+            case Program.NEG:
+                for (int i = 0; i < n; i++) {
+                    r[i] = -a[i];
+                }
+                return true;
+            case ABS:
+                for (int i = 0; i < n; i++) {
+                    r[i] = Math.abs(a[i]);
+                }
+                return true;
+            default:
+                for (int i = 0; i < n; i++) {
+                    if (a[i] < 0) {
+                        return false;
+                    }
+                }
+                for (int i = 0; i < n; i++) {
+                    r[i] = Math.sqrt(a[i]);
+                }
+                return true;
+        }
+    }
+    
+    private static boolean binary(int opcode, double[] a, double[] b, double[] r, int n) {
+        switch (opcode) {
+            case Program.ADD:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] + b[i];
+                }
+                return true;
+            case Program.SUB:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] - b[i];
+                }
+                return true;
+            case Program.MUL:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] * b[i];
+                }
+                return true;
+            default:
+                for (int i = 0; i < n; i++) {
+                    if (b[i] == 0) {
+                        return false;
+                    }
+                }
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] / b[i];
+                }
+                return true;
+        }
+    }
+    
+    private static boolean binary(int opcode, double[] a, double b, double[] r, int n) {
+        switch (opcode) {
+            case Program.ADD:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] + b;
+                }
+                return true;
+            case Program.SUB:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] - b;
+                }
+                return true;
+            case Program.MUL:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] * b;
+                }
+                return true;
+            default:
+                if (b == 0) {
+                    return false;
+                }
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] / b;
+                }
+                return true;
+        }
+    }
+    
+    private static boolean binary(int opcode, double a, double[] b, double[] r, int n) {
+        switch (opcode) {
+            case Program.ADD:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a + b[i];
+                }
+                return true;
+            case Program.SUB:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a - b[i];
+                }
+                return true;
+            case Program.MUL:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a * b[i];
+                }
+                return true;
+            default:
+                for (int i = 0; i < n; i++) {
+                    if (b[i] == 0) {
+                        return false;
+                    }
+                }
+                for (int i = 0; i < n; i++) {
+                    r[i] = a / b[i];
+                }
+                return true;
+        }
+    }
+    
+    private static int[] toArray(List<Integer> values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+    
+    /**
+     * Собирает операции, отслеживая, где лежит каждое значение стека:
+     * неотрицательное число - номер промежуточного столбца, отрицательное (-1 - номер) - константа.
+     * Результат операции на глубине стека d пишется в промежуточный столбец d,
+     * за ними идут столбцы временных значений и переменных.
+     */
+    private static final class Builder {
+        final List<Integer> loadSlots = new ArrayList<>();
+        final List<Integer> loadRegisters = new ArrayList<>();
+        final List<Integer> opcodes = new ArrayList<>();
+        final List<Integer> targets = new ArrayList<>();
+        final List<Integer> lefts = new ArrayList<>();
+        final List<Integer> rights = new ArrayList<>();
+        final int[] variableRegisters;
+        int registerCount;
+        
+        Builder(int maxStack, int variableCount) {
+            this.registerCount = maxStack;
+            this.variableRegisters = new int[variableCount];
+            Arrays.fill(variableRegisters, -1);
+        }
+        
+        /**
+         * @return столбец, в который копируются значения переменной
+         */
+        int load(int slot) {
+            if (variableRegisters[slot] < 0) {
+                variableRegisters[slot] = registerCount++;
+                loadSlots.add(slot);
+                loadRegisters.add(variableRegisters[slot]);
+            }
+            return variableRegisters[slot];
+        }
+        
+        boolean unary(int opcode, Deque<Integer> stack) {
+            int operand = stack.pop();
+            if (operand < 0) {
+                // Свернуть не удалось, значит вычисление всегда ошибочно
+                return false;
+            }
+            add(opcode, stack.size(), operand, NO_OPERAND);
+            stack.push(stack.size());
+            return true;
+        }
+        
+        boolean binary(int opcode, Deque<Integer> stack) {
+            int right = stack.pop();
+            int left = stack.pop();
+            if (left < 0 && right < 0) {
+                return false;
+            }
+            add(opcode, stack.size(), left, right);
+            stack.push(stack.size());
+            return true;
+        }
+        
+        private void add(int opcode, int target, int left, int right) {
+            opcodes.add(opcode);
+            targets.add(target);
+            lefts.add(left);
+            rights.add(right);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package general;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для пакетного вычисления по столбцам
+ */
+public class ColumnarProgramTest {
+    private static final int ROWS = 1000;
+    
+    private static double[][] randomColumns(int count, long seed) {
+        Random random = new Random(seed);
+        double[][] columns = new double[count][ROWS];
+        for (double[] column : columns) {
+            for (int row = 0; row < ROWS; row++) {
+                column[row] = 1 + random.nextDouble() * 100;
+            }
+        }
+        return columns;
+    }
+    
+    /**
+     * Вычисляет пакет по столбцам и по строкам и проверяет, что результаты совпадают до бита.
+     */
+    private static void assertSameAsRows(String expression) {
+        CompiledExpression compiled = new ExpressionEngine().compile(expression);
+        assertNotNull(ColumnarProgram.of(compiled.getProgram(), compiled.getVariableCount()), expression);
+        double[][] columns = randomColumns(compiled.getVariableCount(), expression.hashCode());
+        double[] columnar = new double[ROWS];
+        double[] rows = new double[ROWS];
+        
+        compiled.evaluateBatch(columns, columnar, true);
+        compiled.evaluateBatch(columns, rows, false);
+        
+        assertArrayEquals(rows, columnar, 0.0, expression);
+    }
+    
+    // ========== ТЕСТЫ ВЫЧИСЛЕНИЯ ==========
+    
+    @Test
+    public void testArithmetic() {
+        assertSameAsRows("x * y + 1");
+        assertSameAsRows("a + b * c - d / e + f * g - h");
+        assertSameAsRows("(x + y) * (x - y) / (x * y + 1)");
+    }
+    
+    @Test
+    public void testConstantOnTheLeft() {
+        assertSameAsRows("1 - x");
+        assertSameAsRows("2 / x + 3 * y");
+    }
+    
+    @Test
+    public void testNegateAndFunctions() {
+        assertSameAsRows("-x * sqrt(y)");
+        assertSameAsRows("abs(x - 50) + sqrt(x * x + y * y)");
+        assertSameAsRows("-(-(x))");
+    }
+    
+    @Test
+    public void testCommonSubexpressions() {
+        assertSameAsRows("sqrt(x * x + y * y) / (sqrt(x * x + y * y) + 1)");
+        assertSameAsRows("(x + 1) * (x + 1) * (x + 1) - (x + 1)");
+    }
+    
+    @Test
+    public void testTrivialExpressions() {
+        assertSameAsRows("x");
+        assertSameAsRows("2 + 3");
+    }
+    
+    @Test
+    public void testPublicBatchUsesColumns() {
+        Map<String, double[]> columns = new HashMap<>();
+        double[] x = new double[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            x[i] = i;
+        }
+        columns.put("x", x);
+        double[] out = new double[ROWS];
+        
+        new SimpleCalculator().evaluateBatch("x * 2 + 1", columns, out);
+        
+        assertEquals(1.0, out[0], 0.0);
+        assertEquals(2 * (ROWS - 1) + 1.0, out[ROWS - 1], 0.0);
+    }
+    
+    @Test
+    public void testUnsupportedExpressions() {
+        CompiledExpression trig = new ExpressionEngine().compile("sin(x) + y");
+        assertNull(ColumnarProgram.of(trig.getProgram(), trig.getVariableCount()));
+        CompiledExpression power = new ExpressionEngine().compile("pow(x, 2)");
+        assertNull(ColumnarProgram.of(power.getProgram(), power.getVariableCount()));
+    }
+    
+    // ========== ТЕСТЫ ОШИБОК ==========
+    
+    @Test
+    public void testDivisionByZeroInTheMiddle() {
+        CompiledExpression compiled = new ExpressionEngine().compile("1 / (x - 700)");
+        double[][] columns = new double[1][ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            columns[0][i] = i;
+        }
+        double[] out = new double[ROWS];
+        
+        ArithmeticException exception = assertThrows(ArithmeticException.class,
+                () -> compiled.evaluateBatch(columns, out, true));
+        
+        assertEquals("Деление на ноль!", exception.getMessage());
+        // Строки до ошибки вычислены, как и при вычислении по строкам
+        assertEquals(1.0 / -1, out[699], 0.0);
+        assertEquals(1.0 / -700, out[0], 0.0);
+    }
+    
+    @Test
+    public void testFirstErrorWins() {
+        // В строке 3 корень из отрицательного числа, в строке 5 - деление на ноль
+        CompiledExpression compiled = new ExpressionEngine().compile("sqrt(x - 3.5) + 1 / (x - 5)");
+        double[][] columns = {{10, 9, 8, 3, 7, 5}};
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> compiled.evaluateBatch(columns, new double[6], true));
+        assertEquals(BuiltinFunction.NEGATIVE_SQRT, exception.getMessage());
+    }
+}
@@ -0,0 +1,605 @@
+package general;
+
+import java.nio.DoubleBuffer;
+import java.util.*;
+
+/**
+ * Скомпилированное математическое выражение.
+ * Строка разбирается один раз, после чего выражение можно вычислять
+ * многократно с разными значениями переменных без повторного разбора.
+ * Объект неизменяем, поэтому его можно вычислять из многих потоков одновременно.
+ * 
+ * @author Кристина
+ */
+public final class CompiledExpression {
+    private final String source;
+    private final Node tree;
+    private final Node root;
+    private final String[] variableNames;
+    private final int slotCount;
+    private final Precision precision;
+    
+    /** Число строк, которые копируются из буферов вне кучи за один раз. */
+    static final int BUFFER_CHUNK = 4096;
+    
+    /** Стековый интерпретатор, которым выражение вычисляется, пока не стало горячим. */
+    private final Program program;
+    
+    /** Текущая вычислимая форма: сначала интерпретатор дерева, потом сгенерированный байткод. */
+    private volatile SlotFunction function;
+    /** Была ли уже попытка компиляции в байткод. */
+    private volatile boolean compiled;
+    /** Программа для пакетного вычисления по столбцам или null; создается при первом пакете. */
+    private volatile ColumnarProgram columnarProgram;
+    /** Создавалась ли уже программа по столбцам. */
+    private volatile boolean columnarChecked;
+    /** Программа исходного, неоптимизированного дерева для трассировки; создается при первой трассировке. */
+    private volatile Program traceProgram;
+    /** Интерпретатор с производными или null; создается при первом вычислении градиента. */
+    private volatile Differentiator differentiator;
+    /** Приблизительный счетчик вычислений для перехода на байткод; гонки между потоками допустимы. */
+    private int calls;
+    
+    /**
+     * Создает скомпилированное выражение и оптимизирует его дерево.
+     * 
+     * @param source исходный текст
+     * @param tree дерево в том виде, в котором оно записано
+     * @param variableNames имена переменных по номерам ячеек
+     */
+    CompiledExpression(String source, Node tree, String[] variableNames) {
+        this(source, tree, Simplifier.simplify(tree, variableNames.length), variableNames, Precision.EXACT);
+    }
+    
+    private CompiledExpression(String source, Node tree, Simplifier.Result simplified, String[] variableNames,
+                               Precision precision) {
+        this.source = source;
+        this.tree = tree;
+        this.root = simplified.root;
+        this.variableNames = variableNames;
+        this.precision = precision;
+        this.program = Program.compile(simplified.root, simplified.slotCount);
+        this.slotCount = simplified.slotCount + program.maxStack;
+        this.function = program;
+        if (BytecodeCompiler.THRESHOLD == 0) {
+            promote();
+        }
+    }
+    
+    /**
+     * Восстанавливает выражение по уже оптимизированному дереву, не разбирая
+     * и не оптимизируя его заново. Исходного дерева в этом случае нет,
+     * поэтому трассировка показывает оптимизированную форму.
+     * 
+     * @param source исходный текст
+     * @param root оптимизированное дерево
+     * @param variableNames имена переменных по номерам ячеек
+     * @param slotCount число ячеек переменных и временных значений
+     * @return скомпилированное выражение
+     */
+    static CompiledExpression restore(String source, Node root, String[] variableNames, int slotCount) {
+        return new CompiledExpression(source, root, new Simplifier.Result(root, slotCount), variableNames,
+                Precision.EXACT);
+    }
+    
+    /**
+     * Возвращает это же выражение с другой точностью встроенных функций.
+     * С {@link Precision#FAST} sin, cos и tan вычисляются многочленными
+     * приближениями, что быстрее при большом числе вычислений, когда
+     * погрешность 1e-7 допустима. Исходное выражение не меняется.
+     * В архив выражение записывается с именами функций, поэтому
+     * после загрузки из архива оно снова вычисляется точно.
+     * 
+     * @param precision точность
+     * @return выражение с заданной точностью
+     */
+    public CompiledExpression withPrecision(Precision precision) {
+        if (precision == this.precision) {
+            return this;
+        }
+        Simplifier.Result simplified;
+        if (tree instanceof Node.Block) {
+            // Выражение восстановлено из архива и уже оптимизировано: меняются только функции
+            Node approximated = precision == Precision.FAST ? Simplifier.approximate(tree) : tree;
+            simplified = new Simplifier.Result(approximated, program.stackBase);
+        } else {
+            simplified = Simplifier.simplify(tree, variableNames.length, precision);
+        }
+        return new CompiledExpression(source, tree, simplified, variableNames, precision);
+    }
+    
+    /**
+     * @return точность встроенных функций этого выражения
+     */
+    public Precision getPrecision() {
+        return precision;
+    }
+    
+    /**
+     * Возвращает исходный текст выражения.
+     * 
+     * @return текст выражения
+     */
+    public String getSource() {
+        return source;
+    }
+    
+    /**
+     * Возвращает оптимизированную форму выражения: константы свернуты,
+     * тождественные операции убраны, повторяющиеся подвыражения вынесены
+     * в определения t1, t2, ... Именно эта форма вычисляется при каждом вызове.
+     * 
+     * @return текст оптимизированного выражения
+     */
+    public String getSimplifiedForm() {
+        return NodePrinter.print(root);
+    }
+    
+    /**
+     * Возвращает имена переменных в порядке их первого появления в выражении.
+     * 
+     * @return множество имен переменных
+     */
+    public Set<String> getVariableNames() {
+        return new LinkedHashSet<>(Arrays.asList(variableNames));
+    }
+    
+    /**
+     * Возвращает число переменных выражения. Переменные занимают
+     * ячейки с номерами от 0 до getVariableCount() - 1.
+     * 
+     * @return число переменных
+     */
+    public int getVariableCount() {
+        return variableNames.length;
+    }
+    
+    /**
+     * Возвращает номер ячейки переменной. Номера назначаются при компиляции
+     * в порядке первого появления переменных в выражении, поэтому поиск
+     * по имени достаточно выполнить один раз и дальше работать с номером.
+     * 
+     * @param name имя переменной
+     * @return номер ячейки или -1 если такой переменной в выражении нет
+     */
+    public int slotOf(String name) {
+        for (int i = 0; i < variableNames.length; i++) {
+            if (variableNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Возвращает размер рабочего массива для {@link #evaluate(double[])}.
+     * Кроме переменных массив вмещает временные значения и стек интерпретатора.
+     * 
+     * @return размер рабочего массива
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+    
+    /**
+     * Создает рабочий массив для {@link #evaluate(double[])}.
+     * 
+     * @return массив длиной {@link #getSlotCount()}
+     */
+    public double[] newSlots() {
+        return new double[slotCount];
+    }
+    
+    /**
+     * Вычисляет выражение без переменных.
+     * 
+     * @return результат вычисления
+     * @throws IllegalArgumentException если в выражении есть переменные
+     * @throws ArithmeticException при делении на ноль
+     */
+    public double evaluate() {
+        return evaluate(Collections.emptyMap());
+    }
+    
+    /**
+     * Вычисляет выражение с заданными значениями переменных.
+     * 
+     * @param variables значения переменных по именам
+     * @return результат вычисления
+     * @throws IllegalArgumentException если значение какой-то переменной не задано
+     * @throws ArithmeticException при делении на ноль
+     */
+    public double evaluate(Map<String, Double> variables) {
+        return evaluate(variables, new double[slotCount]);
+    }
+    
+    /**
+     * Вычисляет выражение в переданном рабочем массиве, чтобы вызывающий мог
+     * переиспользовать его между вызовами и не выделять память.
+     * 
+     * @param variables значения переменных по именам
+     * @param slots рабочий массив длиной не меньше {@link #getSlotCount()}
+     * @return результат вычисления
+     */
+    double evaluate(Map<String, Double> variables, double[] slots) {
+        bind(variables, slots);
+        return function(1).evaluate(slots);
+    }
+    
+    /**
+     * Вычисляет выражение, сообщая слушателю о каждом шаге вычисления.
+     * Для наглядности трассируется дерево в том виде, в котором оно записано,
+     * без оптимизаций.
+     * 
+     * @param variables значения переменных по именам
+     * @param listener слушатель трассировки
+     * @return результат вычисления
+     * @throws IllegalArgumentException если значение какой-то переменной не задано
+     * @throws ArithmeticException при делении на ноль
+     */
+    public double evaluate(Map<String, Double> variables, TraceListener listener) {
+        listener.onStart(source);
+        Program trace = traceProgram();
+        double[] slots = new double[Math.max(slotCount, trace.stackBase + trace.maxStack)];
+        bind(variables, slots);
+        double result = trace.evaluate(slots, listener);
+        listener.onResult(source, result);
+        return result;
+    }
+    
+    /**
+     * Вычисляет выражение по значениям переменных, разложенным по номерам ячеек
+     * (см. {@link #slotOf(String)}). Это самый быстрый способ вычисления:
+     * имена переменных не используются, стоимость не зависит от их числа и длины.
+     * <p>
+     * Если длина массива не меньше {@link #getSlotCount()}, он же используется
+     * как рабочий и вызов не выделяет память; ячейки после переменных при этом
+     * перезаписываются. Более короткий массив (но не короче числа переменных)
+     * копируется во временный.
+     * 
+     * @param slots значения переменных по номерам ячеек
+     * @return результат вычисления
+     * @throws IllegalArgumentException если массив короче числа переменных
+     * @throws ArithmeticException при делении на ноль
+     */
+    public double evaluate(double[] slots) {
+        if (slots.length < slotCount) {
+            if (slots.length < variableNames.length) {
+                throw new IllegalArgumentException("Заданы значения не всех переменных");
+            }
+            slots = Arrays.copyOf(slots, slotCount);
+        }
+        return function(1).evaluate(slots);
+    }
+    
+    /**
+     * Вычисляет выражение со значениями переменных, переданными для этого вызова.
+     * Метод не меняет ни состояние выражения, ни привязки и может вызываться
+     * из многих потоков, в том числе с одними и теми же привязками.
+     * Рабочий массив у каждого потока свой, поэтому при повторных вызовах
+     * в том же потоке память не выделяется.
+     * 
+     * @param bindings значения переменных
+     * @return результат вычисления
+     * @throws IllegalArgumentException если значение какой-то переменной не задано
+     * @throws ArithmeticException при делении на ноль
+     */
+    public double evaluate(Bindings bindings) {
+        double[] slots = Workspace.acquire(slotCount);
+        try {
+            for (int i = 0; i < variableNames.length; i++) {
+                slots[i] = bindings.get(variableNames[i]);
+            }
+            return function(1).evaluate(slots);
+        } finally {
+            Workspace.release(slots);
+        }
+    }
+    
+    /**
+     * Вычисляет выражение для каждой строки набора данных, заданного столбцами.
+     * Значение i-й строки берется из i-х элементов массивов переменных
+     * и записывается в out[i]. Внутри цикла по строкам объекты не создаются.
+     * 
+     * @param columns массивы значений переменных по именам
+     * @param out массив для результатов, его длина задает число строк
+     * @throws IllegalArgumentException если нет столбца для переменной или он короче out
+     * @throws ArithmeticException при делении на ноль в любой из строк
+     */
+    public void evaluateBatch(Map<String, double[]> columns, double[] out) {
+        double[][] bound = new double[variableNames.length][];
+        for (int i = 0; i < variableNames.length; i++) {
+            double[] column = columns.get(variableNames[i]);
+            if (column == null) {
+                throw new IllegalArgumentException("Не задан столбец для переменной " + variableNames[i]);
+            }
+            if (column.length < out.length) {
+                throw new IllegalArgumentException("Столбец " + variableNames[i] + " короче массива результатов");
+            }
+            bound[i] = column;
+        }
+        
+        evaluateBatch(bound, out, ColumnarProgram.ENABLED);
+    }
+    
+    /**
+     * Вычисляет выражение для каждой строки набора данных, столбцы которого
+     * лежат вне кучи: в прямых буферах или в отображенных в память файлах
+     * (см. {@link ColumnFileEvaluator}). Строки копируются в кучу порциями
+     * по {@link #BUFFER_CHUNK}, поэтому расход памяти кучи не зависит от размера набора.
+     * Число строк задается числом оставшихся элементов out, значения берутся
+     * и пишутся начиная с текущих позиций буферов; сами позиции не меняются.
+     * 
+     * @param columns буферы значений переменных по именам
+     * @param out буфер для результатов
+     * @throws IllegalArgumentException если нет буфера для переменной или в нем меньше строк, чем в out
+     * @throws ArithmeticException при делении на ноль в любой из строк;
+     *         результаты записаны только для порций до порции с ошибкой
+     */
+    public void evaluateBatch(Map<String, DoubleBuffer> columns, DoubleBuffer out) {
+        int rows = out.remaining();
+        DoubleBuffer[] bound = new DoubleBuffer[variableNames.length];
+        for (int i = 0; i < variableNames.length; i++) {
+            DoubleBuffer column = columns.get(variableNames[i]);
+            if (column == null) {
+                throw new IllegalArgumentException("Не задан столбец для переменной " + variableNames[i]);
+            }
+            if (column.remaining() < rows) {
+                throw new IllegalArgumentException("Столбец " + variableNames[i] + " короче буфера результатов");
+            }
+            bound[i] = column;
+        }
+        
+        double[][] chunk = new double[bound.length][Math.min(rows, BUFFER_CHUNK)];
+        double[] results = new double[Math.min(rows, BUFFER_CHUNK)];
+        for (int start = 0; start < rows; start += BUFFER_CHUNK) {
+            int count = Math.min(BUFFER_CHUNK, rows - start);
+            if (count < results.length) {
+                // Последняя неполная порция: длина массива результатов задает число строк
+                chunk = new double[bound.length][count];
+                results = new double[count];
+            }
+            for (int i = 0; i < bound.length; i++) {
+                bound[i].get(bound[i].position() + start, chunk[i], 0, count);
+            }
+            evaluateBatch(chunk, results, ColumnarProgram.ENABLED);
+            out.put(out.position() + start, results, 0, count);
+        }
+    }
+    
+    /**
+     * Вычисляет пакет по уже найденным столбцам. Выражения из арифметических
+     * операций, sqrt и abs вычисляются по столбцам порциями (см. {@link ColumnarProgram}),
+     * остальные - по строкам.
+     * 
+     * @param columns столбцы переменных по номерам ячеек
+     * @param out массив для результатов
+     * @param columnar разрешено ли вычисление по столбцам
+     */
+    void evaluateBatch(double[][] columns, double[] out, boolean columnar) {
+        SlotFunction function = function(out.length);
+        double[] slots = new double[slotCount];
+        ColumnarProgram chunked = columnar ? columnar() : null;
+        if (chunked == null) {
+            evaluateRows(function, columns, slots, out, 0, out.length);
+            return;
+        }
+        
+        double[][] registers = chunked.newRegisters();
+        for (int start = 0; start < out.length; start += ColumnarProgram.CHUNK) {
+            int count = Math.min(ColumnarProgram.CHUNK, out.length - start);
+            if (!chunked.evaluate(columns, start, count, registers, out)) {
+                // В порции есть ошибка: по строкам она возникнет в той же строке, что и без порций
+                evaluateRows(function, columns, slots, out, start, start + count);
+            }
+        }
+    }
+    
+    private static void evaluateRows(SlotFunction function, double[][] columns, double[] slots,
+                                     double[] out, int from, int to) {
+        for (int row = from; row < to; row++) {
+            for (int i = 0; i < columns.length; i++) {
+                slots[i] = columns[i][row];
+            }
+            out[row] = function.evaluate(slots);
+        }
+    }
+    
+    /**
+     * Возвращает программу для трассировки, создавая ее при первом вызове.
+     * Трассируется дерево в том виде, в котором оно записано, поэтому
+     * программа строится по нему, а не по оптимизированному дереву.
+     * 
+     * @return программа исходного дерева
+     */
+    private Program traceProgram() {
+        Program trace = traceProgram;
+        if (trace == null) {
+            if (tree == root) {
+                trace = program;
+            } else {
+                // Восстановленное из архива дерево уже содержит временные ячейки
+                trace = Program.compile(tree, tree instanceof Node.Block ? program.stackBase : variableNames.length);
+            }
+            traceProgram = trace;
+        }
+        return trace;
+    }
+    
+    /**
+     * Возвращает программу по столбцам, создавая ее при первом пакетном вычислении.
+     * Гонка между потоками безопасна: каждый получит равноценную программу.
+     * 
+     * @return программа по столбцам или null если выражение не поддерживается
+     */
+    private ColumnarProgram columnar() {
+        if (!columnarChecked) {
+            columnarProgram = ColumnarProgram.of(program, variableNames.length);
+            columnarChecked = true;
+        }
+        return columnarProgram;
+    }
+    
+    /**
+     * Вычисляет значение выражения и частные производные по всем переменным
+     * за один проход (прямой режим автоматического дифференцирования).
+     * Производные точные, а не конечные разности, и стоят примерно одного
+     * вычисления, а не 2N + 1. Для min и max берется производная выбранного
+     * аргумента, для abs - знак аргумента.
+     * 
+     * @param bindings значения переменных
+     * @return значение и производные
+     * @throws IllegalArgumentException если значение какой-то переменной не задано
+     * @throws IllegalStateException если в выражении есть пользовательская функция
+     * @throws ArithmeticException при делении на ноль
+     */
+    public Gradient evaluateGradient(Bindings bindings) {
+        double[] variables = new double[variableNames.length];
+        for (int i = 0; i < variableNames.length; i++) {
+            variables[i] = bindings.get(variableNames[i]);
+        }
+        double[] derivatives = new double[variableNames.length];
+        double value = differentiator().evaluate(variables, derivatives);
+        return new Gradient(value, variableNames, derivatives);
+    }
+    
+    /**
+     * Вычисляет значение выражения и частные производные по номерам ячеек переменных.
+     * 
+     * @param variables значения переменных по номерам ячеек
+     * @param gradient массив для производных, не короче числа переменных
+     * @return значение выражения
+     * @throws IllegalArgumentException если один из массивов короче числа переменных
+     * @throws IllegalStateException если в выражении есть пользовательская функция
+     * @throws ArithmeticException при делении на ноль
+     */
+    public double evaluateGradient(double[] variables, double[] gradient) {
+        if (variables.length < variableNames.length || gradient.length < variableNames.length) {
+            throw new IllegalArgumentException("Массив короче числа переменных");
+        }
+        return differentiator().evaluate(variables, gradient);
+    }
+    
+    private Differentiator differentiator() {
+        Differentiator current = differentiator;
+        if (current == null) {
+            current = Differentiator.of(program, variableNames.length);
+            differentiator = current;
+        }
+        return current;
+    }
+    
+    /**
+     * Создает вычислитель, который запоминает промежуточные результаты
+     * и при изменении части переменных пересчитывает только зависящие от них узлы.
+     * 
+     * @return новый инкрементальный вычислитель
+     */
+    public IncrementalEvaluator incremental() {
+        return new IncrementalEvaluator(this);
+    }
+    
+    /**
+     * @return программа стекового интерпретатора
+     */
+    Program getProgram() {
+        return program;
+    }
+    
+    /**
+     * @return оптимизированное дерево выражения
+     */
+    Node getOptimizedTree() {
+        return root;
+    }
+    
+    /**
+     * Считает узлы дерева разбора: числа, переменные, операции и вызовы функций.
+     * 
+     * @return размер выражения в узлах
+     */
+    int getNodeCount() {
+        int count = 0;
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(tree);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            count++;
+            if (node instanceof Node.Binary) {
+                pending.push(((Node.Binary) node).left);
+                pending.push(((Node.Binary) node).right);
+            } else if (node instanceof Node.Negate) {
+                pending.push(((Node.Negate) node).operand);
+            } else if (node instanceof Node.Call) {
+                for (Node argument : ((Node.Call) node).arguments) {
+                    pending.push(argument);
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * @param slot номер ячейки переменной
+     * @return имя переменной
+     */
+    String getVariableName(int slot) {
+        return variableNames[slot];
+    }
+    
+    /**
+     * Возвращает текущую вычислимую форму и учитывает предстоящие вычисления.
+     * Холодные выражения интерпретируются; когда число вычислений достигает
+     * порога, выражение компилируется в байткод.
+     * 
+     * @param count число предстоящих вычислений
+     * @return вычислимая форма выражения
+     */
+    SlotFunction function(int count) {
+        if (!compiled && BytecodeCompiler.THRESHOLD > 0) {
+            calls += count;
+            if (calls >= BytecodeCompiler.THRESHOLD) {
+                promote();
+            }
+        }
+        return function;
+    }
+    
+    /**
+     * Компилирует выражение в байткод и переключает на него вычисления.
+     * Если компиляция невозможна, выражение остается интерпретируемым.
+     */
+    synchronized void promote() {
+        if (compiled) {
+            return;
+        }
+        try {
+            function = BytecodeCompiler.compile(root);
+        } catch (IllegalStateException e) {
+            // Остаемся на интерпретаторе
+        }
+        compiled = true;
+    }
+    
+    /**
+     * @return true если выражение вычисляется сгенерированным байткодом
+     */
+    boolean isBytecodeCompiled() {
+        return function != program;
+    }
+    
+    private void bind(Map<String, Double> variables, double[] slots) {
+        for (int i = 0; i < variableNames.length; i++) {
+            Double value = variables.get(variableNames[i]);
+            if (value == null) {
+                throw new MissingVariableException(variableNames[i]);
+            }
+            slots[i] = value;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,256 @@
+package general;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для скомпилированных выражений
+ */
+public class CompiledExpressionTest {
+    
+    // ========== ТЕСТЫ ВЫЧИСЛЕНИЯ ==========
+    
+    @Test
+    public void testOperatorPriority() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("2 + 3 * 4 - 6 / 2");
+        assertEquals(11.0, expression.evaluate(), 0.001);
+    }
+    
+    @Test
+    public void testLeftAssociativity() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        assertEquals(1.0, calculator.compile("8 - 4 - 3").evaluate(), 0.001);
+        assertEquals(1.0, calculator.compile("8 / 4 / 2").evaluate(), 0.001);
+    }
+    
+    @Test
+    public void testUnaryMinus() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        assertEquals(-5.0, calculator.compile("-5").evaluate(), 0.001);
+        assertEquals(-5.0, calculator.compile("-(2 + 3)").evaluate(), 0.001);
+        assertEquals(1.0, calculator.compile("(-2) + 3").evaluate(), 0.001);
+    }
+    
+    @Test
+    public void testNestedFunctions() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("sqrt(sqrt(16)) + cos(sin(0))");
+        assertEquals(3.0, expression.evaluate(), 0.001);
+    }
+    
+    @Test
+    public void testSameExpressionWithDifferentVariables() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("(a + b) * c");
+        
+        Map<String, Double> variables = new HashMap<>();
+        variables.put("a", 2.0);
+        variables.put("b", 3.0);
+        variables.put("c", 4.0);
+        assertEquals(20.0, expression.evaluate(variables), 0.001);
+        
+        variables.put("c", 10.0);
+        assertEquals(50.0, expression.evaluate(variables), 0.001);
+    }
+    
+    @Test
+    public void testEvaluateWithCalculatorVariables() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("x * y");
+        calculator.setVariable("x", 5.0);
+        calculator.setVariable("y", 3.0);
+        assertEquals(15.0, calculator.evaluate(expression), 0.001);
+    }
+    
+    @Test
+    public void testVariableNamesInOrder() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("width * sin(x) + x");
+        assertEquals(Arrays.asList("width", "x"), new ArrayList<>(expression.getVariableNames()));
+    }
+    
+    // ========== ТЕСТЫ ЯЧЕЕК ПЕРЕМЕННЫХ ==========
+    
+    @Test
+    public void testEvaluateBySlots() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("(a + b) * c");
+        double[] slots = expression.newSlots();
+        slots[expression.slotOf("a")] = 2.0;
+        slots[expression.slotOf("b")] = 3.0;
+        slots[expression.slotOf("c")] = 4.0;
+        assertEquals(20.0, expression.evaluate(slots), 0.001);
+        
+        slots[expression.slotOf("c")] = 10.0;
+        assertEquals(50.0, expression.evaluate(slots), 0.001);
+        assertEquals(-1, expression.slotOf("d"));
+        assertEquals(3, expression.getVariableCount());
+    }
+    
+    @Test
+    public void testEvaluateByShortSlots() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("sqrt(x * x + y * y) + sqrt(x * x + y * y)");
+        assertEquals(10.0, expression.evaluate(new double[] {3.0, 4.0}), 0.001);
+        assertThrows(IllegalArgumentException.class, () -> {
+            expression.evaluate(new double[] {3.0});
+        });
+    }
+    
+    @Test
+    public void testVariableNamesThatArePrefixesOfOthers() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        calculator.setVariable("x", 2.0);
+        calculator.setVariable("xy", 10.0);
+        calculator.setVariable("sinx", 100.0);
+        assertEquals(2.0 + 10.0 + 100.0 + Math.sin(2.0), calculator.calculate("x + xy + sinx + sin(x)"), 1e-12);
+    }
+    
+    // ========== ТЕСТЫ ПАКЕТНОГО ВЫЧИСЛЕНИЯ ==========
+    
+    @Test
+    public void testEvaluateBatch() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] {1, 2, 3, 4});
+        columns.put("y", new double[] {10, 20, 30, 40});
+        double[] out = new double[4];
+        
+        calculator.evaluateBatch("x * y + sqrt(x)", columns, out);
+        
+        assertArrayEquals(new double[] {11.0, 41.414, 91.732, 162.0}, out, 0.001);
+    }
+    
+    @Test
+    public void testEvaluateBatchWithShortColumn() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] {1, 2});
+        assertThrows(IllegalArgumentException.class, () -> {
+            calculator.evaluateBatch("x + 1", columns, new double[3]);
+        });
+    }
+    
+    // ========== ТЕСТЫ ОШИБОК ==========
+    
+    @Test
+    public void testDivisionByZero() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("5 / (2 - 2)");
+        Exception exception = assertThrows(ArithmeticException.class, () -> {
+            expression.evaluate();
+        });
+        assertTrue(exception.getMessage().contains("Деление на ноль"));
+    }
+    
+    @Test
+    public void testSqrtOfNegativeNumber() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("sqrt(-1)");
+        assertThrows(IllegalArgumentException.class, () -> {
+            expression.evaluate();
+        });
+    }
+    
+    @Test
+    public void testMissingVariable() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("x + 1");
+        assertThrows(IllegalArgumentException.class, () -> {
+            expression.evaluate();
+        });
+    }
+    
+    @Test
+    public void testInvalidExpressions() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        String[] invalid = {"", "2 + + 3", "(2 + 3", "2 + 3)", "2 @ 3", "sin 5", "foo(2)", "1.2.3", "2 3"};
+        for (String expression : invalid) {
+            assertThrows(IllegalArgumentException.class, () -> {
+                calculator.compile(expression);
+            });
+        }
+    }
+    
+    @Test
+    public void testErrorReportsPosition() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            calculator.compile("2 + 3 @ 4");
+        });
+        assertTrue(exception.getMessage().contains("позиции 7"));
+        
+        exception = assertThrows(IllegalArgumentException.class, () -> {
+            calculator.compile("(1 + 2 * 3");
+        });
+        assertTrue(exception.getMessage().contains("позиции 11"));
+    }
+    
+    // ========== ТЕСТЫ ДЛИННЫХ ВЫРАЖЕНИЙ ==========
+    
+    @Test
+    public void testLongGeneratedExpression() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        StringBuilder expression = new StringBuilder("0");
+        for (int i = 0; i < 5000; i++) {
+            expression.append(i % 2 == 0 ? " + x" : " - 1");
+        }
+        CompiledExpression compiled = calculator.compile(expression.toString());
+        assertTrue(expression.length() > 10000);
+        assertEquals(2500.0, compiled.evaluate(Collections.singletonMap("x", 2.0)), 0.001);
+    }
+    
+    @Test
+    public void testTraceOfLongExpression() {
+        // 24000 операций в левой цепочке: трассировка не должна переполнять стек вызовов
+        StringBuilder expression = new StringBuilder("x");
+        for (int i = 0; i < 12000; i++) {
+            expression.append("+x*y");
+        }
+        CompiledExpression compiled = new ExpressionEngine().compile(expression.toString());
+        Map<String, Double> variables = new HashMap<>();
+        variables.put("x", 2.0);
+        variables.put("y", 0.5);
+        int[] operations = {0};
+        double result = compiled.evaluate(variables, new TraceListener() {
+            @Override
+            public void onStart(String expression) {
+            }
+            
+            @Override
+            public void onOperation(char operator, double left, double right, double result) {
+                operations[0]++;
+            }
+            
+            @Override
+            public void onFunction(String name, double argument, double result) {
+            }
+            
+            @Override
+            public void onResult(String expression, double result) {
+            }
+        });
+        assertEquals(12002.0, result, 0.001);
+        assertEquals(24000, operations[0]);
+    }
+    
+    @Test
+    public void testSimplifiedFormOfLongExpression() {
+        // 24000 операций в левой цепочке: печать не должна переполнять стек вызовов
+        StringBuilder expression = new StringBuilder("x");
+        for (int i = 0; i < 8000; i++) {
+            expression.append("+x*y-y");
+        }
+        assertEquals(48001, expression.length());
+        CompiledExpression compiled = new ExpressionEngine().compile(expression.toString());
+        String form = compiled.getSimplifiedForm();
+        assertTrue(form.startsWith("t1 = x * y; x + t1 - y + t1 - y"));
+        assertTrue(form.endsWith(" + t1 - y"));
+        
+        Map<String, Double> variables = new HashMap<>();
+        variables.put("x", 2.0);
+        variables.put("y", 0.5);
+        assertEquals(4002.0, compiled.evaluate(variables), 0.001);
+    }
+}
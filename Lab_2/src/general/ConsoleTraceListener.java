@@ -0,0 +1,60 @@
+package general;
+
+import java.io.PrintStream;
+
+/**
+ * Слушатель трассировки, который печатает шаги вычисления в консоль.
+ * 
+ * @author Кристина
+ */
+public class ConsoleTraceListener implements TraceListener {
+    private final PrintStream out;
+    
+    /**
+     * Создает слушатель, печатающий в стандартный вывод.
+     */
+    public ConsoleTraceListener() {
+        this(System.out);
+    }
+    
+    /**
+     * Создает слушатель, печатающий в заданный поток.
+     * 
+     * @param out поток для вывода
+     */
+    public ConsoleTraceListener(PrintStream out) {
+        this.out = out;
+    }
+    
+    @Override
+    public void onStart(String expression) {
+        out.println("Вычисляем: " + expression);
+    }
+    
+    @Override
+    public void onOperation(char operator, double left, double right, double result) {
+        out.println("Операция: " + left + " " + operator + " " + right + " = " + result);
+    }
+    
+    @Override
+    public void onFunction(String name, double argument, double result) {
+        out.println("Функция: " + name + "(" + argument + ") = " + result);
+    }
+    
+    @Override
+    public void onFunction(String name, double[] arguments, double result) {
+        StringBuilder text = new StringBuilder("Функция: ").append(name).append('(');
+        for (int i = 0; i < arguments.length; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(arguments[i]);
+        }
+        out.println(text.append(") = ").append(result));
+    }
+    
+    @Override
+    public void onResult(String expression, double result) {
+        out.println("Финальный результат: " + result);
+    }
+}
@@ -0,0 +1,321 @@
+package general;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Потоковое вычисление выражения по строкам CSV-файла.
+ * <p>
+ * Первая строка файла - заголовок с именами столбцов, остальные - числа через запятую.
+ * Столбцы, имена которых совпадают с переменными выражения, подставляются в него,
+ * прочие игнорируются. Для каждой строки в выходной файл пишется одна строка
+ * с результатом или с текстом ошибки ("ОШИБКА: Деление на ноль!").
+ * <p>
+ * Входной файл отображается в память окнами через {@link FileChannel#map},
+ * числа разбираются прямо из байтов без создания строк, результаты пишутся
+ * через буфер в канал. Расход памяти не зависит от размера файла.
+ * 
+ * @author Кристина
+ */
+public class CsvEvaluator {
+    private static final long DEFAULT_WINDOW_SIZE = 64L << 20;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    private final CompiledExpression expression;
+    private final long windowSize;
+    private final double[] slots;
+    private final StringBuilder text = new StringBuilder(32);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+    private FileChannel output;
+    private int[] columnSlots;
+    private int requiredColumns;
+    private long line;
+    
+    /**
+     * Создает вычислитель для одного выражения.
+     * 
+     * @param expression скомпилированное выражение
+     */
+    public CsvEvaluator(CompiledExpression expression) {
+        this(expression, DEFAULT_WINDOW_SIZE);
+    }
+    
+    CsvEvaluator(CompiledExpression expression, long windowSize) {
+        this.expression = expression;
+        this.windowSize = windowSize;
+        this.slots = new double[expression.getSlotCount()];
+    }
+    
+    /**
+     * Вычисляет выражение для каждой строки входного файла.
+     * 
+     * @param input CSV-файл с заголовком
+     * @param outputFile файл для результатов (перезаписывается)
+     * @return число обработанных строк данных
+     * @throws IOException при ошибке чтения или записи
+     * @throws IllegalArgumentException если в заголовке нет столбца для переменной
+     *         или в данных встречено некорректное число
+     */
+    public long evaluate(Path input, Path outputFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(outputFile, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            output = target;
+            out.clear();
+            line = 0;
+            long rows = process(channel);
+            flush();
+            return rows;
+        } finally {
+            output = null;
+        }
+    }
+    
+    private long process(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        long rows = 0;
+        boolean header = true;
+        
+        while (position < size) {
+            int length = (int) Math.min(windowSize, size - position);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            boolean last = position + length == size;
+            
+            int lineStart = 0;
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(i) == '\n') {
+                    rows += processLine(buffer, lineStart, i, header);
+                    header = false;
+                    lineStart = i + 1;
+                }
+            }
+            
+            if (last) {
+                if (lineStart < length) {
+                    rows += processLine(buffer, lineStart, length, header);
+                    header = false;
+                }
+                position = size;
+            } else {
+                if (lineStart == 0) {
+                    throw new IllegalArgumentException("Строка " + (line + 1) + " длиннее окна чтения");
+                }
+                // Незаконченная строка будет прочитана целиком в следующем окне
+                position += lineStart;
+            }
+        }
+        
+        if (header) {
+            throw new IllegalArgumentException("Во входном файле нет заголовка");
+        }
+        return rows;
+    }
+    
+    private int processLine(ByteBuffer buffer, int from, int to, boolean header) throws IOException {
+        line++;
+        if (to > from && buffer.get(to - 1) == '\r') {
+            to--;
+        }
+        if (header) {
+            readHeader(buffer, from, to);
+            return 0;
+        }
+        if (to == from) {
+            return 0;
+        }
+        
+        int column = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || buffer.get(i) == ',') {
+                if (column < columnSlots.length && columnSlots[column] >= 0) {
+                    slots[columnSlots[column]] = parseNumber(buffer, start, i);
+                }
+                column++;
+                start = i + 1;
+            }
+        }
+        if (column < requiredColumns) {
+            throw new IllegalArgumentException("В строке " + line + " не хватает столбцов");
+        }
+        
+        try {
+            writeResult(expression.function(1).evaluate(slots));
+        } catch (RuntimeException e) {
+            // В том числе исключения пользовательских функций: строка получает ошибку, файл дописывается
+            writeError(e);
+        }
+        return 1;
+    }
+    
+    private void readHeader(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        String[] names = new String(bytes, StandardCharsets.UTF_8).split(",", -1);
+        
+        columnSlots = new int[names.length];
+        requiredColumns = 0;
+        for (int i = 0; i < names.length; i++) {
+            columnSlots[i] = expression.slotOf(names[i].trim());
+            if (columnSlots[i] >= 0) {
+                requiredColumns = i + 1;
+            }
+        }
+        for (String name : expression.getVariableNames()) {
+            if (!contains(names, name)) {
+                throw new IllegalArgumentException("Во входном файле нет столбца для переменной " + name);
+            }
+        }
+    }
+    
+    private static boolean contains(String[] names, String name) {
+        for (String candidate : names) {
+            if (candidate.trim().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Разбирает десятичное число из байтов без создания строки.
+     * Числа, у которых не больше 15 значащих цифр и небольшой порядок,
+     * переводятся точно одним умножением или делением на степень десяти;
+     * остальные (редкий случай) - через {@link Double#parseDouble}.
+     * 
+     * @param buffer буфер с данными
+     * @param from начало поля
+     * @param to конец поля (не включая)
+     * @return значение числа
+     * @throws IllegalArgumentException если поле не является числом
+     */
+    double parseNumber(ByteBuffer buffer, int from, int to) {
+        while (from < to && isSpace(buffer.get(from))) from++;
+        while (to > from && isSpace(buffer.get(to - 1))) to--;
+        
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean anyDigit = false;
+        boolean dot = false;
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                anyDigit = true;
+                if (mantissa == 0 && b == '0') {
+                    // Ведущие нули не занимают значащих разрядов
+                    if (dot) scale--;
+                    continue;
+                }
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (dot) scale--;
+                } else {
+                    digits++;
+                    if (!dot) scale++;
+                }
+            } else if (b == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (!anyDigit) {
+            throw invalidNumber(buffer, from, to);
+        }
+        
+        if (i < to && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negativeExponent = buffer.get(i) == '-';
+                i++;
+            }
+            int exponent = 0;
+            int exponentStart = i;
+            for (; i < to && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++) {
+                exponent = Math.min(exponent * 10 + (buffer.get(i) - '0'), 100000);
+            }
+            if (i == exponentStart) {
+                throw invalidNumber(buffer, from, to);
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i != to) {
+            throw invalidNumber(buffer, from, to);
+        }
+        
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (digits <= MAX_FAST_DIGITS && scale >= 0 && scale < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[scale];
+        } else if (digits <= MAX_FAST_DIGITS && scale < 0 && -scale < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-scale];
+        } else {
+            return Double.parseDouble(text(buffer, from, to));
+        }
+        return negative ? -value : value;
+    }
+    
+    private IllegalArgumentException invalidNumber(ByteBuffer buffer, int from, int to) {
+        return new IllegalArgumentException("Некорректное число '" + text(buffer, from, to) + "' в строке " + line);
+    }
+    
+    private static String text(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+    
+    private void writeResult(double value) throws IOException {
+        text.setLength(0);
+        text.append(value);
+        if (out.remaining() < text.length() + 1) {
+            flush();
+        }
+        for (int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+        out.put((byte) '\n');
+    }
+    
+    private void writeError(RuntimeException e) throws IOException {
+        byte[] bytes = ("ОШИБКА: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8);
+        if (out.remaining() < bytes.length) {
+            flush();
+        }
+        out.put(bytes);
+    }
+    
+    private void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            output.write(out);
+        }
+        out.clear();
+    }
+}
@@ -0,0 +1,105 @@
+package general;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для потокового вычисления по CSV-файлу
+ */
+public class CsvEvaluatorTest {
+    
+    private static List<String> run(String expression, String csv, long windowSize) throws Exception {
+        return run(new SimpleCalculator().compile(expression), csv, windowSize);
+    }
+    
+    private static List<String> run(CompiledExpression compiled, String csv, long windowSize) throws Exception {
+        Path input = Files.createTempFile("calculator", ".csv");
+        Path output = Files.createTempFile("calculator", ".out");
+        try {
+            Files.write(input, csv.getBytes(StandardCharsets.UTF_8));
+            new CsvEvaluator(compiled, windowSize).evaluate(input, output);
+            return Files.readAllLines(output, StandardCharsets.UTF_8);
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+    
+    // ========== ТЕСТЫ ВЫЧИСЛЕНИЯ ПО ФАЙЛУ ==========
+    
+    @Test
+    public void testEvaluateFile() throws Exception {
+        List<String> lines = run("x * y + 1", "x,y\n1,2\n3,4\n0.5,-2\n", 1 << 20);
+        assertEquals(Arrays.asList("3.0", "13.0", "0.0"), lines);
+    }
+    
+    @Test
+    public void testExtraColumnsAndWindowsCrlf() throws Exception {
+        List<String> lines = run("b - a", "id,a,note,b\r\n1, 10 ,7,15\r\n2,1,7,1.5", 1 << 20);
+        assertEquals(Arrays.asList("5.0", "0.5"), lines);
+    }
+    
+    @Test
+    public void testRowsCrossWindowBoundaries() throws Exception {
+        StringBuilder csv = new StringBuilder("x\n");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            csv.append(i).append('\n');
+            expected.add(String.valueOf(i * 2.0));
+        }
+        assertEquals(expected, run("x * 2", csv.toString(), 64));
+    }
+    
+    @Test
+    public void testErrorsAreWrittenPerRow() throws Exception {
+        List<String> lines = run("1 / x", "x\n2\n0\n4\n", 1 << 20);
+        assertEquals(Arrays.asList("0.5", "ОШИБКА: Деление на ноль!", "0.25"), lines);
+    }
+    
+    @Test
+    public void testCustomFunctionErrorsAreWrittenPerRow() throws Exception {
+        FunctionRegistry functions = new FunctionRegistry().register("checked", x -> {
+            if (x == 0) {
+                throw new IllegalStateException("сбой функции");
+            }
+            return x;
+        });
+        CompiledExpression compiled = new ExpressionEngine(functions, null, null).compile("checked(x) * 2");
+        List<String> lines = run(compiled, "x\n1\n0\n3\n", 1 << 20);
+        assertEquals(Arrays.asList("2.0", "ОШИБКА: сбой функции", "6.0"), lines);
+    }
+    
+    @Test
+    public void testMissingColumn() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            run("x + y", "x\n1\n", 1 << 20);
+        });
+    }
+    
+    // ========== ТЕСТЫ РАЗБОРА ЧИСЕЛ ==========
+    
+    @Test
+    public void testParseNumber() {
+        CsvEvaluator evaluator = new CsvEvaluator(new SimpleCalculator().compile("1"));
+        String[] numbers = {"0", "42", "-7", "+3.25", "0.05", "123456.789", "1e3", "2.5E-4", ".5", "5.",
+            "0.1", "3.141592653589793", "12345678901234567890", "1e-320", " 8 "};
+        for (String number : numbers) {
+            ByteBuffer buffer = ByteBuffer.wrap(number.getBytes(StandardCharsets.US_ASCII));
+            assertEquals(Double.parseDouble(number.trim()), evaluator.parseNumber(buffer, 0, number.length()), 0.0);
+        }
+    }
+    
+    @Test
+    public void testParseInvalidNumber() {
+        CsvEvaluator evaluator = new CsvEvaluator(new SimpleCalculator().compile("1"));
+        for (String number : new String[] {"", "-", "abc", "1.2.3", "1e", "4x"}) {
+            ByteBuffer buffer = ByteBuffer.wrap(number.getBytes(StandardCharsets.US_ASCII));
+            assertThrows(IllegalArgumentException.class, () -> {
+                evaluator.parseNumber(buffer, 0, number.length());
+            });
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package general;
+
+import java.util.Arrays;
+
+/**
+ * Вычисление значения выражения вместе с частными производными по всем
+ * переменным за один проход (прямой режим автоматического дифференцирования).
+ * <p>
+ * Выполняется тот же код, что и в {@link Program}, но каждая ячейка стека
+ * хранит кроме значения вектор производных по переменным - дуальное число.
+ * Производные операций вычисляются по обычным правилам: (uv)' = u'v + uv',
+ * (u/v)' = (u' - (u/v)v') / v, sin(u)' = cos(u)u' и так далее, поэтому
+ * результат точен, в отличие от конечных разностей, а вычисление стоит
+ * одного прохода, а не 2N + 1 вычислений. Общие подвыражения вычисляются
+ * один раз вместе со своими производными.
+ * <p>
+ * Поддерживаются операции + - * / и все встроенные функции. Для min и max
+ * берется производная выбранного аргумента, для abs - знак аргумента.
+ * Пользовательские функции дифференцировать нельзя.
+ * 
+ * @author Кристина
+ */
+final class Differentiator {
+    private final Program program;
+    private final int variableCount;
+    
+    private Differentiator(Program program, int variableCount) {
+        this.program = program;
+        this.variableCount = variableCount;
+    }
+    
+    /**
+     * Создает дифференцирующий интерпретатор для программы.
+     * 
+     * @param program программа выражения
+     * @param variableCount число переменных
+     * @return интерпретатор
+     * @throws IllegalStateException если в выражении есть пользовательская функция
+     */
+    static Differentiator of(Program program, int variableCount) {
+        for (MathFunction function : program.functions) {
+            if (function.builtin == null) {
+                throw new IllegalStateException("Функцию " + function + " нельзя дифференцировать");
+            }
+        }
+        return new Differentiator(program, variableCount);
+    }
+    
+    /**
+     * Вычисляет значение и производные.
+     * 
+     * @param variables значения переменных по номерам ячеек
+     * @param gradient массив для производных по номерам ячеек переменных
+     * @return значение выражения
+     * @throws ArithmeticException при делении на ноль
+     * @throws IllegalArgumentException при корне из отрицательного числа
+     */
+    double evaluate(double[] variables, double[] gradient) {
+        int n = variableCount;
+        int size = program.stackBase + program.maxStack;
+        double[] values = new double[size];
+        // Производная ячейки s по переменной j лежит в d[s * n + j]
+        double[] d = new double[size * n];
+        System.arraycopy(variables, 0, values, 0, n);
+        for (int i = 0; i < n; i++) {
+            d[i * n + i] = 1;
+        }
+        
+        int[] code = program.code;
+        int top = program.stackBase - 1;
+        int pc = 0;
+        while (pc < code.length) {
+            switch (code[pc++]) {
+                case Program.CONST:
+                    values[++top] = program.constants[code[pc++]];
+                    Arrays.fill(d, top * n, top * n + n, 0);
+                    break;
+                case Program.LOAD: {
+                    int slot = code[pc++];
+                    values[++top] = values[slot];
+                    System.arraycopy(d, slot * n, d, top * n, n);
+                    break;
+                }
+                case Program.STORE: {
+                    int slot = code[pc++];
+                    values[slot] = values[top];
+                    System.arraycopy(d, top * n, d, slot * n, n);
+                    top--;
+                    break;
+                }
+                case Program.NEG:
+                    values[top] = -values[top];
+                    scale(d, top * n, n, -1);
+                    break;
+                case Program.ADD:
+                case Program.SUB: {
+                    boolean add = code[pc - 1] == Program.ADD;
+                    int a = (top - 1) * n;
+                    int b = top * n;
+                    values[top - 1] = add ? values[top - 1] + values[top] : values[top - 1] - values[top];
+                    for (int j = 0; j < n; j++) {
+                        d[a + j] = add ? d[a + j] + d[b + j] : d[a + j] - d[b + j];
+                    }
+                    top--;
+                    break;
+                }
+                case Program.MUL: {
+                    double u = values[top - 1];
+                    double v = values[top];
+                    int a = (top - 1) * n;
+                    int b = top * n;
+                    for (int j = 0; j < n; j++) {
+                        d[a + j] = d[a + j] * v + u * d[b + j];
+                    }
+                    values[--top] = u * v;
+                    break;
+                }
+                case Program.DIV: {
+                    double v = values[top];
+                    double quotient = Node.divide(values[top - 1], v);
+                    int a = (top - 1) * n;
+                    int b = top * n;
+                    for (int j = 0; j < n; j++) {
+                        d[a + j] = (d[a + j] - quotient * d[b + j]) / v;
+                    }
+                    values[--top] = quotient;
+                    break;
+                }
+                default: {
+                    MathFunction function = program.functions[code[pc++]];
+                    int count = code[pc++];
+                    top -= count - 1;
+                    values[top] = call(function, values, d, top, count, n);
+                    break;
+                }
+            }
+        }
+        System.arraycopy(d, top * n, gradient, 0, n);
+        return values[top];
+    }
+    
+    /**
+     * Вычисляет встроенную функцию и заменяет производные первого аргумента производными результата.
+     */
+    private static double call(MathFunction function, double[] values, double[] d, int offset, int count, int n) {
+        // Значение считается самой функцией, чтобы ошибки были теми же, что и без производных
+        double result = function.apply(values, offset, count);
+        double u = values[offset];
+        int a = offset * n;
+        switch (function.builtin) {
+            case SIN:
+            case FAST_SIN:
+                scale(d, a, n, Math.cos(u));
+                break;
+            case COS:
+            case FAST_COS:
+                scale(d, a, n, -Math.sin(u));
+                break;
+            case TAN:
+            case FAST_TAN:
+                scale(d, a, n, 1 + result * result);
+                break;
+            case SQRT:
+                scale(d, a, n, 0.5 / result);
+                break;
+            case LOG:
+                scale(d, a, n, 1 / u);
+                break;
+            case EXP:
+                scale(d, a, n, result);
+                break;
+            case ABS:
+                scale(d, a, n, Math.signum(u));
+                break;
+            case POW: {
+                double v = values[offset + 1];
+                int b = a + n;
+                double byBase = v * Math.pow(u, v - 1);
+                for (int j = 0; j < n; j++) {
+                    // Логарифм основания нужен только при переменном показателе
+                    double byExponent = d[b + j] == 0 ? 0 : d[b + j] * result * Math.log(u);
+                    d[a + j] = byBase * d[a + j] + byExponent;
+                }
+                break;
+            }
+            default: {
+                // min и max: производная того аргумента, значение которого выбрано
+                for (int i = 0; i < count; i++) {
+                    if (values[offset + i] == result) {
+                        System.arraycopy(d, (offset + i) * n, d, a, n);
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+        return result;
+    }
+    
+    private static void scale(double[] d, int from, int n, double factor) {
+        for (int j = from; j < from + n; j++) {
+            d[j] *= factor;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package general;
+
+/**
+ * Деление на ноль при вычислении выражения.
+ * 
+ * @author Кристина
+ */
+public class DivisionByZeroException extends ArithmeticException {
+    private static final long serialVersionUID = 1L;
+    
+    DivisionByZeroException() {
+        super(Node.DIVISION_BY_ZERO);
+    }
+}
@@ -0,0 +1,366 @@
+package general;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Показатели работы вычислителя: число разборов и вычислений, попадания в кэш,
+ * ошибки по видам, распределения времени разбора, времени вычисления
+ * и размера выражений.
+ * <p>
+ * Все счетчики - {@link LongAdder}, а гистограммы состоят из них же, поэтому
+ * запись не берет блокировок и не выделяет память, и метрики можно держать
+ * включенными в рабочей системе. Один объект метрик можно подключить
+ * к нескольким вычислителям ({@link ExpressionEngine#ExpressionEngine(ExpressionCache, EvaluationMetrics)}),
+ * читать через {@link #snapshot()} или зарегистрировать в JMX ({@link #register(String)}).
+ * 
+ * @author Кристина
+ */
+public class EvaluationMetrics implements EvaluationMetricsMBean {
+    
+    /**
+     * Вид ошибки вычисления.
+     */
+    public enum ErrorType {
+        /** Синтаксическая ошибка в выражении. */
+        INVALID_EXPRESSION,
+        /** Деление на ноль. */
+        DIVISION_BY_ZERO,
+        /** Корень из отрицательного числа. */
+        NEGATIVE_SQRT,
+        /** Не задано значение переменной. */
+        MISSING_VARIABLE,
+        /** Превышено ограничение сложности выражения или времени пакета. */
+        LIMIT_EXCEEDED,
+        /** Прочие ошибки, например исключение пользовательской функции. */
+        OTHER
+    }
+    
+    private final LongAdder parses = new LongAdder();
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder[] errors = new LongAdder[ErrorType.values().length];
+    private final Histogram parseTime = new Histogram();
+    private final Histogram evaluationTime = new Histogram();
+    private final Histogram expressionSize = new Histogram();
+    
+    /**
+     * Создает пустой набор метрик.
+     */
+    public EvaluationMetrics() {
+        for (int i = 0; i < errors.length; i++) {
+            errors[i] = new LongAdder();
+        }
+    }
+    
+    /**
+     * Учитывает успешный разбор выражения.
+     * 
+     * @param nanos время разбора
+     * @param expression результат разбора
+     */
+    void recordParse(long nanos, CompiledExpression expression) {
+        parses.increment();
+        parseTime.record(nanos);
+        expressionSize.record(expression.getNodeCount());
+    }
+    
+    /**
+     * Учитывает обращение к кэшу выражений.
+     */
+    void recordLookup() {
+        lookups.increment();
+    }
+    
+    /**
+     * Учитывает промах кэша: выражения в кэше не было и его пришлось разбирать.
+     */
+    void recordMiss() {
+        misses.increment();
+    }
+    
+    /**
+     * Учитывает успешное вычисление.
+     * 
+     * @param nanos время вычисления
+     */
+    void recordEvaluation(long nanos) {
+        evaluations.increment();
+        evaluationTime.record(nanos);
+    }
+    
+    /**
+     * Учитывает ошибку разбора или вычисления.
+     * 
+     * @param error исключение
+     * @param parsing true если ошибка возникла при разборе
+     */
+    void recordError(RuntimeException error, boolean parsing) {
+        errors[classify(error, parsing).ordinal()].increment();
+    }
+    
+    private static ErrorType classify(RuntimeException error, boolean parsing) {
+        if (error instanceof ExpressionLimitException) {
+            return ErrorType.LIMIT_EXCEEDED;
+        }
+        if (parsing) {
+            return ErrorType.INVALID_EXPRESSION;
+        }
+        // Виды определяются по типам: исключения пользовательских функций попадают в OTHER
+        if (error instanceof DivisionByZeroException) {
+            return ErrorType.DIVISION_BY_ZERO;
+        }
+        if (error instanceof NegativeSqrtException) {
+            return ErrorType.NEGATIVE_SQRT;
+        }
+        if (error instanceof MissingVariableException) {
+            return ErrorType.MISSING_VARIABLE;
+        }
+        return ErrorType.OTHER;
+    }
+    
+    /**
+     * Регистрирует метрики в платформенном MBean-сервере под именем
+     * {@code general:type=EvaluationMetrics,name=<name>}.
+     * 
+     * @param name имя экземпляра
+     * @return имя зарегистрированного объекта
+     * @throws IllegalStateException если регистрация не удалась
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("general:type=EvaluationMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Не удалось зарегистрировать метрики: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Снимает регистрацию метрик в платформенном MBean-сервере.
+     * 
+     * @param objectName имя, возвращенное {@link #register(String)}
+     */
+    public static void unregister(ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Не удалось снять регистрацию метрик: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Снимает копию всех показателей.
+     * 
+     * @return неизменяемая копия
+     */
+    public Snapshot snapshot() {
+        Map<ErrorType, Long> errorCounts = new EnumMap<>(ErrorType.class);
+        for (ErrorType type : ErrorType.values()) {
+            errorCounts.put(type, errors[type.ordinal()].sum());
+        }
+        long lookupCount = lookups.sum();
+        long missCount = misses.sum();
+        return new Snapshot(parses.sum(), evaluations.sum(), lookupCount - missCount, missCount,
+                errorCounts, parseTime.snapshot(), evaluationTime.snapshot(), expressionSize.snapshot());
+    }
+    
+    @Override
+    public long getParseCount() {
+        return parses.sum();
+    }
+    
+    @Override
+    public long getEvaluationCount() {
+        return evaluations.sum();
+    }
+    
+    @Override
+    public long getCacheHitCount() {
+        return lookups.sum() - misses.sum();
+    }
+    
+    @Override
+    public long getCacheMissCount() {
+        return misses.sum();
+    }
+    
+    @Override
+    public long getInvalidExpressionCount() {
+        return errors[ErrorType.INVALID_EXPRESSION.ordinal()].sum();
+    }
+    
+    @Override
+    public long getDivisionByZeroCount() {
+        return errors[ErrorType.DIVISION_BY_ZERO.ordinal()].sum();
+    }
+    
+    @Override
+    public long getNegativeSqrtCount() {
+        return errors[ErrorType.NEGATIVE_SQRT.ordinal()].sum();
+    }
+    
+    @Override
+    public long getMissingVariableCount() {
+        return errors[ErrorType.MISSING_VARIABLE.ordinal()].sum();
+    }
+    
+    @Override
+    public long getLimitExceededCount() {
+        return errors[ErrorType.LIMIT_EXCEEDED.ordinal()].sum();
+    }
+    
+    @Override
+    public long getOtherErrorCount() {
+        return errors[ErrorType.OTHER.ordinal()].sum();
+    }
+    
+    @Override
+    public double getMeanParseTime() {
+        return parseTime.snapshot().getMean();
+    }
+    
+    @Override
+    public long getParseTime99Percentile() {
+        return parseTime.snapshot().getValueAtPercentile(99);
+    }
+    
+    @Override
+    public double getMeanEvaluationTime() {
+        return evaluationTime.snapshot().getMean();
+    }
+    
+    @Override
+    public long getEvaluationTime99Percentile() {
+        return evaluationTime.snapshot().getValueAtPercentile(99);
+    }
+    
+    @Override
+    public double getMeanExpressionSize() {
+        return expressionSize.snapshot().getMean();
+    }
+    
+    @Override
+    public long getMaxExpressionSize() {
+        return expressionSize.snapshot().getMax();
+    }
+    
+    @Override
+    public void reset() {
+        parses.reset();
+        evaluations.reset();
+        lookups.reset();
+        misses.reset();
+        for (LongAdder counter : errors) {
+            counter.reset();
+        }
+        parseTime.reset();
+        evaluationTime.reset();
+        expressionSize.reset();
+    }
+    
+    /**
+     * Неизменяемая копия показателей на момент снятия.
+     */
+    public static final class Snapshot {
+        private final long parseCount;
+        private final long evaluationCount;
+        private final long cacheHitCount;
+        private final long cacheMissCount;
+        private final Map<ErrorType, Long> errorCounts;
+        private final Histogram.Snapshot parseTime;
+        private final Histogram.Snapshot evaluationTime;
+        private final Histogram.Snapshot expressionSize;
+        
+        private Snapshot(long parseCount, long evaluationCount, long cacheHitCount, long cacheMissCount,
+                Map<ErrorType, Long> errorCounts, Histogram.Snapshot parseTime,
+                Histogram.Snapshot evaluationTime, Histogram.Snapshot expressionSize) {
+            this.parseCount = parseCount;
+            this.evaluationCount = evaluationCount;
+            this.cacheHitCount = cacheHitCount;
+            this.cacheMissCount = cacheMissCount;
+            this.errorCounts = errorCounts;
+            this.parseTime = parseTime;
+            this.evaluationTime = evaluationTime;
+            this.expressionSize = expressionSize;
+        }
+        
+        /**
+         * @return число успешных разборов выражений
+         */
+        public long getParseCount() {
+            return parseCount;
+        }
+        
+        /**
+         * @return число успешных вычислений
+         */
+        public long getEvaluationCount() {
+            return evaluationCount;
+        }
+        
+        /**
+         * @return число выражений, взятых из кэша
+         */
+        public long getCacheHitCount() {
+            return cacheHitCount;
+        }
+        
+        /**
+         * @return число выражений, которых не было в кэше
+         */
+        public long getCacheMissCount() {
+            return cacheMissCount;
+        }
+        
+        /**
+         * @param type вид ошибки
+         * @return число ошибок этого вида
+         */
+        public long getErrorCount(ErrorType type) {
+            return errorCounts.get(type);
+        }
+        
+        /**
+         * @return распределение времени разбора в наносекундах
+         */
+        public Histogram.Snapshot getParseTime() {
+            return parseTime;
+        }
+        
+        /**
+         * @return распределение времени вычисления в наносекундах
+         */
+        public Histogram.Snapshot getEvaluationTime() {
+            return evaluationTime;
+        }
+        
+        /**
+         * @return распределение размера выражений в узлах дерева разбора
+         */
+        public Histogram.Snapshot getExpressionSize() {
+            return expressionSize;
+        }
+        
+        @Override
+        public String toString() {
+            return "Разборов: " + parseCount
+                    + "\nВычислений: " + evaluationCount
+                    + "\nКэш: попаданий " + cacheHitCount + ", промахов " + cacheMissCount
+                    + "\nОшибки: " + errorCounts
+                    + "\nВремя разбора, нс: " + parseTime
+                    + "\nВремя вычисления, нс: " + evaluationTime
+                    + "\nРазмер выражений: " + expressionSize;
+        }
+    }
+}
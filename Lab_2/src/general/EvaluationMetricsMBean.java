@@ -0,0 +1,47 @@
+package general;
+
+/**
+ * Интерфейс управления для JMX: показатели работы вычислителя выражений.
+ * Время указывается в наносекундах.
+ * 
+ * @author Кристина
+ */
+public interface EvaluationMetricsMBean {
+    
+    long getParseCount();
+    
+    long getEvaluationCount();
+    
+    long getCacheHitCount();
+    
+    long getCacheMissCount();
+    
+    long getInvalidExpressionCount();
+    
+    long getDivisionByZeroCount();
+    
+    long getNegativeSqrtCount();
+    
+    long getMissingVariableCount();
+    
+    long getLimitExceededCount();
+    
+    long getOtherErrorCount();
+    
+    double getMeanParseTime();
+    
+    long getParseTime99Percentile();
+    
+    double getMeanEvaluationTime();
+    
+    long getEvaluationTime99Percentile();
+    
+    double getMeanExpressionSize();
+    
+    long getMaxExpressionSize();
+    
+    /**
+     * Сбрасывает все счетчики и гистограммы.
+     */
+    void reset();
+}
@@ -0,0 +1,169 @@
+package general;
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для метрик вычислителя
+ */
+public class EvaluationMetricsTest {
+    
+    // ========== ТЕСТЫ ГИСТОГРАММЫ ==========
+    
+    @Test
+    public void testBucketBoundsContainValue() {
+        for (long value : new long[] {0, 1, 15, 16, 17, 100, 1000, 123456789L, Long.MAX_VALUE}) {
+            int index = Histogram.indexOf(value);
+            assertTrue(Histogram.lowerBound(index) <= value);
+            assertTrue(Histogram.upperBound(index) >= value);
+        }
+    }
+    
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+        assertEquals(1000, snapshot.getMax());
+        // Погрешность корзин не больше 12,5%
+        assertEquals(500, snapshot.getValueAtPercentile(50), 500 * 0.125);
+        assertEquals(990, snapshot.getValueAtPercentile(99), 990 * 0.125);
+        assertEquals(1000, snapshot.getValueAtPercentile(100));
+    }
+    
+    @Test
+    public void testEmptyHistogram() {
+        Histogram.Snapshot snapshot = new Histogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0.0, snapshot.getMean(), 0.001);
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+    
+    // ========== ТЕСТЫ СЧЕТЧИКОВ ==========
+    
+    @Test
+    public void testParseAndCacheCounters() {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        ExpressionEngine engine = new ExpressionEngine(new ExpressionCache(10), metrics);
+        engine.evaluate("1 + 2");
+        engine.evaluate("1 + 2");
+        engine.evaluate("sin(0) * 3");
+        
+        EvaluationMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getParseCount());
+        assertEquals(3, snapshot.getEvaluationCount());
+        assertEquals(1, snapshot.getCacheHitCount());
+        assertEquals(2, snapshot.getCacheMissCount());
+        assertEquals(3, snapshot.getEvaluationTime().getCount());
+        // 1 + 2: три узла; sin(0) * 3: четыре
+        assertEquals(4, snapshot.getExpressionSize().getMax());
+    }
+    
+    @Test
+    public void testErrorsByType() {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        ExpressionEngine engine = new ExpressionEngine(null, metrics);
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("2 +"));
+        assertThrows(DivisionByZeroException.class, () -> engine.evaluate("x / 0", new Bindings().set("x", 1.0)));
+        assertThrows(NegativeSqrtException.class, () -> engine.evaluate("sqrt(x)", new Bindings().set("x", -1.0)));
+        MissingVariableException missing = assertThrows(MissingVariableException.class,
+                () -> engine.evaluate("x + y", new Bindings().set("x", 1.0)));
+        assertEquals("y", missing.getVariableName());
+        
+        EvaluationMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getErrorCount(EvaluationMetrics.ErrorType.OTHER));
+        assertEquals(1, snapshot.getErrorCount(EvaluationMetrics.ErrorType.INVALID_EXPRESSION));
+        assertEquals(1, snapshot.getErrorCount(EvaluationMetrics.ErrorType.DIVISION_BY_ZERO));
+        assertEquals(1, snapshot.getErrorCount(EvaluationMetrics.ErrorType.NEGATIVE_SQRT));
+        assertEquals(1, snapshot.getErrorCount(EvaluationMetrics.ErrorType.MISSING_VARIABLE));
+        assertEquals(0, snapshot.getEvaluationCount());
+    }
+    
+    @Test
+    public void testCustomFunctionErrors() {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        FunctionRegistry functions = new FunctionRegistry()
+                .register("checked", x -> {
+                    if (x < 0) {
+                        throw new IllegalArgumentException("Отрицательный аргумент");
+                    }
+                    return x;
+                })
+                .register("exact", x -> Math.toIntExact((long) x));
+        ExpressionEngine engine = new ExpressionEngine(functions, null, metrics);
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("checked(x)", new Bindings().set("x", -1)));
+        assertThrows(ArithmeticException.class, () -> engine.evaluate("exact(x)", new Bindings().set("x", 1e12)));
+        
+        // Ошибки пользовательских функций не выдаются за незаданные переменные или деление на ноль
+        assertEquals(2, metrics.getOtherErrorCount());
+        assertEquals(0, metrics.getMissingVariableCount());
+        assertEquals(0, metrics.getDivisionByZeroCount());
+    }
+    
+    @Test
+    public void testErrorsWithBuiltinMessagesFromCustomFunctions() {
+        // Вид ошибки определяется по типу исключения, а не по тексту сообщения
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        FunctionRegistry functions = new FunctionRegistry()
+                .register("divide", x -> {
+                    throw new ArithmeticException(Node.DIVISION_BY_ZERO);
+                })
+                .register("root", x -> {
+                    throw new IllegalArgumentException(BuiltinFunction.NEGATIVE_SQRT);
+                })
+                .register("limit", x -> {
+                    throw new IllegalArgumentException(ExpressionLimits.LIMIT_EXCEEDED + ": время");
+                });
+        ExpressionEngine engine = new ExpressionEngine(functions, null, metrics);
+        assertThrows(ArithmeticException.class, () -> engine.evaluate("divide(1)"));
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("root(1)"));
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("limit(1)"));
+        
+        assertEquals(3, metrics.getOtherErrorCount());
+        assertEquals(0, metrics.getDivisionByZeroCount());
+        assertEquals(0, metrics.getNegativeSqrtCount());
+        assertEquals(0, metrics.getLimitExceededCount());
+    }
+    
+    @Test
+    public void testCalculatorRecordsMetrics() {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        SimpleCalculator calculator = new SimpleCalculator(new ExpressionEngine(new ExpressionCache(10), metrics));
+        calculator.setVariable("x", 2.0);
+        assertEquals(4.0, calculator.calculate("x * x"), 0.001);
+        assertThrows(ArithmeticException.class, () -> calculator.calculate("1 / (x - 2)"));
+        
+        assertEquals(1, metrics.getEvaluationCount());
+        assertEquals(1, metrics.getDivisionByZeroCount());
+        
+        metrics.reset();
+        assertEquals(0, metrics.getEvaluationCount());
+        assertEquals(0, metrics.getParseCount());
+    }
+    
+    // ========== ТЕСТЫ JMX ==========
+    
+    @Test
+    public void testJmxRegistration() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        ExpressionEngine engine = new ExpressionEngine(null, metrics);
+        engine.evaluate("2 * 3");
+        
+        ObjectName name = metrics.register("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "EvaluationCount"));
+            assertEquals(1L, server.getAttribute(name, "ParseCount"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "EvaluationCount"));
+        } finally {
+            EvaluationMetrics.unregister(name);
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
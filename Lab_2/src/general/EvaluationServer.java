@@ -0,0 +1,239 @@
+package general;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Легковесный HTTP-сервер вычисления выражений.
+ * Каждый запрос обрабатывается в своем виртуальном потоке.
+ * <p>
+ * Протокол - обычный текст в UTF-8. Запрос {@code POST /evaluate} несет пакет
+ * заданий, по одному в строке:
+ * <pre>
+ * выражение [| имя=значение ...]
+ * </pre>
+ * Пары переменных разделяются пробелами, запятыми или точками с запятой.
+ * Ответ содержит по одной строке на задание в том же порядке: число
+ * или {@code ОШИБКА: сообщение}. Так за один обмен можно вычислить
+ * много выражений и наборов переменных; одинаковые выражения разбираются
+ * один раз благодаря кэшу вычислителя. Соединения поддерживают keep-alive,
+ * поэтому клиент может отправлять пакеты друг за другом без переподключения.
+ * <p>
+ * Нагрузка ограничена: одновременно вычисляется не больше maxConcurrent
+ * пакетов, еще не больше queueCapacity ждут своей очереди, а остальные
+ * запросы сразу получают ответ 503 с заголовком Retry-After.
+ * {@code GET /metrics} возвращает метрики вычислителя, если они подключены.
+ * 
+ * @author Кристина
+ */
+public class EvaluationServer implements AutoCloseable {
+    /** Наибольший размер тела запроса в байтах. */
+    static final int MAX_BODY_SIZE = 4 * 1024 * 1024;
+    
+    private final ExpressionEngine engine;
+    private final ParallelEvaluator evaluator;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore running;
+    private final int capacity;
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    
+    /**
+     * Создает сервер. Сокет открывается сразу, обработка запросов начинается после {@link #start()}.
+     * 
+     * @param engine вычислитель выражений; выражения приходят из сети, поэтому
+     *        ему стоит задать строгие ограничения, например {@link ExpressionLimits#UNTRUSTED}
+     * @param address адрес; порт 0 означает любой свободный
+     * @param maxConcurrent сколько пакетов вычисляется одновременно
+     * @param queueCapacity сколько пакетов может ждать своей очереди
+     * @throws IOException если не удалось открыть сокет
+     * @throws IllegalArgumentException если ограничения некорректны
+     */
+    public EvaluationServer(ExpressionEngine engine, InetSocketAddress address,
+                            int maxConcurrent, int queueCapacity) throws IOException {
+        if (maxConcurrent < 1 || queueCapacity < 0) {
+            throw new IllegalArgumentException("Некорректные ограничения нагрузки");
+        }
+        this.engine = engine;
+        this.evaluator = new ParallelEvaluator(engine);
+        this.running = new Semaphore(maxConcurrent);
+        this.capacity = maxConcurrent + queueCapacity;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+    }
+    
+    /**
+     * Начинает принимать запросы.
+     */
+    public void start() {
+        server.createContext("/evaluate", this::handleEvaluate);
+        server.createContext("/metrics", this::handleMetrics);
+        server.start();
+    }
+    
+    /**
+     * @return порт, на котором сервер принимает запросы
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    /**
+     * @return число запросов, отклоненных из-за перегрузки
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    /**
+     * Останавливает сервер, давая начатым запросам до секунды на завершение.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+    
+    private void handleEvaluate(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Ожидается POST");
+                return;
+            }
+            if (admitted.incrementAndGet() > capacity) {
+                admitted.decrementAndGet();
+                rejected.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, "Сервер перегружен");
+                return;
+            }
+            try {
+                byte[] body = readBody(exchange.getRequestBody());
+                if (body == null) {
+                    respond(exchange, 413, "Слишком большой запрос");
+                    return;
+                }
+                running.acquire();
+                try {
+                    respond(exchange, 200, evaluate(new String(body, StandardCharsets.UTF_8)));
+                } finally {
+                    running.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, "Сервер останавливается");
+            } catch (RuntimeException e) {
+                respond(exchange, 500, "ОШИБКА: " + e.getMessage());
+            } finally {
+                admitted.decrementAndGet();
+            }
+        }
+    }
+    
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            EvaluationMetrics metrics = engine.getMetrics();
+            if (metrics == null) {
+                respond(exchange, 404, "Метрики не подключены");
+                return;
+            }
+            respond(exchange, 200, metrics.snapshot() + "\nОтклонено запросов: " + rejected.sum() + "\n");
+        }
+    }
+    
+    /**
+     * Вычисляет пакет заданий и возвращает текст ответа.
+     * Ошибки в отдельных строках не мешают вычислению остальных.
+     * 
+     * @param request текст запроса, по одному заданию в строке
+     * @return ответ, по одной строке на задание
+     */
+    String evaluate(String request) {
+        List<String> lines = new ArrayList<>();
+        for (String line : request.split("\r?\n")) {
+            if (!line.isBlank()) {
+                lines.add(line);
+            }
+        }
+        
+        String[] errors = new String[lines.size()];
+        List<ExpressionJob> jobs = new ArrayList<>(lines.size());
+        int[] positions = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            try {
+                positions[jobs.size()] = i;
+                jobs.add(parseJob(lines.get(i)));
+            } catch (IllegalArgumentException e) {
+                errors[i] = e.getMessage();
+            }
+        }
+        
+        String[] results = new String[lines.size()];
+        List<JobResult> evaluated = evaluator.evaluateAll(jobs);
+        for (int k = 0; k < evaluated.size(); k++) {
+            JobResult result = evaluated.get(k);
+            results[positions[k]] = result.isSuccess()
+                    ? Double.toString(result.getValue())
+                    : "ОШИБКА: " + result.getError().getMessage();
+        }
+        
+        StringBuilder response = new StringBuilder();
+        for (int i = 0; i < results.length; i++) {
+            response.append(errors[i] != null ? "ОШИБКА: " + errors[i] : results[i]).append('\n');
+        }
+        return response.toString();
+    }
+    
+    /**
+     * Разбирает строку запроса вида "выражение | x=1 y=2".
+     */
+    static ExpressionJob parseJob(String line) {
+        int separator = line.indexOf('|');
+        if (separator < 0) {
+            return new ExpressionJob(line.trim());
+        }
+        Bindings bindings = new Bindings();
+        for (String pair : line.substring(separator + 1).trim().split("[\\s,;]+")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Некорректное значение переменной: " + pair);
+            }
+            String name = pair.substring(0, equals);
+            String value = pair.substring(equals + 1);
+            try {
+                bindings.set(name, Double.parseDouble(value));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Некорректное значение переменной " + name + ": " + value);
+            }
+        }
+        return new ExpressionJob(line.substring(0, separator).trim(), bindings);
+    }
+    
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] body = in.readNBytes(MAX_BODY_SIZE + 1);
+        return body.length > MAX_BODY_SIZE ? null : body;
+    }
+    
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package general;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для HTTP-сервера вычислений (на локальном интерфейсе)
+ */
+public class EvaluationServerTest {
+    
+    private static EvaluationServer startServer(ExpressionEngine engine, int maxConcurrent, int queueCapacity)
+            throws Exception {
+        EvaluationServer server = new EvaluationServer(engine,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), maxConcurrent, queueCapacity);
+        server.start();
+        return server;
+    }
+    
+    private static HttpRequest post(EvaluationServer server, String body) {
+        return HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + "/evaluate"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+    
+    // ========== ТЕСТЫ ПРОТОКОЛА ==========
+    
+    @Test
+    public void testParseJob() {
+        ExpressionJob job = EvaluationServer.parseJob("x + y | x=1, y=2.5");
+        assertEquals("x + y", job.getExpression());
+        assertEquals(2.5, job.getBindings().get("y"), 0.001);
+        assertEquals("2 * 3", EvaluationServer.parseJob("  2 * 3 ").getExpression());
+        assertThrows(IllegalArgumentException.class, () -> EvaluationServer.parseJob("x | x=abc"));
+        assertThrows(IllegalArgumentException.class, () -> EvaluationServer.parseJob("x | x"));
+    }
+    
+    @Test
+    public void testBatchKeepsOrderAndErrors() throws Exception {
+        try (EvaluationServer server = startServer(new ExpressionEngine(new ExpressionCache(10)), 4, 4)) {
+            String request = "2 + 3\n"
+                    + "x * y | x=2 y=4\n"
+                    + "x * y | x=3 y=5\n"
+                    + "1 / x | x=0\n"
+                    + "x | x=oops\n"
+                    + "2 +\n";
+            String[] lines = server.evaluate(request).split("\n");
+            assertEquals(6, lines.length);
+            assertEquals("5.0", lines[0]);
+            assertEquals("8.0", lines[1]);
+            assertEquals("15.0", lines[2]);
+            assertEquals("ОШИБКА: Деление на ноль!", lines[3]);
+            assertTrue(lines[4].startsWith("ОШИБКА: Некорректное значение переменной x"));
+            assertTrue(lines[5].startsWith("ОШИБКА: "));
+        }
+    }
+    
+    @Test
+    public void testHttpRoundTripOnKeepAliveConnection() throws Exception {
+        try (EvaluationServer server = startServer(new ExpressionEngine(new ExpressionCache(10)), 4, 4)) {
+            HttpClient client = HttpClient.newHttpClient();
+            for (int i = 0; i < 3; i++) {
+                HttpResponse<String> response = client.send(post(server, "x * x | x=" + i + "\nsqrt(16)"),
+                        HttpResponse.BodyHandlers.ofString());
+                assertEquals(200, response.statusCode());
+                assertEquals((double) (i * i) + "\n4.0\n", response.body());
+            }
+        }
+    }
+    
+    @Test
+    public void testWrongMethod() throws Exception {
+        try (EvaluationServer server = startServer(new ExpressionEngine(), 1, 0)) {
+            HttpRequest request = HttpRequest.newBuilder(
+                    URI.create("http://127.0.0.1:" + server.getPort() + "/evaluate")).GET().build();
+            assertEquals(405, HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+    }
+    
+    // ========== ТЕСТЫ ОГРАНИЧЕНИЯ НАГРУЗКИ ==========
+    
+    @Test
+    public void testOverloadIsRejected() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FunctionRegistry functions = new FunctionRegistry().register("hold", x -> {
+            entered.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return x;
+        });
+        
+        try (EvaluationServer server = startServer(new ExpressionEngine(functions, null, null), 1, 0)) {
+            HttpClient client = HttpClient.newHttpClient();
+            CompletableFuture<HttpResponse<String>> first =
+                    client.sendAsync(post(server, "hold(x) | x=7"), HttpResponse.BodyHandlers.ofString());
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            
+            HttpResponse<String> second = client.send(post(server, "1 + 1"), HttpResponse.BodyHandlers.ofString());
+            assertEquals(503, second.statusCode());
+            assertTrue(second.headers().firstValue("Retry-After").isPresent());
+            assertEquals(1, server.getRejectedCount());
+            
+            release.countDown();
+            assertEquals("7.0\n", first.get(10, TimeUnit.SECONDS).body());
+            assertEquals(200, client.send(post(server, "1 + 1"), HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+    }
+    
+    @Test
+    public void testMetricsEndpoint() throws Exception {
+        ExpressionEngine engine = new ExpressionEngine(new ExpressionCache(10), new EvaluationMetrics());
+        try (EvaluationServer server = startServer(engine, 2, 2)) {
+            HttpClient client = HttpClient.newHttpClient();
+            client.send(post(server, "1 + 2\n1 + 2"), HttpResponse.BodyHandlers.ofString());
+            HttpRequest request = HttpRequest.newBuilder(
+                    URI.create("http://127.0.0.1:" + server.getPort() + "/metrics")).GET().build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertTrue(response.body().contains("Вычислений: 2"));
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package general;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Файл со скомпилированными выражениями, которые загружаются без повторного
+ * разбора, проверки и оптимизации.
+ * <p>
+ * Для каждого выражения сохраняется программа стекового интерпретатора:
+ * исходный текст, имена переменных, таблицы функций и констант и код
+ * в обратной польской записи. Функции сохраняются по именам и при загрузке
+ * разрешаются по реестру, поэтому в архив можно записывать и свои функции.
+ * <p>
+ * Формат (все числа в порядке от старшего байта):
+ * <pre>
+ * заголовок: "EXPR", версия, число выражений, смещения записей
+ * запись:    текст, имена переменных, число ячеек, имена функций, константы, код
+ * </pre>
+ * Строки записываются длиной и байтами UTF-8, массивы - длиной и элементами.
+ * <p>
+ * Файл отображается в память через {@link FileChannel#map}, а выражение читается
+ * из отображения только при первом обращении к нему, поэтому открытие архива
+ * из десятков тысяч формул почти ничего не стоит. Объект потокобезопасен.
+ * 
+ * @author Кристина
+ */
+public final class ExpressionArchive {
+    static final int MAGIC = 0x45585052;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    
+    private final ByteBuffer buffer;
+    private final FunctionRegistry functions;
+    private final int size;
+    
+    private ExpressionArchive(ByteBuffer buffer, FunctionRegistry functions) {
+        this.buffer = buffer;
+        this.functions = functions;
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Файл не является архивом выражений");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Неподдерживаемая версия архива выражений: " + buffer.getInt(4));
+        }
+        this.size = buffer.getInt(8);
+        if (size < 0 || size > (buffer.limit() - HEADER_SIZE) / 4) {
+            throw corrupted();
+        }
+    }
+    
+    /**
+     * Записывает выражения в архив. Существующий файл перезаписывается.
+     * 
+     * @param file путь к файлу архива
+     * @param expressions скомпилированные выражения
+     * @throws IOException если не удалось записать файл
+     */
+    public static void write(Path file, Collection<CompiledExpression> expressions) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        int[] offsets = new int[expressions.size()];
+        int dataStart = HEADER_SIZE + 4 * offsets.length;
+        int index = 0;
+        for (CompiledExpression expression : expressions) {
+            offsets[index++] = dataStart + out.size();
+            writeRecord(out, expression);
+        }
+        
+        try (DataOutputStream archive = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            archive.writeInt(MAGIC);
+            archive.writeInt(VERSION);
+            archive.writeInt(offsets.length);
+            for (int offset : offsets) {
+                archive.writeInt(offset);
+            }
+            records.writeTo(archive);
+        }
+    }
+    
+    private static void writeRecord(DataOutputStream out, CompiledExpression expression) throws IOException {
+        Program program = expression.getProgram();
+        writeString(out, expression.getSource());
+        out.writeInt(expression.getVariableCount());
+        for (int i = 0; i < expression.getVariableCount(); i++) {
+            writeString(out, expression.getVariableName(i));
+        }
+        out.writeInt(program.stackBase);
+        out.writeInt(program.functions.length);
+        for (MathFunction function : program.functions) {
+            writeString(out, function.getName());
+        }
+        out.writeInt(program.constants.length);
+        for (double constant : program.constants) {
+            out.writeDouble(constant);
+        }
+        out.writeInt(program.code.length);
+        for (int word : program.code) {
+            out.writeInt(word);
+        }
+    }
+    
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    /**
+     * Открывает архив со стандартными функциями.
+     * 
+     * @param file путь к файлу архива
+     * @return архив
+     * @throws IOException если не удалось прочитать файл
+     * @throws IllegalArgumentException если файл не является архивом выражений
+     */
+    public static ExpressionArchive open(Path file) throws IOException {
+        return open(file, FunctionRegistry.standard());
+    }
+    
+    /**
+     * Открывает архив. Файл отображается в память целиком, выражения
+     * читаются из него по мере обращения.
+     * 
+     * @param file путь к файлу архива
+     * @param functions реестр, по которому разрешаются имена функций
+     * @return архив
+     * @throws IOException если не удалось прочитать файл
+     * @throws IllegalArgumentException если файл не является архивом выражений
+     */
+    public static ExpressionArchive open(Path file, FunctionRegistry functions) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Архив выражений слишком велик: " + channel.size() + " байт");
+            }
+            // Отображение остается действительным и после закрытия канала
+            return new ExpressionArchive(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), functions);
+        }
+    }
+    
+    /**
+     * @return число выражений в архиве
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Возвращает исходный текст выражения, не загружая само выражение.
+     * 
+     * @param index номер выражения
+     * @return текст выражения
+     * @throws IndexOutOfBoundsException если номер вне архива
+     */
+    public String getSource(int index) {
+        return readString(record(index));
+    }
+    
+    /**
+     * Загружает выражение. Программа читается из файла и проверяется,
+     * но не разбирается и не оптимизируется заново.
+     * 
+     * @param index номер выражения
+     * @return скомпилированное выражение
+     * @throws IndexOutOfBoundsException если номер вне архива
+     * @throws IllegalArgumentException если запись повреждена или функции нет в реестре
+     */
+    public CompiledExpression get(int index) {
+        ByteBuffer in = record(index);
+        String source = readString(in);
+        String[] variableNames = new String[readLength(in, 4)];
+        for (int i = 0; i < variableNames.length; i++) {
+            variableNames[i] = readString(in);
+        }
+        int slotCount = in.remaining() < 4 ? -1 : in.getInt();
+        MathFunction[] table = new MathFunction[readLength(in, 4)];
+        for (int i = 0; i < table.length; i++) {
+            String name = readString(in);
+            table[i] = functions.get(name);
+            if (table[i] == null) {
+                throw new IllegalArgumentException("Неизвестная функция " + name + " в выражении " + source);
+            }
+        }
+        double[] constants = new double[readLength(in, 8)];
+        in.asDoubleBuffer().get(constants);
+        in.position(in.position() + 8 * constants.length);
+        int[] code = new int[readLength(in, 4)];
+        in.asIntBuffer().get(code);
+        // Каждая временная ячейка записывается своей операцией STORE из двух слов
+        if (slotCount < variableNames.length || slotCount - variableNames.length > code.length / 2) {
+            throw corrupted();
+        }
+        
+        Node root = Program.decode(code, constants, table, variableNames, slotCount);
+        return CompiledExpression.restore(source, root, variableNames, slotCount);
+    }
+    
+    /**
+     * Загружает все выражения архива по порядку.
+     * 
+     * @return скомпилированные выражения
+     * @throws IllegalArgumentException если какая-то запись повреждена
+     */
+    public List<CompiledExpression> loadAll() {
+        List<CompiledExpression> expressions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            expressions.add(get(i));
+        }
+        return expressions;
+    }
+    
+    /**
+     * Загружает выражения архива в кэш, чтобы вычислитель с этим кэшем
+     * находил их без разбора. Выражения, которые уже есть в кэше, не загружаются.
+     * 
+     * @param cache кэш выражений
+     * @throws IllegalArgumentException если какая-то запись повреждена
+     */
+    public void loadInto(ExpressionCache cache) {
+        for (int i = 0; i < size; i++) {
+            int index = i;
+            cache.get(getSource(i), source -> get(index));
+        }
+    }
+    
+    /**
+     * Возвращает независимую копию отображения, установленную на начало записи,
+     * чтобы потоки не мешали друг другу позицией.
+     */
+    private ByteBuffer record(int index) {
+        Objects.checkIndex(index, size);
+        int offset = buffer.getInt(HEADER_SIZE + 4 * index);
+        if (offset < HEADER_SIZE + 4 * size || offset >= buffer.limit()) {
+            throw corrupted();
+        }
+        return buffer.duplicate().position(offset);
+    }
+    
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readLength(in, 1)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Читает длину массива и проверяет, что элементы помещаются в остаток записи.
+     */
+    private static int readLength(ByteBuffer in, int elementSize) {
+        if (in.remaining() < 4) {
+            throw corrupted();
+        }
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining() / elementSize) {
+            throw corrupted();
+        }
+        return length;
+    }
+    
+    private static IllegalArgumentException corrupted() {
+        return new IllegalArgumentException("Архив выражений поврежден");
+    }
+}
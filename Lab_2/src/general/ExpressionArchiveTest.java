@@ -0,0 +1,170 @@
+package general;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для архива скомпилированных выражений
+ */
+public class ExpressionArchiveTest {
+    
+    private static final String[] EXPRESSIONS = {
+        "2 + 3 * 4",
+        "x * y + 1",
+        "sqrt(x * x + y * y) / (sqrt(x * x + y * y) + 1)",
+        "-(x - 1) * max(x, y, 3) + pow(y, 2)",
+        "1 / x"
+    };
+    
+    private static List<CompiledExpression> compileAll(ExpressionEngine engine, String... expressions) {
+        List<CompiledExpression> compiled = new ArrayList<>();
+        for (String expression : expressions) {
+            compiled.add(engine.compile(expression));
+        }
+        return compiled;
+    }
+    
+    private static ExpressionArchive roundTrip(List<CompiledExpression> expressions,
+                                               FunctionRegistry functions) throws Exception {
+        Path file = Files.createTempFile("calculator", ".expr");
+        try {
+            ExpressionArchive.write(file, expressions);
+            return ExpressionArchive.open(file, functions);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    private static ExpressionArchive openBytes(byte[] bytes) throws Exception {
+        Path file = Files.createTempFile("calculator", ".expr");
+        try {
+            Files.write(file, bytes);
+            return ExpressionArchive.open(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    // ========== ТЕСТЫ ЗАПИСИ И ЗАГРУЗКИ ==========
+    
+    @Test
+    public void testRoundTripGivesSameResults() throws Exception {
+        List<CompiledExpression> original = compileAll(new ExpressionEngine(), EXPRESSIONS);
+        ExpressionArchive archive = roundTrip(original, FunctionRegistry.standard());
+        
+        assertEquals(EXPRESSIONS.length, archive.size());
+        Bindings bindings = new Bindings().set("x", 3.0).set("y", 4.0);
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            CompiledExpression loaded = archive.get(i);
+            assertEquals(EXPRESSIONS[i], archive.getSource(i));
+            assertEquals(EXPRESSIONS[i], loaded.getSource());
+            assertEquals(original.get(i).getVariableNames(), loaded.getVariableNames());
+            assertEquals(original.get(i).getSimplifiedForm(), loaded.getSimplifiedForm());
+            assertEquals(original.get(i).getSlotCount(), loaded.getSlotCount());
+            assertEquals(original.get(i).evaluate(bindings), loaded.evaluate(bindings), 0.001);
+        }
+    }
+    
+    @Test
+    public void testCommonSubexpressionsSurviveRoundTrip() throws Exception {
+        CompiledExpression original = new ExpressionEngine().compile(EXPRESSIONS[2]);
+        CompiledExpression loaded = roundTrip(Collections.singletonList(original), FunctionRegistry.standard()).get(0);
+        
+        assertTrue(loaded.getSimplifiedForm().contains("t1"));
+        assertEquals(5.0 / 6.0, loaded.evaluate(new Bindings().set("x", 3.0).set("y", 4.0)), 0.001);
+    }
+    
+    @Test
+    public void testLoadedExpressionKeepsErrors() throws Exception {
+        CompiledExpression loaded = roundTrip(compileAll(new ExpressionEngine(), "1 / x", "sqrt(x)"),
+                FunctionRegistry.standard()).loadAll().get(0);
+        ArithmeticException exception = assertThrows(ArithmeticException.class,
+                () -> loaded.evaluate(new Bindings().set("x", 0.0)));
+        assertEquals("Деление на ноль!", exception.getMessage());
+    }
+    
+    @Test
+    public void testLoadedExpressionCanBeCompiledToBytecode() throws Exception {
+        CompiledExpression loaded = roundTrip(compileAll(new ExpressionEngine(), EXPRESSIONS[3]),
+                FunctionRegistry.standard()).get(0);
+        double expected = loaded.evaluate(new Bindings().set("x", 2.0).set("y", 5.0));
+        loaded.promote();
+        assertTrue(loaded.isBytecodeCompiled());
+        assertEquals(expected, loaded.evaluate(new Bindings().set("x", 2.0).set("y", 5.0)), 0.001);
+    }
+    
+    @Test
+    public void testLoadIntoCache() throws Exception {
+        ExpressionArchive archive = roundTrip(compileAll(new ExpressionEngine(), EXPRESSIONS),
+                FunctionRegistry.standard());
+        ExpressionCache cache = new ExpressionCache(100);
+        archive.loadInto(cache);
+        assertEquals(EXPRESSIONS.length, cache.size());
+        
+        long misses = cache.getMissCount();
+        ExpressionEngine engine = new ExpressionEngine(cache);
+        assertEquals(13.0, engine.evaluate("x * y + 1", new Bindings().set("x", 3.0).set("y", 4.0)), 0.001);
+        assertEquals(misses, cache.getMissCount());
+    }
+    
+    // ========== ТЕСТЫ ФУНКЦИЙ ==========
+    
+    @Test
+    public void testCustomFunctionsAreResolvedByRegistry() throws Exception {
+        FunctionRegistry functions = new FunctionRegistry().register("twice", x -> 2 * x);
+        ExpressionEngine engine = new ExpressionEngine(functions, null, null);
+        List<CompiledExpression> compiled = compileAll(engine, "twice(x) + 1");
+        
+        ExpressionArchive archive = roundTrip(compiled, functions);
+        assertEquals(7.0, archive.get(0).evaluate(new Bindings().set("x", 3.0)), 0.001);
+        
+        ExpressionArchive standard = roundTrip(compiled, FunctionRegistry.standard());
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> standard.get(0));
+        assertTrue(exception.getMessage().contains("twice"));
+    }
+    
+    // ========== ТЕСТЫ ПОВРЕЖДЕННЫХ ФАЙЛОВ ==========
+    
+    @Test
+    public void testNotAnArchive() {
+        assertThrows(IllegalArgumentException.class, () -> openBytes("x,y\n1,2\n".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> openBytes(new byte[0]));
+    }
+    
+    @Test
+    public void testCorruptedCodeIsRejected() throws Exception {
+        Path file = Files.createTempFile("calculator", ".expr");
+        byte[] bytes;
+        try {
+            ExpressionArchive.write(file, compileAll(new ExpressionEngine(), "x + 1"));
+            bytes = Files.readAllBytes(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        
+        // Последнее слово кода - операция ADD; подменяем ее несуществующей
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 4, 99);
+        ExpressionArchive unknownOpcode = openBytes(bytes);
+        assertThrows(IllegalArgumentException.class, () -> unknownOpcode.get(0));
+        
+        // Код "LOAD 0, NEG, NEG, MUL": умножению не хватает операнда
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 12, Program.NEG);
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 8, Program.NEG);
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 4, Program.MUL);
+        ExpressionArchive missingOperand = openBytes(bytes);
+        assertThrows(IllegalArgumentException.class, () -> missingOperand.get(0));
+        
+        ExpressionArchive truncated = openBytes(Arrays.copyOf(bytes, bytes.length - 6));
+        assertThrows(IllegalArgumentException.class, () -> truncated.get(0));
+    }
+    
+    @Test
+    public void testEmptyArchive() throws Exception {
+        ExpressionArchive archive = roundTrip(Collections.emptyList(), FunctionRegistry.standard());
+        assertEquals(0, archive.size());
+        assertTrue(archive.loadAll().isEmpty());
+        assertThrows(IndexOutOfBoundsException.class, () -> archive.get(0));
+    }
+}
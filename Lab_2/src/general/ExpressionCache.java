@@ -0,0 +1,257 @@
+package general;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Потокобезопасный кэш скомпилированных выражений с ограниченным размером.
+ * Ключом служит текст выражения, поэтому повторяющиеся формулы
+ * не проходят повторно проверку и разбор.
+ * Кэш разбит на сегменты со своими блокировками, чтобы потоки
+ * с разными выражениями не мешали друг другу.
+ * 
+ * @author Кристина
+ */
+public class ExpressionCache {
+    
+    /**
+     * Политика вытеснения записей при переполнении кэша.
+     */
+    public enum Policy {
+        /** Вытесняется запись, к которой дольше всего не обращались. */
+        LRU,
+        /**
+         * Как LRU, но новая запись допускается в заполненный кэш, только если
+         * по оценке частоты к ней обращаются чаще, чем к вытесняемой (TinyLFU).
+         * Защищает популярные формулы от вымывания редкими.
+         */
+        TINY_LFU
+    }
+    
+    private static final int MAX_SEGMENTS = 16;
+    
+    private final Segment[] segments;
+    private final Policy policy;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    
+    /**
+     * Создает кэш с политикой вытеснения LRU.
+     * 
+     * @param maximumSize максимальное число выражений в кэше
+     */
+    public ExpressionCache(int maximumSize) {
+        this(maximumSize, Policy.LRU);
+    }
+    
+    /**
+     * Создает кэш с заданной политикой вытеснения.
+     * 
+     * @param maximumSize максимальное число выражений в кэше
+     * @param policy политика вытеснения
+     * @throws IllegalArgumentException если размер меньше единицы
+     */
+    public ExpressionCache(int maximumSize, Policy policy) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Размер кэша должен быть положительным");
+        }
+        this.policy = policy;
+        
+        // Небольшие кэши не делим, иначе сегменты получаются по одной-две записи
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 * 16 <= maximumSize) {
+            segmentCount *= 2;
+        }
+        segments = new Segment[segmentCount];
+        int base = maximumSize / segmentCount;
+        int remainder = maximumSize % segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(base + (i < remainder ? 1 : 0));
+        }
+    }
+    
+    /**
+     * Возвращает скомпилированное выражение из кэша или компилирует и сохраняет его.
+     * Компиляция выполняется вне блокировки. Если выражение некорректно,
+     * исключение компилятора передается вызывающему и в кэш ничего не попадает.
+     * 
+     * @param expression текст выражения
+     * @param compiler функция компиляции для промаха
+     * @return скомпилированное выражение
+     */
+    public CompiledExpression get(String expression, Function<String, CompiledExpression> compiler) {
+        Segment segment = segmentFor(expression);
+        CompiledExpression cached = segment.lookup(expression);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        
+        CompiledExpression compiled = compiler.apply(expression);
+        return segment.store(expression, compiled);
+    }
+    
+    /**
+     * Возвращает текущее число выражений в кэше.
+     * 
+     * @return число выражений
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+    
+    /**
+     * Удаляет все выражения из кэша. Счетчики не сбрасываются.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+    
+    /**
+     * @return число обращений, для которых выражение нашлось в кэше
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+    
+    /**
+     * @return число обращений, для которых выражение пришлось компилировать
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+    
+    /**
+     * @return число выражений, вытесненных из кэша из-за переполнения
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+    
+    /**
+     * @return политика вытеснения кэша
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+    
+    private Segment segmentFor(String expression) {
+        int hash = expression.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+    
+    /**
+     * Сегмент кэша: LinkedHashMap в порядке обращений и счетчик частот,
+     * защищенные собственным монитором сегмента.
+     */
+    private final class Segment {
+        private final Map<String, CompiledExpression> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacity;
+        private final FrequencySketch sketch;
+        
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.sketch = policy == Policy.TINY_LFU ? new FrequencySketch(capacity) : null;
+        }
+        
+        synchronized CompiledExpression lookup(String expression) {
+            if (sketch != null) {
+                sketch.increment(expression);
+            }
+            return entries.get(expression);
+        }
+        
+        synchronized CompiledExpression store(String expression, CompiledExpression compiled) {
+            CompiledExpression existing = entries.get(expression);
+            if (existing != null) {
+                // Другой поток успел скомпилировать то же выражение
+                return existing;
+            }
+            if (entries.size() >= capacity) {
+                // Первая запись в порядке обращений - та, к которой дольше всего не обращались
+                String victim = entries.keySet().iterator().next();
+                if (sketch != null && sketch.frequency(expression) <= sketch.frequency(victim)) {
+                    // Новое выражение встречается не чаще вытесняемого - не допускаем его в кэш
+                    return compiled;
+                }
+                entries.remove(victim);
+                evictions.increment();
+            }
+            entries.put(expression, compiled);
+            return compiled;
+        }
+        
+        synchronized int size() {
+            return entries.size();
+        }
+        
+        synchronized void clear() {
+            entries.clear();
+        }
+    }
+    
+    /**
+     * Приблизительный счетчик частот обращений (Count-Min Sketch)
+     * с четырьмя хеш-функциями и насыщающимися счетчиками.
+     * Периодически все счетчики делятся пополам, чтобы старая
+     * популярность со временем забывалась.
+     */
+    private static final class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+        
+        private final int[] table;
+        private final int sampleSize;
+        private int additions;
+        
+        FrequencySketch(int capacity) {
+            int length = 64;
+            while (length < capacity * 4) {
+                length *= 2;
+            }
+            table = new int[length];
+            sampleSize = Math.max(10 * capacity, 128);
+        }
+        
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int seed : SEEDS) {
+                int index = indexOf(hash, seed);
+                if (table[index] < MAX_COUNT) {
+                    table[index]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>>= 1;
+                }
+                additions /= 2;
+            }
+        }
+        
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int seed : SEEDS) {
+                frequency = Math.min(frequency, table[indexOf(hash, seed)]);
+            }
+            return frequency;
+        }
+        
+        private int indexOf(int hash, int seed) {
+            int h = hash * seed;
+            h ^= h >>> 15;
+            return h & (table.length - 1);
+        }
+    }
+}
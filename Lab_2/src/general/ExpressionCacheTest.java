@@ -0,0 +1,110 @@
+package general;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для кэша скомпилированных выражений
+ */
+public class ExpressionCacheTest {
+    
+    // ========== ТЕСТЫ ПОПАДАНИЙ И ПРОМАХОВ ==========
+    
+    @Test
+    public void testRepeatedExpressionIsCompiledOnce() {
+        ExpressionCache cache = new ExpressionCache(10);
+        ExpressionEngine engine = new ExpressionEngine(cache);
+        
+        CompiledExpression first = engine.compile("2 + 3 * 4");
+        CompiledExpression second = engine.compile("2 + 3 * 4");
+        
+        assertSame(first, second);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+    
+    @Test
+    public void testInvalidExpressionIsNotCached() {
+        ExpressionCache cache = new ExpressionCache(10);
+        ExpressionEngine engine = new ExpressionEngine(cache);
+        assertThrows(IllegalArgumentException.class, () -> {
+            engine.compile("2 + + 3");
+        });
+        assertEquals(0, cache.size());
+    }
+    
+    @Test
+    public void testCalculatorUsesCache() {
+        ExpressionCache cache = new ExpressionCache(10);
+        SimpleCalculator calculator = new SimpleCalculator(new ExpressionEngine(cache));
+        calculator.setVariable("x", 1.0);
+        assertEquals(2.0, calculator.calculate("x + 1"), 0.001);
+        calculator.setVariable("x", 5.0);
+        assertEquals(6.0, calculator.calculate("x + 1"), 0.001);
+        assertEquals(1, cache.getHitCount());
+    }
+    
+    // ========== ТЕСТЫ ВЫТЕСНЕНИЯ ==========
+    
+    @Test
+    public void testLruEviction() {
+        ExpressionCache cache = new ExpressionCache(2);
+        ExpressionEngine engine = new ExpressionEngine(cache);
+        
+        CompiledExpression a = engine.compile("1 + 1");
+        engine.compile("2 + 2");
+        engine.compile("1 + 1");
+        engine.compile("3 + 3");
+        
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(a, engine.compile("1 + 1"));
+    }
+    
+    @Test
+    public void testTinyLfuKeepsPopularExpressions() {
+        ExpressionCache cache = new ExpressionCache(2, ExpressionCache.Policy.TINY_LFU);
+        ExpressionEngine engine = new ExpressionEngine(cache);
+        
+        for (int i = 0; i < 5; i++) {
+            engine.compile("1 + 1");
+            engine.compile("2 + 2");
+        }
+        // Редкие выражения не должны вытеснять популярные
+        for (int i = 0; i < 20; i++) {
+            engine.compile(i + " * 3");
+        }
+        long missesBefore = cache.getMissCount();
+        engine.compile("1 + 1");
+        engine.compile("2 + 2");
+        
+        assertEquals(missesBefore, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+    
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        ExpressionCache cache = new ExpressionCache(64);
+        ExpressionEngine engine = new ExpressionEngine(cache);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        int n = i % 100;
+                        assertEquals(n + 1.0, engine.evaluate(n + " + 1"), 0.001);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(cache.size() <= 64);
+        assertEquals(20000, cache.getHitCount() + cache.getMissCount());
+    }
+}
@@ -0,0 +1,265 @@
+package general;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Потокобезопасный вычислитель выражений без изменяемого состояния.
+ * Значения переменных передаются в каждый вызов через {@link Bindings},
+ * поэтому один экземпляр можно разделять между всеми потоками без блокировок.
+ * 
+ * @author Кристина
+ */
+public class ExpressionEngine {
+    private final FunctionRegistry functions;
+    private final ExpressionLimits limits;
+    private final ExpressionCache cache;
+    private final EvaluationMetrics metrics;
+    private final Function<String, CompiledExpression> loader;
+    
+    /**
+     * Создает вычислитель без кэша: каждое выражение разбирается заново.
+     */
+    public ExpressionEngine() {
+        this(null);
+    }
+    
+    /**
+     * Создает вычислитель, который хранит разобранные выражения в кэше.
+     * 
+     * @param cache кэш скомпилированных выражений или null чтобы работать без кэша
+     */
+    public ExpressionEngine(ExpressionCache cache) {
+        this(cache, null);
+    }
+    
+    /**
+     * Создает вычислитель, который записывает показатели своей работы в метрики.
+     * Запись не берет блокировок, поэтому метрики можно не выключать под нагрузкой.
+     * 
+     * @param cache кэш скомпилированных выражений или null чтобы работать без кэша
+     * @param metrics метрики или null чтобы работать без них
+     */
+    public ExpressionEngine(ExpressionCache cache, EvaluationMetrics metrics) {
+        this(FunctionRegistry.standard(), cache, metrics);
+    }
+    
+    /**
+     * Создает вычислитель со своим набором функций. Имена функций разрешаются
+     * по реестру при разборе, поэтому кэш не следует разделять между
+     * вычислителями с разными реестрами. Действуют ограничения {@link ExpressionLimits#DEFAULT}.
+     * 
+     * @param functions реестр функций
+     * @param cache кэш скомпилированных выражений или null чтобы работать без кэша
+     * @param metrics метрики или null чтобы работать без них
+     */
+    public ExpressionEngine(FunctionRegistry functions, ExpressionCache cache, EvaluationMetrics metrics) {
+        this(functions, ExpressionLimits.DEFAULT, cache, metrics);
+    }
+    
+    /**
+     * Создает вычислитель с заданными ограничениями сложности выражений, например
+     * {@link ExpressionLimits#UNTRUSTED} для выражений из недоверенных источников.
+     * Выражения, превышающие ограничения, отклоняются при разборе с {@link ExpressionLimitException}.
+     * 
+     * @param functions реестр функций
+     * @param limits ограничения длины, вложенности, числа узлов и времени пакета
+     * @param cache кэш скомпилированных выражений или null чтобы работать без кэша
+     * @param metrics метрики или null чтобы работать без них
+     */
+    public ExpressionEngine(FunctionRegistry functions, ExpressionLimits limits,
+                            ExpressionCache cache, EvaluationMetrics metrics) {
+        this.functions = functions;
+        this.limits = limits;
+        this.cache = cache;
+        this.metrics = metrics;
+        if (metrics == null) {
+            loader = expression -> ExpressionParser.parse(expression, functions, limits);
+        } else {
+            loader = expression -> {
+                metrics.recordMiss();
+                return parse(expression);
+            };
+        }
+    }
+    
+    /**
+     * Разбирает выражение и возвращает его скомпилированную форму.
+     * Если у вычислителя есть кэш, повторные выражения берутся из него.
+     * 
+     * @param expression математическое выражение
+     * @return скомпилированное выражение
+     * @throws IllegalArgumentException если выражение некорректно
+     */
+    public CompiledExpression compile(String expression) {
+        if (cache == null || expression == null) {
+            return parse(expression);
+        }
+        if (metrics != null) {
+            metrics.recordLookup();
+        }
+        return cache.get(expression, loader);
+    }
+    
+    /**
+     * Компилирует набор формул в одну программу, в которой одинаковые подвыражения
+     * разных формул вычисляются один раз. Набор не берется из кэша: формулы
+     * разбираются заново, но ограничения вычислителя к ним применяются.
+     * 
+     * @param expressions тексты формул
+     * @return скомпилированный набор
+     * @throws IllegalArgumentException если набор пуст или какая-то формула некорректна
+     * @see FormulaSet
+     */
+    public FormulaSet compileSet(List<String> expressions) {
+        return new FormulaSet(expressions, functions, limits);
+    }
+    
+    /**
+     * Компилирует набор формул в одну программу.
+     * 
+     * @param expressions тексты формул
+     * @return скомпилированный набор
+     * @throws IllegalArgumentException если набор пуст или какая-то формула некорректна
+     * @see #compileSet(List)
+     */
+    public FormulaSet compileSet(String... expressions) {
+        return compileSet(Arrays.asList(expressions));
+    }
+    
+    private CompiledExpression parse(String expression) {
+        if (metrics == null) {
+            return ExpressionParser.parse(expression, functions, limits);
+        }
+        long start = System.nanoTime();
+        try {
+            CompiledExpression compiled = ExpressionParser.parse(expression, functions, limits);
+            metrics.recordParse(System.nanoTime() - start, compiled);
+            return compiled;
+        } catch (RuntimeException e) {
+            metrics.recordError(e, true);
+            throw e;
+        }
+    }
+    
+    /**
+     * Возвращает кэш выражений этого вычислителя.
+     * 
+     * @return кэш или null если вычислитель работает без кэша
+     */
+    public ExpressionCache getCache() {
+        return cache;
+    }
+    
+    /**
+     * Возвращает реестр функций этого вычислителя.
+     * 
+     * @return реестр функций
+     */
+    public FunctionRegistry getFunctions() {
+        return functions;
+    }
+    
+    /**
+     * Возвращает ограничения сложности выражений этого вычислителя.
+     * 
+     * @return ограничения
+     */
+    public ExpressionLimits getLimits() {
+        return limits;
+    }
+    
+    /**
+     * Возвращает метрики этого вычислителя.
+     * 
+     * @return метрики или null если вычислитель работает без них
+     */
+    public EvaluationMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Отмечает начало вычисления для метрик.
+     * 
+     * @return момент начала или 0 если метрик нет
+     */
+    long startEvaluation() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+    
+    /**
+     * Учитывает успешное вычисление, начатое {@link #startEvaluation()}.
+     * 
+     * @param start момент начала
+     * @param result результат вычисления
+     * @return тот же результат
+     */
+    double finishEvaluation(long start, double result) {
+        if (metrics != null) {
+            metrics.recordEvaluation(System.nanoTime() - start);
+        }
+        return result;
+    }
+    
+    /**
+     * Учитывает ошибку вычисления.
+     * 
+     * @param error исключение
+     * @return то же исключение, чтобы его можно было бросить дальше
+     */
+    RuntimeException evaluationFailed(RuntimeException error) {
+        if (metrics != null) {
+            metrics.recordError(error, false);
+        }
+        return error;
+    }
+    
+    /**
+     * Вычисляет выражение без переменных.
+     * 
+     * @param expression математическое выражение
+     * @return результат вычисления
+     * @throws IllegalArgumentException если выражение некорректно или содержит переменные
+     * @throws ArithmeticException при делении на ноль
+     */
+    public double evaluate(String expression) {
+        CompiledExpression compiled = compile(expression);
+        long start = startEvaluation();
+        try {
+            return finishEvaluation(start, compiled.evaluate());
+        } catch (RuntimeException e) {
+            throw evaluationFailed(e);
+        }
+    }
+    
+    /**
+     * Вычисляет выражение с переданными значениями переменных.
+     * 
+     * @param expression математическое выражение
+     * @param bindings значения переменных для этого вызова
+     * @return результат вычисления
+     * @throws IllegalArgumentException если выражение некорректно или не задана переменная
+     * @throws ArithmeticException при делении на ноль
+     */
+    public double evaluate(String expression, Bindings bindings) {
+        CompiledExpression compiled = compile(expression);
+        long start = startEvaluation();
+        try {
+            return finishEvaluation(start, compiled.evaluate(bindings));
+        } catch (RuntimeException e) {
+            throw evaluationFailed(e);
+        }
+    }
+    
+    /**
+     * Вычисляет набор независимых заданий параллельно в общем пуле ForkJoin.
+     * 
+     * @param jobs задания
+     * @return результаты в порядке заданий; ошибки сохраняются в результатах
+     * @see ParallelEvaluator
+     */
+    public List<JobResult> evaluateAll(List<ExpressionJob> jobs) {
+        return new ParallelEvaluator(this).evaluateAll(jobs);
+    }
+}
@@ -0,0 +1,73 @@
+package general;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для потокобезопасного вычислителя ExpressionEngine
+ */
+public class ExpressionEngineTest {
+    
+    // ========== ТЕСТЫ ПРИВЯЗОК ==========
+    
+    @Test
+    public void testEvaluateWithBindings() {
+        ExpressionEngine engine = new ExpressionEngine();
+        Bindings bindings = new Bindings().set("x", 5.0).set("y", 3.0);
+        assertEquals(8.0, engine.evaluate("x + y", bindings), 0.001);
+    }
+    
+    @Test
+    public void testRebindVariable() {
+        ExpressionEngine engine = new ExpressionEngine();
+        Bindings bindings = new Bindings().set("x", 1.0).set("x", 7.0);
+        assertEquals(7.0, bindings.get("x"), 0.001);
+        assertEquals(1, bindings.getNames().size());
+    }
+    
+    @Test
+    public void testMissingBinding() {
+        ExpressionEngine engine = new ExpressionEngine();
+        assertThrows(IllegalArgumentException.class, () -> {
+            engine.evaluate("x + y", new Bindings().set("x", 1.0));
+        });
+    }
+    
+    @Test
+    public void testEvaluateWithoutVariables() {
+        ExpressionEngine engine = new ExpressionEngine();
+        assertEquals(14.0, engine.evaluate("2 + 3 * 4"), 0.001);
+    }
+    
+    // ========== ТЕСТЫ МНОГОПОТОЧНОСТИ ==========
+    
+    @Test
+    public void testSharedEngineAcrossThreads() throws Exception {
+        ExpressionEngine engine = new ExpressionEngine();
+        CompiledExpression expression = engine.compile("x * x + y");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                futures.add(executor.submit(() -> {
+                    Bindings bindings = new Bindings();
+                    for (int i = 0; i < 10000; i++) {
+                        double x = seed * 10000 + i;
+                        bindings.set("x", x).set("y", seed);
+                        if (expression.evaluate(bindings) != x * x + seed) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
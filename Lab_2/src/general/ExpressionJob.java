@@ -0,0 +1,46 @@
+package general;
+
+/**
+ * Задание для пакетного вычисления: выражение и значения его переменных.
+ * 
+ * @author Кристина
+ */
+public final class ExpressionJob {
+    private final String expression;
+    private final Bindings bindings;
+    
+    /**
+     * Создает задание для выражения без переменных.
+     * 
+     * @param expression математическое выражение
+     */
+    public ExpressionJob(String expression) {
+        this(expression, new Bindings());
+    }
+    
+    /**
+     * Создает задание для выражения с переменными.
+     * Объект привязок не должен меняться, пока задание выполняется.
+     * 
+     * @param expression математическое выражение
+     * @param bindings значения переменных
+     */
+    public ExpressionJob(String expression, Bindings bindings) {
+        this.expression = expression;
+        this.bindings = bindings;
+    }
+    
+    /**
+     * @return текст выражения
+     */
+    public String getExpression() {
+        return expression;
+    }
+    
+    /**
+     * @return значения переменных
+     */
+    public Bindings getBindings() {
+        return bindings;
+    }
+}
@@ -0,0 +1,19 @@
+package general;
+
+/**
+ * Выражение или пакет превышает ограничение сложности ({@link ExpressionLimits}).
+ * Сообщение начинается с {@link ExpressionLimits#LIMIT_EXCEEDED}.
+ * 
+ * @author Кристина
+ */
+public class ExpressionLimitException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+    
+    ExpressionLimitException(String message) {
+        super(message);
+    }
+    
+    ExpressionLimitException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
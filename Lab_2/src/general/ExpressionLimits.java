@@ -0,0 +1,117 @@
+package general;
+
+/**
+ * Ограничения сложности выражений для защиты от недоверенного ввода.
+ * Вычислитель по умолчанию использует мягкие ограничения {@link #DEFAULT};
+ * строгие ({@link #UNTRUSTED} или свои) передаются явно там, где выражения
+ * приходят извне.
+ * <p>
+ * Длина проверяется до разбора, глубина вложенности и число узлов - во время
+ * единственного прохода разборщика, поэтому слишком большое или слишком глубокое
+ * выражение отклоняется, как только ограничение превышено, а не переполняет
+ * стек и не занимает поток надолго. Время пакетного вычисления ограничивается
+ * в {@link ParallelEvaluator}: задания, до которых не дошла очередь, получают ошибку.
+ * <p>
+ * Превышение ограничения - это {@link ExpressionLimitException} (подкласс
+ * {@link IllegalArgumentException}), сообщение которого начинается с {@link #LIMIT_EXCEEDED}.
+ * 
+ * @author Кристина
+ */
+public final class ExpressionLimits {
+    
+    /** Начало сообщения об ошибке при превышении ограничения. */
+    public static final String LIMIT_EXCEEDED = "Превышено ограничение";
+    
+    /**
+     * Ограничения по умолчанию для библиотеки и калькулятора: длина и число узлов
+     * не ограничены, время пакета тоже. Остается только вложенность до 500 уровней:
+     * разборщик рекурсивный, и более глубокое выражение переполнило бы стек потока.
+     */
+    public static final ExpressionLimits DEFAULT = new ExpressionLimits(Integer.MAX_VALUE, 500, Integer.MAX_VALUE, 0);
+    
+    /**
+     * Строгие ограничения для выражений из недоверенных источников (сеть, пакетные файлы):
+     * 100000 символов, 200 уровней вложенности, 50000 узлов, время пакета не ограничено.
+     */
+    public static final ExpressionLimits UNTRUSTED = new ExpressionLimits(100_000, 200, 50_000, 0);
+    
+    private final int maxLength;
+    private final int maxDepth;
+    private final int maxNodes;
+    private final long batchTimeMillis;
+    
+    /**
+     * Создает ограничения.
+     * 
+     * @param maxLength наибольшая длина выражения в символах
+     * @param maxDepth наибольшая вложенность скобок, вызовов функций и унарных минусов
+     * @param maxNodes наибольшее число узлов дерева: чисел, переменных, операций и вызовов
+     * @param batchTimeMillis наибольшее время вычисления пакета в миллисекундах, 0 - без ограничения
+     * @throws IllegalArgumentException если какое-то ограничение некорректно
+     */
+    public ExpressionLimits(int maxLength, int maxDepth, int maxNodes, long batchTimeMillis) {
+        if (maxLength < 1 || maxDepth < 1 || maxNodes < 1 || batchTimeMillis < 0) {
+            throw new IllegalArgumentException("Некорректные ограничения выражений");
+        }
+        this.maxLength = maxLength;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.batchTimeMillis = batchTimeMillis;
+    }
+    
+    /**
+     * @return наибольшая длина выражения в символах
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+    
+    /**
+     * @return наибольшая глубина вложенности
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+    
+    /**
+     * @return наибольшее число узлов дерева
+     */
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+    
+    /**
+     * @return наибольшее время вычисления пакета в миллисекундах или 0 если оно не ограничено
+     */
+    public long getBatchTimeMillis() {
+        return batchTimeMillis;
+    }
+    
+    /**
+     * Проверяет длину выражения.
+     * 
+     * @param expression текст выражения
+     * @throws IllegalArgumentException если выражение длиннее допустимого
+     */
+    void checkLength(String expression) {
+        if (expression.length() > maxLength) {
+            throw exceeded("длина выражения " + expression.length() + " символов, допускается " + maxLength);
+        }
+    }
+    
+    /**
+     * Создает исключение о превышении ограничения.
+     * 
+     * @param details что именно превышено
+     * @return исключение
+     */
+    static ExpressionLimitException exceeded(String details) {
+        return new ExpressionLimitException(LIMIT_EXCEEDED + ": " + details);
+    }
+    
+    @Override
+    public String toString() {
+        return "длина " + maxLength + ", вложенность " + maxDepth + ", узлов " + maxNodes
+                + (batchTimeMillis > 0 ? ", время пакета " + batchTimeMillis + " мс" : "");
+    }
+}
@@ -0,0 +1,146 @@
+package general;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для ограничений сложности выражений
+ */
+public class ExpressionLimitsTest {
+    
+    private static ExpressionEngine engine(int maxLength, int maxDepth, int maxNodes, long batchTimeMillis) {
+        return new ExpressionEngine(FunctionRegistry.standard(),
+                new ExpressionLimits(maxLength, maxDepth, maxNodes, batchTimeMillis), null, null);
+    }
+    
+    private static String nested(String open, String inner, String close, int depth) {
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            expression.append(open);
+        }
+        expression.append(inner);
+        for (int i = 0; i < depth; i++) {
+            expression.append(close);
+        }
+        return expression.toString();
+    }
+    
+    private static void assertLimitExceeded(Runnable action) {
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, action::run);
+        assertTrue(exception.getMessage().startsWith(ExpressionLimits.LIMIT_EXCEEDED), exception.getMessage());
+    }
+    
+    // ========== ТЕСТЫ РАЗБОРА ==========
+    
+    @Test
+    public void testMaxLength() {
+        ExpressionEngine engine = engine(10, 100, 100, 0);
+        assertEquals(3.0, engine.evaluate("1 + 2"), 0.001);
+        assertLimitExceeded(() -> engine.evaluate("1 + 2 + 3 + 4"));
+    }
+    
+    @Test
+    public void testMaxDepth() {
+        ExpressionEngine engine = engine(1000, 5, 1000, 0);
+        assertEquals(1.0, engine.evaluate(nested("(", "1", ")", 5)), 0.001);
+        assertLimitExceeded(() -> engine.evaluate(nested("(", "1", ")", 6)));
+        assertLimitExceeded(() -> engine.evaluate(nested("abs(", "1", ")", 6)));
+        assertLimitExceeded(() -> engine.evaluate(nested("-", "1", "", 6)));
+    }
+    
+    @Test
+    public void testDepthErrorHasPosition() {
+        ExpressionEngine engine = engine(1000, 2, 1000, 0);
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> engine.evaluate("1 + (2 * (3 - (4)))"));
+        assertTrue(exception.getMessage().contains("в позиции 15"), exception.getMessage());
+    }
+    
+    @Test
+    public void testMaxNodes() {
+        ExpressionEngine engine = engine(1000, 100, 5, 0);
+        // 1 + 2 * 3: три числа и две операции
+        assertEquals(7.0, engine.evaluate("1 + 2 * 3"), 0.001);
+        assertLimitExceeded(() -> engine.evaluate("1 + 2 * 3 - 4"));
+        assertLimitExceeded(() -> engine.evaluate("max(1, 2, 3, 4, 5)"));
+    }
+    
+    @Test
+    public void testDefaultLimitsStopDeepNestingWithoutStackOverflow() {
+        ExpressionEngine engine = new ExpressionEngine();
+        assertLimitExceeded(() -> engine.evaluate(nested("(", "1", ")", 100_000)));
+        assertLimitExceeded(() -> engine.evaluate(nested("-", "1", "", 50_000)));
+        assertLimitExceeded(() -> engine.evaluate(nested("sqrt(", "1", ")", 501)));
+    }
+    
+    @Test
+    public void testDefaultLimitsAllowOrdinaryExpressions() {
+        ExpressionEngine engine = new ExpressionEngine();
+        assertEquals(1.0, engine.evaluate(nested("(", "1", ")", 150)), 0.001);
+        assertEquals(10001.0, engine.evaluate(nested("1 + ", "1", "", 10_000)), 0.001);
+    }
+    
+    @Test
+    public void testDefaultLimitsKeepCalculatorBehavior() {
+        // Калькулятор принимает глубокие и длинные выражения, как до введения ограничений
+        SimpleCalculator calculator = new SimpleCalculator();
+        assertEquals(1.0, calculator.calculate(nested("(", "1", ")", 500)), 0.001);
+        assertEquals(1.0, calculator.calculate(nested("sqrt(", "1", ")", 500)), 0.001);
+        assertEquals(200_001.0, calculator.calculate(nested("1 + ", "1", "", 200_000)), 0.001);
+    }
+    
+    @Test
+    public void testUntrustedLimits() {
+        ExpressionEngine engine = new ExpressionEngine(FunctionRegistry.standard(), ExpressionLimits.UNTRUSTED, null, null);
+        assertEquals(1.0, engine.evaluate(nested("(", "1", ")", 200)), 0.001);
+        assertLimitExceeded(() -> engine.evaluate(nested("(", "1", ")", 201)));
+        // 800001 символ и 60001 узел при 60001 символе
+        assertLimitExceeded(() -> engine.evaluate(nested("1 + ", "1", "", 200_000)));
+        assertLimitExceeded(() -> engine.evaluate(nested("1+", "1", "", 30_000)));
+    }
+    
+    @Test
+    public void testInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new ExpressionLimits(0, 1, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ExpressionLimits(1, 1, 1, -1));
+    }
+    
+    // ========== ТЕСТЫ ВРЕМЕНИ ПАКЕТА ==========
+    
+    @Test
+    public void testBatchTimeBudget() {
+        FunctionRegistry functions = new FunctionRegistry().register("slow", x -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return x;
+        });
+        ExpressionEngine engine = new ExpressionEngine(functions, new ExpressionLimits(1000, 10, 100, 50), null, null);
+        List<ExpressionJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            jobs.add(new ExpressionJob("slow(x)", new Bindings().set("x", i)));
+        }
+        
+        List<JobResult> results = new ParallelEvaluator(engine, new ForkJoinPool(1)).evaluateAll(jobs);
+        
+        assertEquals(20, results.size());
+        assertEquals(0.0, results.get(0).getValue(), 0.0);
+        JobResult last = results.get(19);
+        assertFalse(last.isSuccess());
+        assertTrue(last.getError() instanceof ExpressionLimitException);
+    }
+    
+    @Test
+    public void testMetricsCountLimitErrors() {
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        ExpressionEngine engine = new ExpressionEngine(FunctionRegistry.standard(),
+                new ExpressionLimits(5, 10, 10, 0), null, metrics);
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("1 + 2 + 3"));
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("1 +"));
+        assertEquals(1, metrics.getLimitExceededCount());
+        assertEquals(1, metrics.getInvalidExpressionCount());
+    }
+}
@@ -0,0 +1,246 @@
+package general;
+
+import java.util.*;
+
+/**
+ * Разбирает список лексем выражения в дерево узлов методом рекурсивного спуска.
+ * Грамматика:
+ * <pre>
+ * выражение  := слагаемое (('+' | '-') слагаемое)*
+ * слагаемое  := множитель (('*' | '/') множитель)*
+ * множитель  := '-' множитель | первичное
+ * первичное  := число | переменная | функция '(' аргументы? ')' | '(' выражение ')'
+ * аргументы  := выражение (',' выражение)*
+ * </pre>
+ * Имена функций берутся из {@link FunctionRegistry}; остальные имена считаются переменными.
+ * Длина, вложенность и число узлов проверяются по {@link ExpressionLimits} во время
+ * того же прохода, поэтому глубина рекурсии разборщика всегда ограничена.
+ * 
+ * @author Кристина
+ */
+class ExpressionParser {
+    private final TokenList tokens;
+    private final FunctionRegistry functions;
+    private final ExpressionLimits limits;
+    private final Map<String, Integer> slots;
+    private int position;
+    private int depth;
+    private int nodes;
+    
+    private ExpressionParser(TokenList tokens, FunctionRegistry functions, ExpressionLimits limits,
+                             Map<String, Integer> slots) {
+        this.tokens = tokens;
+        this.functions = functions;
+        this.limits = limits;
+        this.slots = slots;
+    }
+    
+    /**
+     * Разбирает выражение и возвращает скомпилированный результат.
+     * 
+     * @param expression математическое выражение
+     * @return скомпилированное выражение
+     * @throws IllegalArgumentException если выражение некорректно; сообщение содержит позицию ошибки
+     */
+    static CompiledExpression parse(String expression) {
+        return parse(expression, FunctionRegistry.standard());
+    }
+    
+    /**
+     * Разбирает выражение, разрешая имена функций по заданному реестру.
+     * 
+     * @param expression математическое выражение
+     * @param functions реестр функций
+     * @return скомпилированное выражение
+     * @throws IllegalArgumentException если выражение некорректно; сообщение содержит позицию ошибки
+     */
+    static CompiledExpression parse(String expression, FunctionRegistry functions) {
+        return parse(expression, functions, ExpressionLimits.DEFAULT);
+    }
+    
+    /**
+     * Разбирает выражение с заданными ограничениями сложности.
+     * 
+     * @param expression математическое выражение
+     * @param functions реестр функций
+     * @param limits ограничения длины, вложенности и числа узлов
+     * @return скомпилированное выражение
+     * @throws IllegalArgumentException если выражение некорректно или превышает ограничения
+     */
+    static CompiledExpression parse(String expression, FunctionRegistry functions, ExpressionLimits limits) {
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        Node root = parseTree(expression, functions, limits, slots);
+        String[] variableNames = slots.keySet().toArray(new String[0]);
+        return new CompiledExpression(expression, root, variableNames);
+    }
+    
+    /**
+     * Разбирает выражение в дерево, назначая переменным номера ячеек по общей таблице.
+     * Новые переменные добавляются в конец таблицы, поэтому несколько выражений,
+     * разобранных с одной таблицей, используют одинаковые номера для одинаковых имен.
+     * 
+     * @param expression математическое выражение
+     * @param functions реестр функций
+     * @param limits ограничения длины, вложенности и числа узлов
+     * @param slots номера ячеек переменных по именам; дополняется новыми переменными
+     * @return корень дерева
+     * @throws IllegalArgumentException если выражение некорректно или превышает ограничения
+     */
+    static Node parseTree(String expression, FunctionRegistry functions, ExpressionLimits limits,
+                          Map<String, Integer> slots) {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("Выражение записано некорректно");
+        }
+        limits.checkLength(expression);
+        
+        ExpressionParser parser = new ExpressionParser(Lexer.tokenize(expression), functions, limits, slots);
+        Node root = parser.parseExpression();
+        if (parser.type() != TokenList.END) {
+            throw parser.unexpected();
+        }
+        return root;
+    }
+    
+    private Node parseExpression() {
+        Node result = parseTerm();
+        while (true) {
+            byte type = type();
+            if (type == TokenList.PLUS) {
+                position++;
+                result = count(new Node.Add(result, parseTerm()));
+            } else if (type == TokenList.MINUS) {
+                position++;
+                result = count(new Node.Subtract(result, parseTerm()));
+            } else {
+                return result;
+            }
+        }
+    }
+    
+    private Node parseTerm() {
+        Node result = parseUnary();
+        while (true) {
+            byte type = type();
+            if (type == TokenList.STAR) {
+                position++;
+                result = count(new Node.Multiply(result, parseUnary()));
+            } else if (type == TokenList.SLASH) {
+                position++;
+                result = count(new Node.Divide(result, parseUnary()));
+            } else {
+                return result;
+            }
+        }
+    }
+    
+    private Node parseUnary() {
+        if (type() == TokenList.MINUS) {
+            position++;
+            enter();
+            Node operand = parseUnary();
+            depth--;
+            return count(new Node.Negate(operand));
+        }
+        return parsePrimary();
+    }
+    
+    private Node parsePrimary() {
+        switch (type()) {
+            case TokenList.NUMBER:
+                return count(new Node.Constant(tokens.numbers[position++]));
+                
+            case TokenList.LEFT_BRACKET: {
+                position++;
+                enter();
+                Node inside = parseExpression();
+                depth--;
+                expectClosingBracket();
+                return inside;
+            }
+                
+            case TokenList.NAME: {
+                String name = tokens.names[position];
+                int namePosition = tokens.positions[position];
+                position++;
+                MathFunction function = functions.get(name);
+                if (function != null) {
+                    // После имени функции сразу должна идти скобка
+                    if (type() != TokenList.LEFT_BRACKET || tokens.positions[position] != namePosition + name.length()) {
+                        throw new IllegalArgumentException(
+                                "Некорректный вызов функции " + name + " в позиции " + (namePosition + 1));
+                    }
+                    position++;
+                    enter();
+                    Node[] arguments = parseArguments();
+                    depth--;
+                    if (!function.accepts(arguments.length)) {
+                        throw new IllegalArgumentException("Неверное число аргументов функции " + name
+                                + ": " + arguments.length + " в позиции " + (namePosition + 1));
+                    }
+                    return count(new Node.Call(function, arguments));
+                }
+                if (type() == TokenList.LEFT_BRACKET) {
+                    throw new IllegalArgumentException(
+                            "Неизвестная функция: " + name + " в позиции " + (namePosition + 1));
+                }
+                Integer slot = slots.get(name);
+                if (slot == null) {
+                    slot = slots.size();
+                    slots.put(name, slot);
+                }
+                return count(new Node.Variable(name, slot));
+            }
+                
+            default:
+                throw unexpected();
+        }
+    }
+    
+    private Node[] parseArguments() {
+        List<Node> arguments = new ArrayList<>();
+        if (type() != TokenList.RIGHT_BRACKET) {
+            arguments.add(parseExpression());
+            while (type() == TokenList.COMMA) {
+                position++;
+                arguments.add(parseExpression());
+            }
+        }
+        expectClosingBracket();
+        return arguments.toArray(new Node[0]);
+    }
+    
+    /**
+     * Входит на следующий уровень вложенности: в скобки, аргументы функции или под унарный минус.
+     */
+    private void enter() {
+        if (++depth > limits.getMaxDepth()) {
+            throw ExpressionLimits.exceeded("вложенность больше " + limits.getMaxDepth()
+                    + " в позиции " + (tokens.positions[position - 1] + 1));
+        }
+    }
+    
+    private Node count(Node node) {
+        if (++nodes > limits.getMaxNodes()) {
+            throw ExpressionLimits.exceeded("больше " + limits.getMaxNodes() + " узлов в позиции "
+                    + (tokens.positions[position - 1] + 1));
+        }
+        return node;
+    }
+    
+    private void expectClosingBracket() {
+        if (type() != TokenList.RIGHT_BRACKET) {
+            throw new IllegalArgumentException("Непарные скобки в выражении: ожидалась ')' в позиции "
+                    + (tokens.positions[position] + 1) + ", найдено " + tokens.describe(position));
+        }
+        position++;
+    }
+    
+    private IllegalArgumentException unexpected() {
+        return new IllegalArgumentException("Выражение записано некорректно: неожиданная лексема "
+                + tokens.describe(position) + " в позиции " + (tokens.positions[position] + 1));
+    }
+    
+    private byte type() {
+        return tokens.types[position];
+    }
+}
@@ -0,0 +1,322 @@
+package general;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Потоковый обработчик: подписывается на источник значений переменных
+ * и для каждого набора значений выдает результат одного и того же выражения.
+ * <p>
+ * Обработчик соблюдает спрос в обе стороны. У источника запрашивается не больше
+ * bufferSize значений сверх уже выданных подписчику, поэтому медленный подписчик
+ * не приводит к неограниченному накоплению: источник просто не получает спроса.
+ * Новые значения запрашиваются у источника пачкой, когда освобождается половина буфера.
+ * <p>
+ * При нагрузке значения вычисляются порциями: если в буфере накопилось несколько
+ * значений и подписчик готов их принять, они вычисляются одним пакетом
+ * (см. {@link CompiledExpression#evaluateBatch}), до maxBatch значений за раз.
+ * При небольшом потоке каждое значение вычисляется сразу, без ожидания порции.
+ * <p>
+ * Ошибка вычисления не прерывает поток: она возвращается в {@link JobResult}
+ * этого значения. Ошибка источника передается подписчику после того,
+ * как выданы все уже полученные значения. У обработчика может быть
+ * только один подписчик. Значения переменных нельзя менять после передачи
+ * обработчику: они читаются позже, в потоке исполнителя.
+ * 
+ * @author Кристина
+ */
+public class ExpressionProcessor implements Flow.Processor<Bindings, JobResult> {
+    /** Размер буфера по умолчанию. */
+    public static final int DEFAULT_BUFFER_SIZE = Flow.defaultBufferSize();
+    /** Наибольший размер порции по умолчанию. */
+    public static final int DEFAULT_MAX_BATCH = 256;
+    
+    private final CompiledExpression expression;
+    private final String[] variableNames;
+    private final Executor executor;
+    private final int bufferSize;
+    private final int maxBatch;
+    
+    private final Queue<Bindings> queue = new ConcurrentLinkedQueue<>();
+    /** Число значений, уже лежащих в очереди; увеличивается после добавления. */
+    private final AtomicInteger queued = new AtomicInteger();
+    /** Число принятых и еще не выданных значений; увеличивается до добавления, для проверки спроса. */
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final AtomicLong demand = new AtomicLong();
+    /** Число запросов на обработку; выдачу выполняет тот, кто увеличил его с нуля. */
+    private final AtomicInteger work = new AtomicInteger();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super JobResult> downstream;
+    private volatile boolean done;
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+    private volatile Throwable invalidRequest;
+    
+    // Используются только внутри выдачи, которая не выполняется в двух потоках сразу
+    private int consumed;
+    private boolean terminated;
+    
+    /**
+     * Создает обработчик с общим пулом ForkJoin и размерами по умолчанию.
+     * 
+     * @param expression выражение, вычисляемое для каждого набора значений
+     */
+    public ExpressionProcessor(CompiledExpression expression) {
+        this(expression, ForkJoinPool.commonPool(), DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BATCH);
+    }
+    
+    /**
+     * Создает обработчик.
+     * 
+     * @param expression выражение, вычисляемое для каждого набора значений
+     * @param executor исполнитель, в котором вычисляются и выдаются результаты
+     * @param bufferSize сколько значений можно получить от источника впрок
+     * @param maxBatch наибольшее число значений, вычисляемых одной порцией
+     * @throws IllegalArgumentException если размеры некорректны
+     */
+    public ExpressionProcessor(CompiledExpression expression, Executor executor, int bufferSize, int maxBatch) {
+        if (bufferSize < 1 || maxBatch < 1) {
+            throw new IllegalArgumentException("Некорректные размеры буфера и порции");
+        }
+        this.expression = Objects.requireNonNull(expression);
+        this.variableNames = expression.getVariableNames().toArray(new String[0]);
+        this.executor = Objects.requireNonNull(executor);
+        this.bufferSize = bufferSize;
+        this.maxBatch = maxBatch;
+    }
+    
+    /**
+     * @return вычисляемое выражение
+     */
+    public CompiledExpression getExpression() {
+        return expression;
+    }
+    
+    // ========== СТОРОНА ИСТОЧНИКА ==========
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null || cancelled) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        subscription.request(bufferSize);
+    }
+    
+    @Override
+    public void onNext(Bindings item) {
+        Objects.requireNonNull(item);
+        if (done) {
+            return;
+        }
+        if (accepted.incrementAndGet() > bufferSize) {
+            // Источник нарушил договор о спросе: без этой проверки буфер рос бы без предела
+            accepted.decrementAndGet();
+            upstream.cancel();
+            onError(new IllegalStateException("Источник прислал больше значений, чем было запрошено"));
+            return;
+        }
+        // Счетчик очереди растет только после добавления: выдача не должна ждать еще не добавленного значения
+        queue.offer(item);
+        queued.incrementAndGet();
+        schedule();
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        Objects.requireNonNull(throwable);
+        if (done) {
+            return;
+        }
+        failure = throwable;
+        done = true;
+        schedule();
+    }
+    
+    @Override
+    public void onComplete() {
+        done = true;
+        schedule();
+    }
+    
+    // ========== СТОРОНА ПОДПИСЧИКА ==========
+    
+    @Override
+    public void subscribe(Flow.Subscriber<? super JobResult> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (subscribers.getAndIncrement() > 0) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+                
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("У обработчика уже есть подписчик"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    invalidRequest = new IllegalArgumentException("Запрошено неположительное число значений: " + n);
+                } else {
+                    demand.getAndAccumulate(n, (current, added) -> {
+                        long sum = current + added;
+                        return sum < 0 ? Long.MAX_VALUE : sum;
+                    });
+                }
+                schedule();
+            }
+            
+            @Override
+            public void cancel() {
+                cancelAll();
+            }
+        });
+        downstream = subscriber;
+        schedule();
+    }
+    
+    private void cancelAll() {
+        cancelled = true;
+        Flow.Subscription subscription = upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        schedule();
+    }
+    
+    private void schedule() {
+        if (work.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+    
+    /**
+     * Выдает подписчику результаты, пока есть и значения, и спрос.
+     * Запросы, пришедшие во время выдачи, обрабатываются тем же вызовом.
+     */
+    private void drain() {
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super JobResult> subscriber = downstream;
+            if (subscriber != null && !terminated) {
+                try {
+                    emit(subscriber);
+                } catch (RuntimeException e) {
+                    // Подписчик не должен бросать исключения; дальше выдавать ему нельзя
+                    terminated = true;
+                    cancelAll();
+                }
+            }
+            if (cancelled) {
+                queue.clear();
+            }
+            missed = work.addAndGet(-missed);
+        } while (missed != 0);
+    }
+    
+    private void emit(Flow.Subscriber<? super JobResult> subscriber) {
+        while (!cancelled) {
+            if (invalidRequest != null) {
+                terminate(subscriber, invalidRequest);
+                cancelAll();
+                return;
+            }
+            // Признак завершения читается до размера очереди: так последние значения не потеряются
+            boolean finished = done;
+            int available = queued.get();
+            if (available == 0) {
+                if (finished) {
+                    terminate(subscriber, failure);
+                }
+                return;
+            }
+            long requested = demand.get();
+            if (requested == 0) {
+                return;
+            }
+            
+            int count = (int) Math.min(Math.min(requested, available), maxBatch);
+            Bindings[] batch = new Bindings[count];
+            for (int i = 0; i < count; i++) {
+                batch[i] = queue.poll();
+            }
+            queued.addAndGet(-count);
+            accepted.addAndGet(-count);
+            if (requested != Long.MAX_VALUE) {
+                demand.addAndGet(-count);
+            }
+            for (JobResult result : evaluate(batch)) {
+                subscriber.onNext(result);
+            }
+            replenish(count);
+        }
+    }
+    
+    private void terminate(Flow.Subscriber<? super JobResult> subscriber, Throwable error) {
+        terminated = true;
+        if (error != null) {
+            subscriber.onError(error);
+        } else {
+            subscriber.onComplete();
+        }
+    }
+    
+    /**
+     * Запрашивает у источника столько значений, сколько выдано подписчику,
+     * но не по одному, а когда освободилась половина буфера.
+     */
+    private void replenish(int count) {
+        consumed += count;
+        if (consumed >= Math.max(1, bufferSize / 2) && !done) {
+            upstream.request(consumed);
+            consumed = 0;
+        }
+    }
+    
+    /**
+     * Вычисляет порцию значений одним пакетом. Если в пакете есть ошибка,
+     * порция пересчитывается по одному значению, чтобы ошибку получило только ее значение.
+     */
+    private JobResult[] evaluate(Bindings[] batch) {
+        JobResult[] results = new JobResult[batch.length];
+        if (batch.length > 1) {
+            try {
+                double[][] columns = new double[variableNames.length][batch.length];
+                for (int row = 0; row < batch.length; row++) {
+                    for (int i = 0; i < variableNames.length; i++) {
+                        columns[i][row] = batch[row].get(variableNames[i]);
+                    }
+                }
+                double[] out = new double[batch.length];
+                expression.evaluateBatch(columns, out, ColumnarProgram.ENABLED);
+                for (int row = 0; row < batch.length; row++) {
+                    results[row] = JobResult.success(out[row]);
+                }
+                return results;
+            } catch (RuntimeException e) {
+                // Ошибка в одном из значений: ниже каждое значение вычисляется отдельно
+            }
+        }
+        for (int row = 0; row < batch.length; row++) {
+            try {
+                results[row] = JobResult.success(expression.evaluate(batch[row]));
+            } catch (RuntimeException e) {
+                results[row] = JobResult.failure(e);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,255 @@
+package general;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для потокового обработчика выражений
+ */
+public class ExpressionProcessorTest {
+    private static final Executor DIRECT = Runnable::run;
+    
+    /**
+     * Источник, который отдает значения только вручную и запоминает полученный спрос.
+     */
+    private static final class ManualSource implements Flow.Subscription {
+        final AtomicLong requested = new AtomicLong();
+        boolean cancelled;
+        Flow.Subscriber<? super Bindings> subscriber;
+        
+        void attach(Flow.Subscriber<? super Bindings> target) {
+            subscriber = target;
+            target.onSubscribe(this);
+        }
+        
+        void push(double x) {
+            subscriber.onNext(new Bindings().set("x", x));
+        }
+        
+        @Override
+        public void request(long n) {
+            requested.addAndGet(n);
+        }
+        
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+    
+    /**
+     * Подписчик, который запрашивает значения только вручную.
+     */
+    private static final class Collector implements Flow.Subscriber<JobResult> {
+        final List<JobResult> results = new CopyOnWriteArrayList<>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile Throwable error;
+        volatile boolean completed;
+        Flow.Subscription subscription;
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+        
+        @Override
+        public void onNext(JobResult item) {
+            results.add(item);
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            finished.countDown();
+        }
+        
+        @Override
+        public void onComplete() {
+            completed = true;
+            finished.countDown();
+        }
+    }
+    
+    private static ExpressionProcessor processor(String expression, int bufferSize, int maxBatch) {
+        return new ExpressionProcessor(new ExpressionEngine().compile(expression), DIRECT, bufferSize, maxBatch);
+    }
+    
+    // ========== ТЕСТЫ ВЫЧИСЛЕНИЯ ==========
+    
+    @Test
+    public void testResultsInOrderFromPublisher() throws Exception {
+        ExpressionProcessor processor = new ExpressionProcessor(new ExpressionEngine().compile("x * 2 + 1"));
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        collector.subscription.request(Long.MAX_VALUE);
+        
+        try (SubmissionPublisher<Bindings> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int i = 0; i < 5000; i++) {
+                publisher.submit(new Bindings().set("x", i));
+            }
+        }
+        
+        assertTrue(collector.finished.await(10, TimeUnit.SECONDS));
+        assertTrue(collector.completed);
+        assertEquals(5000, collector.results.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i * 2 + 1.0, collector.results.get(i).getValue(), 0.001);
+        }
+    }
+    
+    @Test
+    public void testErrorsStayWithTheirValues() {
+        ExpressionProcessor processor = processor("1 / (x - 2)", 16, 8);
+        ManualSource source = new ManualSource();
+        source.attach(processor);
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        
+        for (int i = 0; i < 5; i++) {
+            source.push(i);
+        }
+        // Все пять значений вычисляются одной порцией, ошибка только у x = 2
+        collector.subscription.request(5);
+        
+        assertEquals(5, collector.results.size());
+        assertEquals(-0.5, collector.results.get(0).getValue(), 0.001);
+        assertTrue(collector.results.get(2).getError() instanceof ArithmeticException);
+        assertEquals(0.5, collector.results.get(4).getValue(), 0.001);
+        assertNull(collector.error);
+    }
+    
+    @Test
+    public void testMissingVariableInBatch() {
+        ExpressionProcessor processor = processor("x + y", 16, 8);
+        ManualSource source = new ManualSource();
+        source.attach(processor);
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        
+        source.subscriber.onNext(new Bindings().set("x", 1).set("y", 2));
+        source.subscriber.onNext(new Bindings().set("x", 1));
+        collector.subscription.request(2);
+        
+        assertEquals(3.0, collector.results.get(0).getValue(), 0.001);
+        assertTrue(collector.results.get(1).getError() instanceof IllegalArgumentException);
+    }
+    
+    // ========== ТЕСТЫ СПРОСА ==========
+    
+    @Test
+    public void testSlowSubscriberBoundsUpstreamDemand() {
+        ExpressionProcessor processor = processor("x + 1", 8, 4);
+        ManualSource source = new ManualSource();
+        source.attach(processor);
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        
+        assertEquals(8, source.requested.get());
+        for (int i = 0; i < 8; i++) {
+            source.push(i);
+        }
+        assertTrue(collector.results.isEmpty());
+        assertEquals(8, source.requested.get());
+        
+        // Выдано три значения: меньше половины буфера, новых запросов нет
+        collector.subscription.request(3);
+        assertEquals(3, collector.results.size());
+        assertEquals(8, source.requested.get());
+        
+        // Выдано еще одно: освободилась половина буфера
+        collector.subscription.request(1);
+        assertEquals(4, collector.results.size());
+        assertEquals(12, source.requested.get());
+    }
+    
+    @Test
+    public void testSourceIgnoringDemandIsStopped() {
+        ExpressionProcessor processor = processor("x", 2, 2);
+        ManualSource source = new ManualSource();
+        source.attach(processor);
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        
+        source.push(1);
+        source.push(2);
+        source.push(3);
+        assertTrue(source.cancelled);
+        assertNull(collector.error);
+        
+        // Уже полученные значения выдаются, потом сообщается ошибка источника
+        collector.subscription.request(10);
+        assertEquals(2, collector.results.size());
+        assertTrue(collector.error instanceof IllegalStateException);
+    }
+    
+    @Test
+    public void testCompletionWaitsForBufferedValues() {
+        ExpressionProcessor processor = processor("x", 4, 4);
+        ManualSource source = new ManualSource();
+        source.attach(processor);
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        
+        source.push(1);
+        source.push(2);
+        source.subscriber.onError(new RuntimeException("сбой датчика"));
+        assertNull(collector.error);
+        
+        collector.subscription.request(1);
+        assertNull(collector.error);
+        collector.subscription.request(1);
+        assertEquals(2, collector.results.size());
+        assertEquals("сбой датчика", collector.error.getMessage());
+    }
+    
+    @Test
+    public void testCancelStopsSource() {
+        ExpressionProcessor processor = processor("x", 4, 4);
+        ManualSource source = new ManualSource();
+        source.attach(processor);
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        
+        source.push(1);
+        collector.subscription.cancel();
+        collector.subscription.request(1);
+        
+        assertTrue(source.cancelled);
+        assertTrue(collector.results.isEmpty());
+    }
+    
+    // ========== ТЕСТЫ НАРУШЕНИЙ ==========
+    
+    @Test
+    public void testInvalidRequest() {
+        ExpressionProcessor processor = processor("x", 4, 4);
+        ManualSource source = new ManualSource();
+        source.attach(processor);
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        
+        collector.subscription.request(0);
+        
+        assertTrue(collector.error instanceof IllegalArgumentException);
+        assertTrue(source.cancelled);
+    }
+    
+    @Test
+    public void testSecondSubscriberIsRejected() {
+        ExpressionProcessor processor = processor("x", 4, 4);
+        processor.subscribe(new Collector());
+        Collector second = new Collector();
+        processor.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+    
+    @Test
+    public void testInvalidSizes() {
+        CompiledExpression expression = new ExpressionEngine().compile("x");
+        assertThrows(IllegalArgumentException.class, () -> new ExpressionProcessor(expression, DIRECT, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new ExpressionProcessor(expression, DIRECT, 1, 0));
+    }
+}
@@ -0,0 +1,102 @@
+package general;
+
+/**
+ * Быстрые приближения тригонометрических функций для {@link Precision#FAST}.
+ * <p>
+ * Аргумент приводится к отрезку [-π/4, π/4] вычитанием ближайшего кратного π/2,
+ * где sin и cos с нужной точностью дают отрезки рядов Тейлора девятой и восьмой степени.
+ * Число π/2 разбито на три части, две старшие из которых содержат по 33 значащих бита:
+ * при |x| ≤ {@link #RANGE} их произведения на номер четверти точные,
+ * поэтому приведение не теряет точность даже около нулей функций и полюсов tan.
+ * Оба многочлена вычисляются всегда, а нужный выбирается по номеру четверти
+ * без ветвлений, которые плохо предсказываются на случайных аргументах.
+ * Методы вызываются и интерпретатором, и сгенерированным байткодом.
+ * 
+ * @author Кристина
+ */
+final class FastMath {
+    
+    /** Гарантированная погрешность относительно max(1, |f(x)|). */
+    static final double MAX_ERROR = 1e-7;
+    
+    /** Наибольший по модулю аргумент, для которого используется приближение. */
+    static final double RANGE = 1e5;
+    
+    private static final double TWO_OVER_PI = 0.6366197723675814;
+    private static final double PI_OVER_2_HIGH = 1.57079632673412561417e+00;
+    private static final double PI_OVER_2_MIDDLE = 6.07710050630396597660e-11;
+    private static final double PI_OVER_2_LOW = 2.02226624879595063154e-21;
+    
+    private static final double S3 = -1.0 / 6;
+    private static final double S5 = 1.0 / 120;
+    private static final double S7 = -1.0 / 5040;
+    private static final double S9 = 1.0 / 362880;
+    private static final double C2 = -1.0 / 2;
+    private static final double C4 = 1.0 / 24;
+    private static final double C6 = -1.0 / 720;
+    private static final double C8 = 1.0 / 40320;
+    
+    private FastMath() {
+    }
+    
+    static double sin(double x) {
+        if (!(Math.abs(x) <= RANGE)) {
+            return Math.sin(x);
+        }
+        double k = Math.rint(x * TWO_OVER_PI);
+        double r = reduce(x, k);
+        double s = sinPolynomial(r);
+        double c = cosPolynomial(r);
+        int quarter = (int) k;
+        double value = (quarter & 1) == 0 ? s : c;
+        return (quarter & 2) == 0 ? value : -value;
+    }
+    
+    static double cos(double x) {
+        if (!(Math.abs(x) <= RANGE)) {
+            return Math.cos(x);
+        }
+        double k = Math.rint(x * TWO_OVER_PI);
+        double r = reduce(x, k);
+        double s = sinPolynomial(r);
+        double c = cosPolynomial(r);
+        int quarter = (int) k;
+        double value = (quarter & 1) == 0 ? c : s;
+        return ((quarter + 1) & 2) == 0 ? value : -value;
+    }
+    
+    static double tan(double x) {
+        if (!(Math.abs(x) <= RANGE)) {
+            return Math.tan(x);
+        }
+        double k = Math.rint(x * TWO_OVER_PI);
+        double r = reduce(x, k);
+        double s = sinPolynomial(r);
+        double c = cosPolynomial(r);
+        // Через четверть периода tan(r + π/2) = -cos(r) / sin(r)
+        return ((int) k & 1) == 0 ? s / c : -c / s;
+    }
+    
+    /**
+     * @return x - k · π/2
+     */
+    private static double reduce(double x, double k) {
+        return ((x - k * PI_OVER_2_HIGH) - k * PI_OVER_2_MIDDLE) - k * PI_OVER_2_LOW;
+    }
+    
+    /**
+     * @return sin(r) для |r| ≤ π/4 с относительной погрешностью меньше 3e-9
+     */
+    private static double sinPolynomial(double r) {
+        double r2 = r * r;
+        return r + r * r2 * (S3 + r2 * (S5 + r2 * (S7 + r2 * S9)));
+    }
+    
+    /**
+     * @return cos(r) для |r| ≤ π/4 с относительной погрешностью меньше 4e-8
+     */
+    private static double cosPolynomial(double r) {
+        double r2 = r * r;
+        return 1 + r2 * (C2 + r2 * (C4 + r2 * (C6 + r2 * C8)));
+    }
+}
@@ -0,0 +1,126 @@
+package general;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для быстрых приближений тригонометрических функций
+ */
+public class FastMathTest {
+    
+    private static void assertWithinBound(double expected, double actual, double x, String function) {
+        double error = Math.abs(expected - actual) / Math.max(1, Math.abs(expected));
+        assertTrue(error <= FastMath.MAX_ERROR, function + "(" + x + "): погрешность " + error);
+    }
+    
+    private static void assertAllWithinBound(double x) {
+        assertWithinBound(Math.sin(x), FastMath.sin(x), x, "sin");
+        assertWithinBound(Math.cos(x), FastMath.cos(x), x, "cos");
+        assertWithinBound(Math.tan(x), FastMath.tan(x), x, "tan");
+    }
+    
+    // ========== ТЕСТЫ ПОГРЕШНОСТИ ==========
+    
+    @Test
+    public void testErrorBoundOnRandomArguments() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            assertAllWithinBound((random.nextDouble() * 2 - 1) * 10);
+            assertAllWithinBound((random.nextDouble() * 2 - 1) * FastMath.RANGE);
+        }
+    }
+    
+    @Test
+    public void testErrorBoundNearQuarterPeriods() {
+        // Около нулей sin и cos и полюсов tan приведение аргумента должно быть точным
+        for (int k = -2000; k <= 2000; k++) {
+            double center = k * Math.PI / 2;
+            for (double offset : new double[] {0, 1e-12, -1e-9, 1e-6, Math.PI / 4, -Math.PI / 4}) {
+                assertAllWithinBound(center + offset);
+                assertAllWithinBound(Math.nextUp(center + offset));
+            }
+        }
+    }
+    
+    @Test
+    public void testSmallArguments() {
+        assertEquals(0.0, FastMath.sin(0), 0.0);
+        assertEquals(1.0, FastMath.cos(0), 0.0);
+        assertEquals(0.0, FastMath.tan(0), 0.0);
+        assertEquals(1e-10, FastMath.sin(1e-10), 1e-25);
+    }
+    
+    @Test
+    public void testOutsideRangeFallsBackToMath() {
+        double[] arguments = {1e6, -3e7, 1e300, Double.POSITIVE_INFINITY, Double.NaN};
+        for (double x : arguments) {
+            assertEquals(Math.sin(x), FastMath.sin(x), 0.0);
+            assertEquals(Math.cos(x), FastMath.cos(x), 0.0);
+            assertEquals(Math.tan(x), FastMath.tan(x), 0.0);
+        }
+    }
+    
+    // ========== ТЕСТЫ ВЫРАЖЕНИЙ ==========
+    
+    @Test
+    public void testExpressionPrecision() {
+        CompiledExpression exact = new ExpressionEngine().compile("sin(x) * cos(y) + tan(x / 3) + sqrt(y)");
+        CompiledExpression fast = exact.withPrecision(Precision.FAST);
+        
+        assertEquals(Precision.EXACT, exact.getPrecision());
+        assertEquals(Precision.FAST, fast.getPrecision());
+        assertSame(fast, fast.withPrecision(Precision.FAST));
+        assertEquals(exact.getSimplifiedForm(), fast.getSimplifiedForm());
+        
+        Bindings bindings = new Bindings().set("x", 1.3).set("y", 2.7);
+        double expected = Math.sin(1.3) * Math.cos(2.7) + Math.tan(1.3 / 3) + Math.sqrt(2.7);
+        assertEquals(expected, exact.evaluate(bindings), 0.0);
+        assertEquals(expected, fast.evaluate(bindings), 3e-7);
+        assertEquals(expected, fast.withPrecision(Precision.EXACT).evaluate(bindings), 0.0);
+    }
+    
+    @Test
+    public void testFastExpressionInBytecode() {
+        CompiledExpression fast = new ExpressionEngine().compile("sin(x) + cos(x) * tan(x)")
+                .withPrecision(Precision.FAST);
+        Bindings bindings = new Bindings().set("x", 0.4);
+        double interpreted = fast.evaluate(bindings);
+        fast.promote();
+        assertTrue(fast.isBytecodeCompiled());
+        assertEquals(interpreted, fast.evaluate(bindings), 0.0);
+        assertEquals(FastMath.sin(0.4) + FastMath.cos(0.4) * FastMath.tan(0.4), interpreted, 0.0);
+    }
+    
+    @Test
+    public void testConstantsAreFoldedWithChosenPrecision() {
+        CompiledExpression fast = new ExpressionEngine().compile("sin(1) + x").withPrecision(Precision.FAST);
+        assertEquals(FastMath.sin(1) + 2, fast.evaluate(new Bindings().set("x", 2.0)), 0.0);
+    }
+    
+    @Test
+    public void testRegistryHasNoApproximations() {
+        // Имена приближений совпадают с точными функциями, но разбор всегда дает точные
+        CompiledExpression parsed = new ExpressionEngine().compile("sin(x)");
+        assertEquals(Math.sin(0.7), parsed.evaluate(new Bindings().set("x", 0.7)), 0.0);
+    }
+    
+    @Test
+    public void testRestoredExpressionPrecision() throws Exception {
+        CompiledExpression original = new ExpressionEngine().compile("sin(x * x) / (sin(x * x) + 2)");
+        Path file = Files.createTempFile("calculator", ".expr");
+        CompiledExpression loaded;
+        try {
+            ExpressionArchive.write(file, Collections.singletonList(original));
+            loaded = ExpressionArchive.open(file).get(0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        
+        CompiledExpression fast = loaded.withPrecision(Precision.FAST);
+        Bindings bindings = new Bindings().set("x", 1.1);
+        double s = FastMath.sin(1.1 * 1.1);
+        assertEquals(s / (s + 2), fast.evaluate(bindings), 0.0);
+        assertEquals(original.evaluate(bindings), fast.withPrecision(Precision.EXACT).evaluate(bindings), 0.0);
+    }
+}
@@ -0,0 +1,268 @@
+package general;
+
+import java.util.*;
+
+/**
+ * Набор формул, скомпилированных вместе в одну программу.
+ * <p>
+ * Все формулы разбираются с общей таблицей переменных и оптимизируются вместе,
+ * поэтому одинаковые подвыражения разных формул объединяются: если
+ * {@code sqrt(x * x + y * y)} встречается в трех формулах, оно вычисляется
+ * один раз и его значение используется всеми тремя. Весь набор вычисляется
+ * за один проход одной программы, и результаты возвращаются сразу для всех формул.
+ * <p>
+ * Объект неизменяем, поэтому его можно вычислять из многих потоков одновременно.
+ * 
+ * @author Кристина
+ */
+public final class FormulaSet {
+    private final String[] sources;
+    private final Node[] trees;
+    private final String[] variableNames;
+    private final Simplifier.SetResult simplified;
+    private final Program program;
+    private final int firstResult;
+    private final int slotCount;
+    
+    /** Программы формул по отдельности для поиска ошибок; создаются при первой ошибке. */
+    private volatile Program[] separate;
+    
+    /**
+     * Разбирает и компилирует набор формул.
+     * 
+     * @param sources тексты формул
+     * @param functions реестр функций
+     * @param limits ограничения сложности каждой формулы
+     * @throws IllegalArgumentException если набор пуст или какая-то формула некорректна;
+     *         сообщение об ошибке в формуле содержит ее номер
+     */
+    FormulaSet(List<String> sources, FunctionRegistry functions, ExpressionLimits limits) {
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("Набор формул пуст");
+        }
+        this.sources = sources.toArray(new String[0]);
+        this.trees = new Node[this.sources.length];
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        for (int i = 0; i < trees.length; i++) {
+            try {
+                trees[i] = ExpressionParser.parseTree(this.sources[i], functions, limits, slots);
+            } catch (ExpressionLimitException e) {
+                throw new ExpressionLimitException("Формула " + (i + 1) + ": " + e.getMessage(), e);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Формула " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        this.variableNames = slots.keySet().toArray(new String[0]);
+        
+        this.simplified = Simplifier.simplifyAll(trees, variableNames.length);
+        this.firstResult = simplified.slotCount;
+        this.program = Program.compile(simplified.definitions, simplified.targets, simplified.bodies,
+                firstResult, firstResult + trees.length);
+        this.slotCount = program.stackBase + program.maxStack;
+    }
+    
+    /**
+     * @return число формул в наборе
+     */
+    public int size() {
+        return sources.length;
+    }
+    
+    /**
+     * Возвращает исходный текст формулы.
+     * 
+     * @param index номер формулы
+     * @return текст формулы
+     */
+    public String getSource(int index) {
+        return sources[index];
+    }
+    
+    /**
+     * Возвращает имена переменных всех формул в порядке их первого появления.
+     * 
+     * @return множество имен переменных
+     */
+    public Set<String> getVariableNames() {
+        return new LinkedHashSet<>(Arrays.asList(variableNames));
+    }
+    
+    /**
+     * Возвращает номер ячейки переменной для {@link #evaluate(double[], double[])}.
+     * 
+     * @param name имя переменной
+     * @return номер ячейки или -1 если переменная не встречается в формулах
+     */
+    public int slotOf(String name) {
+        for (int i = 0; i < variableNames.length; i++) {
+            if (variableNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Возвращает число ячеек, необходимое для вычисления набора.
+     * 
+     * @return размер массива ячеек
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+    
+    /**
+     * Создает массив ячеек для {@link #evaluate(double[], double[])}.
+     * 
+     * @return массив ячеек
+     */
+    public double[] newSlots() {
+        return new double[slotCount];
+    }
+    
+    /**
+     * Возвращает оптимизированную форму набора: общие определения t1, t2, ...
+     * и затем формулы через точку с запятой.
+     * 
+     * @return текст оптимизированного набора
+     */
+    public String getSimplifiedForm() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < simplified.definitions.length; i++) {
+            out.append('t').append(i + 1).append(" = ")
+                    .append(NodePrinter.print(simplified.definitions[i])).append("; ");
+        }
+        for (int i = 0; i < simplified.bodies.length; i++) {
+            if (i > 0) {
+                out.append("; ");
+            }
+            out.append(NodePrinter.print(simplified.bodies[i]));
+        }
+        return out.toString();
+    }
+    
+    /**
+     * Возвращает число общих подвыражений, вычисляемых один раз для всего набора.
+     * 
+     * @return число временных значений
+     */
+    public int getSharedCount() {
+        return simplified.definitions.length;
+    }
+    
+    /**
+     * Вычисляет все формулы набора.
+     * 
+     * @param bindings значения переменных
+     * @return результаты формул в порядке их следования
+     * @throws IllegalArgumentException если значение какой-то переменной не задано
+     * @throws ArithmeticException при делении на ноль в любой из формул
+     */
+    public double[] evaluate(Bindings bindings) {
+        double[] results = new double[sources.length];
+        evaluate(bindings, results);
+        return results;
+    }
+    
+    /**
+     * Вычисляет все формулы набора, записывая результаты в готовый массив.
+     * Привязки не меняются; повторные вызовы в том же потоке не выделяют память.
+     * 
+     * @param bindings значения переменных
+     * @param results массив для результатов длиной не меньше {@link #size()}
+     * @throws IllegalArgumentException если значение какой-то переменной не задано
+     * @throws ArithmeticException при делении на ноль в любой из формул
+     */
+    public void evaluate(Bindings bindings, double[] results) {
+        double[] slots = Workspace.acquire(slotCount);
+        try {
+            evaluate(bind(bindings, slots), results);
+        } finally {
+            Workspace.release(slots);
+        }
+    }
+    
+    /**
+     * Вычисляет все формулы набора по значениям переменных в ячейках.
+     * Значения переменных записываются в ячейки с номерами из {@link #slotOf(String)}.
+     * Повторные вызовы с теми же массивами не выделяют память.
+     * 
+     * @param slots массив ячеек из {@link #newSlots()}
+     * @param results массив для результатов длиной не меньше {@link #size()}
+     * @throws ArithmeticException при делении на ноль в любой из формул
+     */
+    public void evaluate(double[] slots, double[] results) {
+        program.evaluate(slots);
+        System.arraycopy(slots, firstResult, results, 0, sources.length);
+    }
+    
+    /**
+     * Вычисляет все формулы набора, сообщая об ошибке каждой формулы отдельно.
+     * Обычно набор вычисляется за один проход, как в {@link #evaluate(Bindings)};
+     * только если при этом возникла ошибка, формулы пересчитываются по одной,
+     * чтобы ошибка одной формулы не помешала получить результаты остальных.
+     * Если не задана какая-то переменная набора, ошибку получают все формулы.
+     * 
+     * @param bindings значения переменных
+     * @return результаты формул в порядке их следования
+     */
+    public List<JobResult> evaluateEach(Bindings bindings) {
+        List<JobResult> results = new ArrayList<>(sources.length);
+        double[] slots;
+        try {
+            slots = bind(bindings, newSlots());
+        } catch (RuntimeException e) {
+            JobResult failure = JobResult.failure(e);
+            for (int i = 0; i < sources.length; i++) {
+                results.add(failure);
+            }
+            return results;
+        }
+        
+        try {
+            program.evaluate(slots);
+            for (int i = 0; i < sources.length; i++) {
+                results.add(JobResult.success(slots[firstResult + i]));
+            }
+            return results;
+        } catch (RuntimeException e) {
+            // Общий проход прервался на первой ошибке; находим, какие формулы ее вызывают
+        }
+        
+        Program[] programs = separatePrograms();
+        for (Program formula : programs) {
+            double[] workspace = Arrays.copyOf(slots, Math.max(slots.length, formula.stackBase + formula.maxStack));
+            try {
+                results.add(JobResult.success(formula.evaluate(workspace)));
+            } catch (RuntimeException e) {
+                results.add(JobResult.failure(e));
+            }
+        }
+        return results;
+    }
+    
+    private double[] bind(Bindings bindings, double[] slots) {
+        for (int i = 0; i < variableNames.length; i++) {
+            slots[i] = bindings.get(variableNames[i]);
+        }
+        return slots;
+    }
+    
+    private Program[] separatePrograms() {
+        Program[] programs = separate;
+        if (programs == null) {
+            programs = new Program[trees.length];
+            for (int i = 0; i < trees.length; i++) {
+                Simplifier.Result result = Simplifier.simplify(trees[i], variableNames.length);
+                programs[i] = Program.compile(result.root, result.slotCount);
+            }
+            separate = programs;
+        }
+        return programs;
+    }
+    
+    @Override
+    public String toString() {
+        return "FormulaSet" + Arrays.toString(sources);
+    }
+}
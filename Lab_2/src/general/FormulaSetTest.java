@@ -0,0 +1,142 @@
+package general;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для наборов формул
+ */
+public class FormulaSetTest {
+    
+    private static final String[] FORMULAS = {
+        "sqrt(x * x + y * y)",
+        "sqrt(x * x + y * y) / (x + 1)",
+        "(x + 1) * 2 - sqrt(x * x + y * y)",
+        "max(x, y) + 0 * z"
+    };
+    
+    // ========== ТЕСТЫ ВЫЧИСЛЕНИЯ ==========
+    
+    @Test
+    public void testSameResultsAsSeparateExpressions() {
+        ExpressionEngine engine = new ExpressionEngine();
+        FormulaSet set = engine.compileSet(FORMULAS);
+        Bindings bindings = new Bindings().set("x", 3.0).set("y", 4.0).set("z", 7.0);
+        
+        double[] results = set.evaluate(bindings);
+        
+        assertEquals(FORMULAS.length, results.length);
+        for (int i = 0; i < FORMULAS.length; i++) {
+            assertEquals(engine.evaluate(FORMULAS[i], bindings), results[i], 0.0, FORMULAS[i]);
+        }
+    }
+    
+    @Test
+    public void testSharedVariableSlots() {
+        FormulaSet set = new ExpressionEngine().compileSet("a + b", "b * c", "c - a");
+        assertEquals(new ArrayList<>(Arrays.asList("a", "b", "c")), new ArrayList<>(set.getVariableNames()));
+        assertEquals(1, set.slotOf("b"));
+        assertEquals(-1, set.slotOf("d"));
+    }
+    
+    @Test
+    public void testSlotEvaluationWithoutBindings() {
+        FormulaSet set = new ExpressionEngine().compileSet("x + y", "x * y");
+        double[] slots = set.newSlots();
+        double[] results = new double[2];
+        
+        for (int i = 1; i <= 3; i++) {
+            slots[set.slotOf("x")] = i;
+            slots[set.slotOf("y")] = 10;
+            set.evaluate(slots, results);
+            assertEquals(i + 10.0, results[0], 0.001);
+            assertEquals(i * 10.0, results[1], 0.001);
+        }
+    }
+    
+    // ========== ТЕСТЫ ОБЩИХ ПОДВЫРАЖЕНИЙ ==========
+    
+    @Test
+    public void testSubexpressionsAreSharedAcrossFormulas() {
+        FormulaSet set = new ExpressionEngine().compileSet(FORMULAS);
+        String form = set.getSimplifiedForm();
+        
+        // Корень и x + 1 встречаются в разных формулах и вычисляются один раз
+        assertEquals(2, set.getSharedCount(), form);
+        assertEquals(1, form.split("sqrt", -1).length - 1, form);
+        assertTrue(form.startsWith("t1 = "), form);
+    }
+    
+    @Test
+    public void testIdenticalFormulasShareEverything() {
+        FormulaSet set = new ExpressionEngine().compileSet("x * y + 1", "x * y + 1");
+        assertEquals(1, set.getSharedCount());
+        assertEquals("t1 = x * y + 1; t1; t1", set.getSimplifiedForm());
+        double[] results = set.evaluate(new Bindings().set("x", 2.0).set("y", 3.0));
+        assertArrayEquals(new double[] {7.0, 7.0}, results, 0.0);
+    }
+    
+    @Test
+    public void testNoSharingForIndependentFormulas() {
+        FormulaSet set = new ExpressionEngine().compileSet("x + 1", "y * 2");
+        assertEquals(0, set.getSharedCount());
+        assertEquals("x + 1; y * 2", set.getSimplifiedForm());
+    }
+    
+    @Test
+    public void testEmptySet() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ExpressionEngine().compileSet(Collections.emptyList()));
+    }
+    
+    // ========== ТЕСТЫ ОШИБОК ==========
+    
+    @Test
+    public void testInvalidFormulaIsNamed() {
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> new ExpressionEngine().compileSet("x + 1", "x +"));
+        assertTrue(exception.getMessage().startsWith("Формула 2"), exception.getMessage());
+    }
+    
+    @Test
+    public void testLimitsApplyToEachFormula() {
+        ExpressionEngine engine = new ExpressionEngine(FunctionRegistry.standard(),
+                new ExpressionLimits(10, 10, 10, 0), null, null);
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> engine.compileSet("1 + 2", "1 + 2 + 3 + 4"));
+        assertTrue(exception.getMessage().contains(ExpressionLimits.LIMIT_EXCEEDED), exception.getMessage());
+    }
+    
+    @Test
+    public void testEvaluateThrowsOnError() {
+        FormulaSet set = new ExpressionEngine().compileSet("x + 1", "1 / x");
+        ArithmeticException exception = assertThrows(ArithmeticException.class,
+                () -> set.evaluate(new Bindings().set("x", 0.0)));
+        assertEquals("Деление на ноль!", exception.getMessage());
+    }
+    
+    @Test
+    public void testEvaluateEachIsolatesErrors() {
+        FormulaSet set = new ExpressionEngine().compileSet("x + 1", "1 / x", "sqrt(x - 1)", "x * 2");
+        List<JobResult> results = set.evaluateEach(new Bindings().set("x", 0.0));
+        
+        assertEquals(4, results.size());
+        assertEquals(1.0, results.get(0).getValue(), 0.001);
+        assertTrue(results.get(1).getError() instanceof ArithmeticException);
+        assertEquals(BuiltinFunction.NEGATIVE_SQRT, results.get(2).getError().getMessage());
+        assertEquals(0.0, results.get(3).getValue(), 0.001);
+        
+        List<JobResult> ok = set.evaluateEach(new Bindings().set("x", 5.0));
+        assertEquals(0.2, ok.get(1).getValue(), 0.001);
+        assertEquals(2.0, ok.get(2).getValue(), 0.001);
+    }
+    
+    @Test
+    public void testMissingVariable() {
+        FormulaSet set = new ExpressionEngine().compileSet("x + 1", "y + 1");
+        assertThrows(IllegalArgumentException.class, () -> set.evaluate(new Bindings().set("x", 1.0)));
+        List<JobResult> results = set.evaluateEach(new Bindings().set("x", 1.0));
+        assertFalse(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+    }
+}
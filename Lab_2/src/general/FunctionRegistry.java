@@ -0,0 +1,138 @@
+package general;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Набор функций, доступных в выражениях. Новый реестр уже содержит
+ * встроенные функции sin, cos, tan, sqrt, log, exp, abs, pow, min и max
+ * (min и max принимают два и больше аргументов); к ним можно добавлять свои.
+ * <p>
+ * Имя функции разрешается в {@link MathFunction} один раз при разборе выражения,
+ * поэтому число зарегистрированных функций не влияет на скорость вычисления.
+ * Встроенные функции компилируются в прямые вызовы методов {@link Math};
+ * выражения с пользовательскими функциями вычисляются интерпретатором.
+ * <p>
+ * Функции можно только добавлять: заменить или удалить функцию нельзя,
+ * поэтому ранее разобранные выражения (в том числе в кэше) остаются верными.
+ * Регистрировать функции нужно до разбора выражений, которые их используют.
+ * Реестр потокобезопасен.
+ * 
+ * @author Кристина
+ */
+public class FunctionRegistry {
+    private static final FunctionRegistry STANDARD = new FunctionRegistry(true);
+    
+    private final Map<String, MathFunction> functions = new ConcurrentHashMap<>();
+    private final boolean readOnly;
+    
+    /**
+     * Создает реестр со встроенными функциями.
+     */
+    public FunctionRegistry() {
+        this(false);
+    }
+    
+    private FunctionRegistry(boolean readOnly) {
+        for (BuiltinFunction builtin : BuiltinFunction.values()) {
+            if (!builtin.isApproximation()) {
+                functions.put(builtin.getName(), MathFunction.of(builtin));
+            }
+        }
+        this.readOnly = readOnly;
+    }
+    
+    /**
+     * Возвращает общий реестр только со встроенными функциями.
+     * Добавлять в него функции нельзя.
+     * 
+     * @return стандартный реестр
+     */
+    public static FunctionRegistry standard() {
+        return STANDARD;
+    }
+    
+    /**
+     * Регистрирует функцию одного аргумента.
+     * 
+     * @param name имя функции (латинские буквы)
+     * @param function реализация
+     * @return этот же реестр
+     * @throws IllegalArgumentException если имя некорректно или уже занято
+     */
+    public FunctionRegistry register(String name, DoubleUnaryOperator function) {
+        return add(MathFunction.create(checkName(name), Objects.requireNonNull(function)));
+    }
+    
+    /**
+     * Регистрирует функцию двух аргументов.
+     * 
+     * @param name имя функции (латинские буквы)
+     * @param function реализация
+     * @return этот же реестр
+     * @throws IllegalArgumentException если имя некорректно или уже занято
+     */
+    public FunctionRegistry register(String name, DoubleBinaryOperator function) {
+        return add(MathFunction.create(checkName(name), Objects.requireNonNull(function)));
+    }
+    
+    /**
+     * Регистрирует функцию с переменным числом аргументов.
+     * 
+     * @param name имя функции (латинские буквы)
+     * @param minArity наименьшее число аргументов
+     * @param maxArity наибольшее число аргументов ({@link Integer#MAX_VALUE} если не ограничено)
+     * @param function реализация
+     * @return этот же реестр
+     * @throws IllegalArgumentException если имя некорректно или уже занято,
+     *         или границы числа аргументов некорректны
+     */
+    public FunctionRegistry register(String name, int minArity, int maxArity, MathFunction.Variadic function) {
+        if (minArity < 0 || maxArity < minArity) {
+            throw new IllegalArgumentException("Некорректное число аргументов функции " + name);
+        }
+        return add(MathFunction.create(checkName(name), minArity, maxArity, Objects.requireNonNull(function)));
+    }
+    
+    /**
+     * Ищет функцию по имени.
+     * 
+     * @param name имя функции
+     * @return функция или null если функции с таким именем нет
+     */
+    public MathFunction get(String name) {
+        return functions.get(name);
+    }
+    
+    /**
+     * @return имена всех функций реестра
+     */
+    public Set<String> getNames() {
+        return new TreeSet<>(functions.keySet());
+    }
+    
+    private FunctionRegistry add(MathFunction function) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("В стандартный реестр нельзя добавлять функции");
+        }
+        if (functions.putIfAbsent(function.getName(), function) != null) {
+            throw new IllegalArgumentException("Функция " + function.getName() + " уже зарегистрирована");
+        }
+        return this;
+    }
+    
+    private static String checkName(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Некорректное имя функции: " + name);
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z')) {
+                throw new IllegalArgumentException("Некорректное имя функции: " + name);
+            }
+        }
+        return name;
+    }
+}
@@ -0,0 +1,143 @@
+package general;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для реестра функций
+ */
+public class FunctionRegistryTest {
+    
+    // ========== ТЕСТЫ ВСТРОЕННЫХ ФУНКЦИЙ ==========
+    
+    @Test
+    public void testNewBuiltinFunctions() {
+        ExpressionEngine engine = new ExpressionEngine();
+        assertEquals(1.0, engine.evaluate("log(exp(1))"), 0.001);
+        assertEquals(5.0, engine.evaluate("abs(2 - 7)"), 0.001);
+        assertEquals(8.0, engine.evaluate("pow(2, 3)"), 0.001);
+        assertEquals(-1.0, engine.evaluate("min(3, -1)"), 0.001);
+        assertEquals(3.0, engine.evaluate("max(3, -1)"), 0.001);
+    }
+    
+    @Test
+    public void testMinMaxWithManyArguments() {
+        ExpressionEngine engine = new ExpressionEngine();
+        Bindings bindings = new Bindings().set("x", 4.0);
+        assertEquals(-2.0, engine.evaluate("min(x, 7, -2, x / 4)", bindings), 0.001);
+        assertEquals(7.0, engine.evaluate("max(x, 7, -2, x / 4)", bindings), 0.001);
+    }
+    
+    @Test
+    public void testWrongArgumentCount() {
+        ExpressionEngine engine = new ExpressionEngine();
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> engine.evaluate("pow(2)"));
+        assertTrue(exception.getMessage().contains("pow"));
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("sin(1, 2)"));
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("min(1)"));
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("sqrt()"));
+    }
+    
+    @Test
+    public void testMisplacedComma() {
+        ExpressionEngine engine = new ExpressionEngine();
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("1, 2"));
+        assertThrows(IllegalArgumentException.class, () -> engine.evaluate("pow(2,)"));
+    }
+    
+    // ========== ТЕСТЫ ПОЛЬЗОВАТЕЛЬСКИХ ФУНКЦИЙ ==========
+    
+    @Test
+    public void testCustomFunctions() {
+        FunctionRegistry functions = new FunctionRegistry()
+                .register("double", x -> 2 * x)
+                .register("hypot", Math::hypot)
+                .register("sum", 0, Integer.MAX_VALUE, (values, offset, count) -> {
+                    double sum = 0;
+                    for (int i = offset; i < offset + count; i++) {
+                        sum += values[i];
+                    }
+                    return sum;
+                });
+        ExpressionEngine engine = new ExpressionEngine(functions, null, null);
+        Bindings bindings = new Bindings().set("x", 3.0);
+        
+        assertEquals(6.0, engine.evaluate("double(x)", bindings), 0.001);
+        assertEquals(5.0, engine.evaluate("hypot(x, 4)", bindings), 0.001);
+        assertEquals(10.0, engine.evaluate("sum(1, 2, x, 4)", bindings), 0.001);
+        assertEquals(0.0, engine.evaluate("sum()"), 0.001);
+        assertEquals(10.0, engine.evaluate("1 + sum(x, double(x))", bindings), 0.001);
+    }
+    
+    @Test
+    public void testCustomFunctionsAreNotVisibleInStandardEngine() {
+        new FunctionRegistry().register("twice", x -> 2 * x);
+        assertThrows(IllegalArgumentException.class, () -> new ExpressionEngine().evaluate("twice(1)"));
+    }
+    
+    @Test
+    public void testCustomFunctionStaysInterpreted() {
+        FunctionRegistry functions = new FunctionRegistry().register("square", x -> x * x);
+        CompiledExpression expression = new ExpressionEngine(functions, null, null).compile("square(x) + sin(x)");
+        expression.promote();
+        assertFalse(expression.isBytecodeCompiled());
+        assertEquals(4.0 + Math.sin(2), expression.evaluate(new double[] {2}), 1e-12);
+    }
+    
+    @Test
+    public void testConstantCallIsFolded() {
+        FunctionRegistry functions = new FunctionRegistry().register("square", x -> x * x);
+        CompiledExpression expression = new ExpressionEngine(functions, null, null).compile("square(3) + pow(x, 2)");
+        assertEquals("9 + pow(x, 2)", expression.getSimplifiedForm());
+    }
+    
+    @Test
+    public void testRepeatedCallIsComputedOnce() {
+        int[] calls = new int[1];
+        FunctionRegistry functions = new FunctionRegistry().register("counted", x -> {
+            calls[0]++;
+            return x + 1;
+        });
+        CompiledExpression expression = new ExpressionEngine(functions, null, null)
+                .compile("counted(x) * counted(x)");
+        assertEquals(16.0, expression.evaluate(new double[] {3}), 0.001);
+        assertEquals(1, calls[0]);
+    }
+    
+    // ========== ТЕСТЫ РЕГИСТРАЦИИ ==========
+    
+    @Test
+    public void testDuplicateRegistration() {
+        FunctionRegistry functions = new FunctionRegistry().register("f", x -> x);
+        assertThrows(IllegalArgumentException.class, () -> functions.register("f", x -> -x));
+        assertThrows(IllegalArgumentException.class, () -> functions.register("sin", x -> x));
+    }
+    
+    @Test
+    public void testInvalidName() {
+        FunctionRegistry functions = new FunctionRegistry();
+        assertThrows(IllegalArgumentException.class, () -> functions.register("log10", x -> x));
+        assertThrows(IllegalArgumentException.class, () -> functions.register("", x -> x));
+    }
+    
+    @Test
+    public void testStandardRegistryIsReadOnly() {
+        assertThrows(UnsupportedOperationException.class,
+                () -> FunctionRegistry.standard().register("f", x -> x));
+        assertTrue(FunctionRegistry.standard().getNames().contains("pow"));
+    }
+    
+    // ========== ТЕСТЫ ТРАССИРОВКИ ==========
+    
+    @Test
+    public void testTraceOfMultiArgumentCall() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(output, true, StandardCharsets.UTF_8);
+        SimpleCalculator calculator = new SimpleCalculator();
+        calculator.setTraceListener(new ConsoleTraceListener(out));
+        assertEquals(9.0, calculator.calculate("pow(3, 2)"), 0.001);
+        assertTrue(output.toString(StandardCharsets.UTF_8).contains("Функция: pow(3.0, 2.0) = 9.0"));
+    }
+}
@@ -0,0 +1,66 @@
+package general;
+
+import java.util.*;
+
+/**
+ * Значение выражения вместе с частными производными по всем его переменным.
+ * 
+ * @author Кристина
+ */
+public final class Gradient {
+    private final double value;
+    private final String[] variableNames;
+    private final double[] derivatives;
+    
+    Gradient(double value, String[] variableNames, double[] derivatives) {
+        this.value = value;
+        this.variableNames = variableNames;
+        this.derivatives = derivatives;
+    }
+    
+    /**
+     * @return значение выражения
+     */
+    public double getValue() {
+        return value;
+    }
+    
+    /**
+     * Возвращает частную производную по переменной.
+     * 
+     * @param name имя переменной
+     * @return производная; 0 для переменной, которой нет в выражении
+     */
+    public double getDerivative(String name) {
+        for (int i = 0; i < variableNames.length; i++) {
+            if (variableNames[i].equals(name)) {
+                return derivatives[i];
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * @return производные по номерам ячеек переменных (копия)
+     */
+    public double[] getDerivatives() {
+        return derivatives.clone();
+    }
+    
+    /**
+     * @return имена переменных в порядке номеров ячеек
+     */
+    public List<String> getVariableNames() {
+        return Collections.unmodifiableList(Arrays.asList(variableNames));
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(String.valueOf(value));
+        for (int i = 0; i < variableNames.length; i++) {
+            out.append(i == 0 ? " [" : ", ").append("d/d").append(variableNames[i])
+                    .append(" = ").append(derivatives[i]);
+        }
+        return variableNames.length == 0 ? out.toString() : out.append(']').toString();
+    }
+}
@@ -0,0 +1,117 @@
+package general;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для вычисления производных
+ */
+public class GradientTest {
+    private static final double STEP = 1e-6;
+    
+    /**
+     * Сравнивает производные с центральными конечными разностями.
+     */
+    private static void assertMatchesDifferences(String source, double... values) {
+        CompiledExpression expression = new ExpressionEngine().compile(source);
+        double[] gradient = new double[values.length];
+        double value = expression.evaluateGradient(values, gradient);
+        assertEquals(expression.evaluate(values.clone()), value, 1e-12, source);
+        for (int i = 0; i < values.length; i++) {
+            double[] plus = values.clone();
+            double[] minus = values.clone();
+            plus[i] += STEP;
+            minus[i] -= STEP;
+            double expected = (expression.evaluate(plus) - expression.evaluate(minus)) / (2 * STEP);
+            assertEquals(expected, gradient[i], 1e-5 * Math.max(1, Math.abs(expected)), source + ", переменная " + i);
+        }
+    }
+    
+    // ========== ТЕСТЫ ПРОИЗВОДНЫХ ==========
+    
+    @Test
+    public void testArithmetic() {
+        Gradient gradient = new ExpressionEngine().compile("x * y - x / y + 3 * x - -y")
+                .evaluateGradient(new Bindings().set("x", 2).set("y", 4));
+        assertEquals(8 - 0.5 + 6 + 4, gradient.getValue(), 1e-12);
+        // d/dx = y - 1/y + 3, d/dy = x + x/y^2 + 1
+        assertEquals(4 - 0.25 + 3, gradient.getDerivative("x"), 1e-12);
+        assertEquals(2 + 2.0 / 16 + 1, gradient.getDerivative("y"), 1e-12);
+        assertEquals(Arrays.asList("x", "y"), gradient.getVariableNames());
+    }
+    
+    @Test
+    public void testFunctions() {
+        Gradient gradient = new ExpressionEngine().compile("sin(x) * cos(y) + sqrt(x) + tan(y)")
+                .evaluateGradient(new Bindings().set("x", 0.7).set("y", 0.3));
+        assertEquals(Math.cos(0.7) * Math.cos(0.3) + 0.5 / Math.sqrt(0.7), gradient.getDerivative("x"), 1e-12);
+        double secant = 1 / Math.cos(0.3);
+        assertEquals(-Math.sin(0.7) * Math.sin(0.3) + secant * secant, gradient.getDerivative("y"), 1e-12);
+    }
+    
+    @Test
+    public void testAgainstFiniteDifferences() {
+        assertMatchesDifferences("log(x) * exp(y / x) - pow(x, y)", 1.5, 0.8);
+        assertMatchesDifferences("pow(x, 3) + pow(2, y) + abs(x - y)", 1.2, -0.4);
+        assertMatchesDifferences("max(x, y) * min(x * y, 1)", 0.6, 0.9);
+        assertMatchesDifferences("sqrt(x * x + y * y + z * z) / (1 + sin(x * y * z))", 0.3, -1.1, 2.0);
+    }
+    
+    @Test
+    public void testSharedSubexpressions() {
+        // Общее подвыражение x * y вычисляется один раз вместе со своими производными
+        CompiledExpression expression = new ExpressionEngine().compile("sin(x * y) + cos(x * y) * (x * y)");
+        assertTrue(expression.getSimplifiedForm().contains("t1"), expression.getSimplifiedForm());
+        assertMatchesDifferences("sin(x * y) + cos(x * y) * (x * y)", 0.4, 1.7);
+    }
+    
+    @Test
+    public void testPowerOfNegativeBase() {
+        // Показатель постоянный, поэтому логарифм отрицательного основания не нужен
+        Gradient gradient = new ExpressionEngine().compile("pow(x, 3)").evaluateGradient(new Bindings().set("x", -2));
+        assertEquals(-8, gradient.getValue(), 0.0);
+        assertEquals(12, gradient.getDerivative("x"), 1e-12);
+    }
+    
+    @Test
+    public void testFastPrecision() {
+        CompiledExpression expression = new ExpressionEngine().compile("sin(x) + cos(x)").withPrecision(Precision.FAST);
+        Gradient gradient = expression.evaluateGradient(new Bindings().set("x", 1.0));
+        assertEquals(Math.sin(1.0) + Math.cos(1.0), gradient.getValue(), FastMath.MAX_ERROR * 2);
+        assertEquals(Math.cos(1.0) - Math.sin(1.0), gradient.getDerivative("x"), 1e-12);
+    }
+    
+    @Test
+    public void testConstantsAndUnknownVariables() {
+        Gradient gradient = new ExpressionEngine().compile("x * 0 + 5").evaluateGradient(new Bindings().set("x", 3));
+        assertEquals(5, gradient.getValue(), 0.0);
+        assertEquals(0, gradient.getDerivative("x"), 0.0);
+        assertEquals(0, gradient.getDerivative("y"), 0.0);
+        
+        Gradient constant = new ExpressionEngine().compile("2 + 3").evaluateGradient(new Bindings());
+        assertEquals(5, constant.getValue(), 0.0);
+        assertEquals(0, constant.getDerivatives().length);
+    }
+    
+    // ========== ТЕСТЫ ОШИБОК ==========
+    
+    @Test
+    public void testErrors() {
+        CompiledExpression expression = new ExpressionEngine().compile("1 / (x - 2)");
+        ArithmeticException exception = assertThrows(ArithmeticException.class,
+                () -> expression.evaluateGradient(new Bindings().set("x", 2)));
+        assertEquals("Деление на ноль!", exception.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> expression.evaluateGradient(new Bindings()));
+        assertThrows(IllegalArgumentException.class, () -> expression.evaluateGradient(new double[0], new double[1]));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ExpressionEngine().compile("sqrt(x)").evaluateGradient(new Bindings().set("x", -1)));
+    }
+    
+    @Test
+    public void testCustomFunctionIsRejected() {
+        FunctionRegistry functions = new FunctionRegistry().register("double", x -> 2 * x);
+        CompiledExpression expression = new ExpressionEngine(functions, null, null).compile("double(x) + 1");
+        assertEquals(7.0, expression.evaluate(new Bindings().set("x", 3)), 0.0);
+        assertThrows(IllegalStateException.class, () -> expression.evaluateGradient(new Bindings().set("x", 3)));
+    }
+}
@@ -0,0 +1,168 @@
+package general;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Потокобезопасная гистограмма неотрицательных целых значений
+ * (времени в наносекундах, размеров выражений).
+ * <p>
+ * Как в HdrHistogram, значения раскладываются по логарифмически-линейным
+ * корзинам: каждая степень двойки делится на 8 равных частей, поэтому
+ * относительная погрешность процентилей не превышает 12,5%, а число корзин
+ * фиксировано и не зависит от диапазона. Счетчики корзин - {@link LongAdder},
+ * так что запись из многих потоков не создает конкуренции за одну ячейку.
+ * 
+ * @author Кристина
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Значения меньше этого хранятся каждое в своей корзине. */
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+    
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    
+    /**
+     * Создает пустую гистограмму.
+     */
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+    
+    /**
+     * Записывает значение. Отрицательные значения считаются нулем.
+     * 
+     * @param value значение
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[indexOf(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+    
+    /**
+     * Сбрасывает все накопленные значения.
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        sum.reset();
+        max.reset();
+    }
+    
+    /**
+     * Снимает копию текущего состояния гистограммы.
+     * Записи, идущие параллельно со снятием, могут попасть в копию частично.
+     * 
+     * @return неизменяемая копия
+     */
+    public Snapshot snapshot() {
+        // Общее число - сумма корзин, поэтому оно согласовано с процентилями
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        return new Snapshot(counts, total, sum.sum(), max.get());
+    }
+    
+    static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+    
+    static long lowerBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+    
+    static long upperBound(int index) {
+        return index + 1 < BUCKET_COUNT ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+    
+    /**
+     * Неизменяемая копия гистограммы на момент снятия.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+        
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+        
+        /**
+         * @return число записанных значений
+         */
+        public long getCount() {
+            return count;
+        }
+        
+        /**
+         * @return среднее значение или 0 если значений нет
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+        
+        /**
+         * @return наибольшее записанное значение
+         */
+        public long getMax() {
+            return max;
+        }
+        
+        /**
+         * Возвращает значение, которое не превышает заданная доля записей.
+         * Результат - верхняя граница корзины, но не больше максимума.
+         * 
+         * @param percentile процентиль от 0 до 100
+         * @return значение процентиля или 0 если значений нет
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("n=%d, среднее=%.1f, p50=%d, p90=%d, p99=%d, макс=%d",
+                    count, getMean(), getValueAtPercentile(50), getValueAtPercentile(90),
+                    getValueAtPercentile(99), max);
+        }
+    }
+}
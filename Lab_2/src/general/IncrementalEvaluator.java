@@ -0,0 +1,316 @@
+package general;
+
+import java.util.*;
+
+/**
+ * Вычислитель с запоминанием промежуточных результатов для случая,
+ * когда между вычислениями меняются лишь некоторые переменные.
+ * <p>
+ * Оптимизированное дерево выражения раскладывается в массив узлов
+ * в топологическом порядке (операнды раньше операций). Для каждой переменной
+ * заранее известен список зависящих от нее узлов; при изменении переменной
+ * помечаются только они, и при следующем вычислении пересчитываются только
+ * помеченные узлы, а остальные берут сохраненные значения.
+ * <p>
+ * Объект не потокобезопасен: у каждого потока должен быть свой вычислитель.
+ * 
+ * @author Кристина
+ */
+public class IncrementalEvaluator {
+    private static final byte CONSTANT = 0;
+    private static final byte VARIABLE = 1;
+    private static final byte NEGATE = 2;
+    private static final byte ADD = 3;
+    private static final byte SUBTRACT = 4;
+    private static final byte MULTIPLY = 5;
+    private static final byte DIVIDE = 6;
+    private static final byte CALL = 7;
+    
+    private final CompiledExpression expression;
+    private final byte[] kinds;
+    private final int[] left;
+    private final int[] right;
+    private final MathFunction[] functions;
+    private final int[][] arguments;
+    private final double[] scratch;
+    private final double[] values;
+    private final boolean[] dirty;
+    private final int[][] dependents;
+    private final double[] inputs;
+    private final int rootIndex;
+    private final boolean[] assigned;
+    private int unassigned;
+    private int firstDirty;
+    private int recomputed;
+    
+    /**
+     * Создает вычислитель для выражения. Изначально значения переменных не заданы.
+     * 
+     * @param expression скомпилированное выражение
+     */
+    public IncrementalEvaluator(CompiledExpression expression) {
+        this.expression = expression;
+        int variableCount = expression.getVariableCount();
+        
+        Flattener flattener = new Flattener();
+        flattener.flatten(expression.getOptimizedTree());
+        int size = flattener.nodes.size();
+        rootIndex = flattener.rootIndex;
+        kinds = new byte[size];
+        left = new int[size];
+        right = new int[size];
+        functions = new MathFunction[size];
+        arguments = new int[size][];
+        int maxArguments = 0;
+        values = new double[size];
+        dirty = new boolean[size];
+        
+        List<BitSet> uses = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Node node = flattener.nodes.get(i);
+            BitSet variables = new BitSet(variableCount);
+            if (node instanceof Node.Constant) {
+                kinds[i] = CONSTANT;
+                values[i] = ((Node.Constant) node).value;
+            } else if (node instanceof Node.Variable) {
+                kinds[i] = VARIABLE;
+                left[i] = ((Node.Variable) node).slot;
+                variables.set(left[i]);
+            } else if (node instanceof Node.Negate) {
+                kinds[i] = NEGATE;
+                left[i] = flattener.indexOf(((Node.Negate) node).operand);
+            } else if (node instanceof Node.Call) {
+                kinds[i] = CALL;
+                Node.Call call = (Node.Call) node;
+                functions[i] = call.function;
+                arguments[i] = new int[call.arguments.length];
+                for (int k = 0; k < arguments[i].length; k++) {
+                    arguments[i][k] = flattener.indexOf(call.arguments[k]);
+                    variables.or(uses.get(arguments[i][k]));
+                }
+                maxArguments = Math.max(maxArguments, arguments[i].length);
+            } else {
+                Node.Binary binary = (Node.Binary) node;
+                kinds[i] = kindOf(binary.operator());
+                left[i] = flattener.indexOf(binary.left);
+                right[i] = flattener.indexOf(binary.right);
+            }
+            if (kinds[i] >= NEGATE && kinds[i] <= DIVIDE) {
+                variables.or(uses.get(left[i]));
+            }
+            if (kinds[i] >= ADD && kinds[i] <= DIVIDE) {
+                variables.or(uses.get(right[i]));
+            }
+            uses.add(variables);
+            dirty[i] = kinds[i] != CONSTANT;
+        }
+        scratch = new double[maxArguments];
+        
+        dependents = new int[variableCount][];
+        for (int variable = 0; variable < variableCount; variable++) {
+            int count = 0;
+            int[] list = new int[size];
+            for (int i = 0; i < size; i++) {
+                if (uses.get(i).get(variable)) {
+                    list[count++] = i;
+                }
+            }
+            dependents[variable] = Arrays.copyOf(list, count);
+        }
+        
+        inputs = new double[variableCount];
+        assigned = new boolean[variableCount];
+        unassigned = variableCount;
+        firstDirty = 0;
+    }
+    
+    /**
+     * Устанавливает значение переменной по имени.
+     * 
+     * @param name имя переменной
+     * @param value значение
+     * @throws IllegalArgumentException если в выражении нет такой переменной
+     */
+    public void setVariable(String name, double value) {
+        int slot = expression.slotOf(name);
+        if (slot < 0) {
+            throw new IllegalArgumentException("В выражении нет переменной " + name);
+        }
+        setVariable(slot, value);
+    }
+    
+    /**
+     * Устанавливает значение переменной по номеру ячейки.
+     * Если значение не изменилось, пересчет не потребуется.
+     * 
+     * @param slot номер ячейки переменной (см. {@link CompiledExpression#slotOf(String)})
+     * @param value значение
+     */
+    public void setVariable(int slot, double value) {
+        if (assigned[slot] && Double.doubleToRawLongBits(inputs[slot]) == Double.doubleToRawLongBits(value)) {
+            return;
+        }
+        if (!assigned[slot]) {
+            assigned[slot] = true;
+            unassigned--;
+        }
+        inputs[slot] = value;
+        int[] nodes = dependents[slot];
+        for (int node : nodes) {
+            dirty[node] = true;
+        }
+        if (nodes.length > 0 && nodes[0] < firstDirty) {
+            firstDirty = nodes[0];
+        }
+    }
+    
+    /**
+     * Вычисляет выражение, пересчитывая только узлы, зависящие от измененных переменных.
+     * Если при пересчете возникла ошибка, непересчитанные узлы остаются
+     * помеченными и будут пересчитаны при следующем вызове.
+     * 
+     * @return результат вычисления
+     * @throws IllegalArgumentException если значение какой-то переменной не задано
+     * @throws ArithmeticException при делении на ноль
+     */
+    public double evaluate() {
+        if (unassigned > 0) {
+            for (int i = 0; i < assigned.length; i++) {
+                if (!assigned[i]) {
+                    throw new MissingVariableException(expression.getVariableName(i));
+                }
+            }
+        }
+        
+        recomputed = 0;
+        for (int i = firstDirty; i < kinds.length; i++) {
+            if (!dirty[i]) {
+                continue;
+            }
+            firstDirty = i;
+            values[i] = compute(i);
+            dirty[i] = false;
+            recomputed++;
+        }
+        firstDirty = kinds.length;
+        return values[rootIndex];
+    }
+    
+    /**
+     * @return число узлов, пересчитанных при последнем вычислении
+     */
+    public int getRecomputedCount() {
+        return recomputed;
+    }
+    
+    /**
+     * @return общее число узлов в выражении
+     */
+    public int getNodeCount() {
+        return kinds.length;
+    }
+    
+    private double compute(int i) {
+        switch (kinds[i]) {
+            case VARIABLE: return inputs[left[i]];
+            case NEGATE: return -values[left[i]];
+            case ADD: return values[left[i]] + values[right[i]];
+            case SUBTRACT: return values[left[i]] - values[right[i]];
+            case MULTIPLY: return values[left[i]] * values[right[i]];
+            case DIVIDE: return Node.divide(values[left[i]], values[right[i]]);
+            case CALL: {
+                int[] indexes = arguments[i];
+                for (int k = 0; k < indexes.length; k++) {
+                    scratch[k] = values[indexes[k]];
+                }
+                return functions[i].apply(scratch, 0, indexes.length);
+            }
+            default: return values[i];
+        }
+    }
+    
+    private static byte kindOf(char operator) {
+        switch (operator) {
+            case '+': return ADD;
+            case '-': return SUBTRACT;
+            case '*': return MULTIPLY;
+            default: return DIVIDE;
+        }
+    }
+    
+    /**
+     * Раскладывает дерево в список узлов в топологическом порядке без рекурсии.
+     * Ссылки на вынесенные подвыражения заменяются самими определениями,
+     * поэтому общий узел вычисляется и хранится один раз.
+     */
+    private static final class Flattener {
+        final List<Node> nodes = new ArrayList<>();
+        int rootIndex;
+        private final Map<Node, Integer> indexes = new IdentityHashMap<>();
+        private final Map<Integer, Node> definitions = new HashMap<>();
+        
+        void flatten(Node root) {
+            if (root instanceof Node.Block) {
+                Node.Block block = (Node.Block) root;
+                for (int i = 0; i < block.definitions.length; i++) {
+                    definitions.put(block.targets[i], block.definitions[i]);
+                    visit(block.definitions[i]);
+                }
+                root = block.body;
+            }
+            visit(resolve(root));
+            rootIndex = indexOf(root);
+        }
+        
+        int indexOf(Node node) {
+            return indexes.get(resolve(node));
+        }
+        
+        private Node resolve(Node node) {
+            if (node instanceof Node.Temporary) {
+                return definitions.get(((Node.Temporary) node).slot);
+            }
+            return node;
+        }
+        
+        private void visit(Node root) {
+            Deque<Node> pending = new ArrayDeque<>();
+            Deque<Boolean> expanded = new ArrayDeque<>();
+            pending.push(root);
+            expanded.push(false);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                boolean ready = expanded.pop();
+                if (indexes.containsKey(node)) {
+                    continue;
+                }
+                if (ready) {
+                    indexes.put(node, nodes.size());
+                    nodes.add(node);
+                    continue;
+                }
+                pending.push(node);
+                expanded.push(true);
+                for (Node child : children(node)) {
+                    pending.push(resolve(child));
+                    expanded.push(false);
+                }
+            }
+        }
+        
+        private static List<Node> children(Node node) {
+            if (node instanceof Node.Binary) {
+                return Arrays.asList(((Node.Binary) node).right, ((Node.Binary) node).left);
+            }
+            if (node instanceof Node.Negate) {
+                return Collections.singletonList(((Node.Negate) node).operand);
+            }
+            if (node instanceof Node.Call) {
+                List<Node> arguments = new ArrayList<>(Arrays.asList(((Node.Call) node).arguments));
+                Collections.reverse(arguments);
+                return arguments;
+            }
+            return Collections.emptyList();
+        }
+    }
+}
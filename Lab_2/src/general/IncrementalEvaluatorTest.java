@@ -0,0 +1,119 @@
+package general;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для инкрементального вычислителя
+ */
+public class IncrementalEvaluatorTest {
+    
+    // ========== ТЕСТЫ ВЫЧИСЛЕНИЯ ==========
+    
+    @Test
+    public void testMatchesFullEvaluation() {
+        CompiledExpression expression = ExpressionParser.parse("sin(a) * (b + c) - sqrt(d) / (b + c)");
+        IncrementalEvaluator evaluator = expression.incremental();
+        Map<String, Double> variables = new HashMap<>();
+        Random random = new Random(7);
+        for (String name : expression.getVariableNames()) {
+            double value = 1 + random.nextDouble();
+            variables.put(name, value);
+            evaluator.setVariable(name, value);
+        }
+        assertEquals(expression.evaluate(variables), evaluator.evaluate(), 1e-12);
+        
+        for (int step = 0; step < 100; step++) {
+            String name = "abcd".substring(step % 4, step % 4 + 1);
+            double value = 1 + random.nextDouble();
+            variables.put(name, value);
+            evaluator.setVariable(name, value);
+            assertEquals(expression.evaluate(variables), evaluator.evaluate(), 1e-12);
+        }
+    }
+    
+    @Test
+    public void testConstantExpression() {
+        IncrementalEvaluator evaluator = ExpressionParser.parse("2 + 3 * 4").incremental();
+        assertEquals(14.0, evaluator.evaluate(), 0.001);
+    }
+    
+    @Test
+    public void testSlotAccess() {
+        CompiledExpression expression = ExpressionParser.parse("x - y");
+        IncrementalEvaluator evaluator = expression.incremental();
+        evaluator.setVariable(expression.slotOf("x"), 10);
+        evaluator.setVariable(expression.slotOf("y"), 4);
+        assertEquals(6.0, evaluator.evaluate(), 0.001);
+    }
+    
+    // ========== ТЕСТЫ ВЫБОРОЧНОГО ПЕРЕСЧЕТА ==========
+    
+    @Test
+    public void testOnlyDependentNodesAreRecomputed() {
+        IncrementalEvaluator evaluator = ExpressionParser.parse("sin(a) * cos(a) + b").incremental();
+        evaluator.setVariable("a", 1);
+        evaluator.setVariable("b", 2);
+        evaluator.evaluate();
+        assertEquals(evaluator.getNodeCount(), evaluator.getRecomputedCount());
+        
+        // Меняется только b: пересчитываются сама переменная и сумма
+        evaluator.setVariable("b", 5);
+        assertEquals(Math.sin(1) * Math.cos(1) + 5, evaluator.evaluate(), 1e-12);
+        assertEquals(2, evaluator.getRecomputedCount());
+    }
+    
+    @Test
+    public void testUnchangedValueSkipsRecomputation() {
+        IncrementalEvaluator evaluator = ExpressionParser.parse("a * b").incremental();
+        evaluator.setVariable("a", 3);
+        evaluator.setVariable("b", 4);
+        evaluator.evaluate();
+        evaluator.setVariable("a", 3);
+        assertEquals(12.0, evaluator.evaluate(), 0.001);
+        assertEquals(0, evaluator.getRecomputedCount());
+    }
+    
+    @Test
+    public void testCommonSubexpressionIsSharedBetweenUses() {
+        CompiledExpression expression = ExpressionParser.parse("(x + y) * (x + y) + z");
+        IncrementalEvaluator evaluator = expression.incremental();
+        evaluator.setVariable("x", 1);
+        evaluator.setVariable("y", 2);
+        evaluator.setVariable("z", 3);
+        assertEquals(12.0, evaluator.evaluate(), 0.001);
+        
+        evaluator.setVariable("x", 2);
+        assertEquals(19.0, evaluator.evaluate(), 0.001);
+        // x, x + y, произведение и итоговая сумма
+        assertEquals(4, evaluator.getRecomputedCount());
+    }
+    
+    // ========== ТЕСТЫ ОШИБОК ==========
+    
+    @Test
+    public void testMissingVariable() {
+        IncrementalEvaluator evaluator = ExpressionParser.parse("x + y").incremental();
+        evaluator.setVariable("x", 1);
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, evaluator::evaluate);
+        assertTrue(exception.getMessage().contains("y"));
+    }
+    
+    @Test
+    public void testUnknownVariable() {
+        IncrementalEvaluator evaluator = ExpressionParser.parse("x + 1").incremental();
+        assertThrows(IllegalArgumentException.class, () -> evaluator.setVariable("y", 1));
+    }
+    
+    @Test
+    public void testRecoversAfterDivisionByZero() {
+        IncrementalEvaluator evaluator = ExpressionParser.parse("a / b + c").incremental();
+        evaluator.setVariable("a", 6);
+        evaluator.setVariable("b", 0);
+        evaluator.setVariable("c", 1);
+        assertThrows(ArithmeticException.class, evaluator::evaluate);
+        
+        evaluator.setVariable("b", 3);
+        assertEquals(3.0, evaluator.evaluate(), 0.001);
+    }
+}
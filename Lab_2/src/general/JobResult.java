@@ -0,0 +1,58 @@
+package general;
+
+/**
+ * Результат одного задания пакетного вычисления: либо число, либо ошибка.
+ * 
+ * @author Кристина
+ */
+public final class JobResult {
+    private final double value;
+    private final RuntimeException error;
+    
+    private JobResult(double value, RuntimeException error) {
+        this.value = value;
+        this.error = error;
+    }
+    
+    static JobResult success(double value) {
+        return new JobResult(value, null);
+    }
+    
+    static JobResult failure(RuntimeException error) {
+        return new JobResult(Double.NaN, error);
+    }
+    
+    /**
+     * @return true если выражение вычислено без ошибок
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+    
+    /**
+     * Возвращает результат вычисления.
+     * 
+     * @return результат вычисления
+     * @throws RuntimeException исходная ошибка задания, если вычисление не удалось
+     */
+    public double getValue() {
+        if (error != null) {
+            throw error;
+        }
+        return value;
+    }
+    
+    /**
+     * Возвращает ошибку задания.
+     * 
+     * @return ошибка (например ArithmeticException при делении на ноль) или null
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+    
+    @Override
+    public String toString() {
+        return error == null ? String.valueOf(value) : "ОШИБКА: " + error.getMessage();
+    }
+}
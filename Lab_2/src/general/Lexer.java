@@ -0,0 +1,99 @@
+package general;
+
+/**
+ * Лексический анализатор выражений.
+ * За один проход по строке выделяет числа, имена, операторы, скобки и запятые.
+ * Результат используется всеми последующими этапами, поэтому строка
+ * больше ни разу не сканируется.
+ * 
+ * @author Кристина
+ */
+final class Lexer {
+    
+    private Lexer() {
+    }
+    
+    /**
+     * Разбивает выражение на лексемы.
+     * 
+     * @param expression математическое выражение
+     * @return список лексем, последняя лексема всегда END
+     * @throws IllegalArgumentException при недопустимом символе или некорректном числе
+     */
+    static TokenList tokenize(String expression) {
+        int length = expression.length();
+        // Лексем не больше, чем символов, плюс завершающая END
+        byte[] types = new byte[length + 1];
+        double[] numbers = new double[length + 1];
+        String[] names = new String[length + 1];
+        int[] positions = new int[length + 1];
+        int count = 0;
+        
+        int i = 0;
+        while (i < length) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            
+            positions[count] = i;
+            if (isDigit(c) || c == '.') {
+                int start = i;
+                while (i < length && (isDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
+                    i++;
+                }
+                types[count] = TokenList.NUMBER;
+                numbers[count] = parseNumber(expression, start, i);
+            } else if (isLetter(c)) {
+                int start = i;
+                while (i < length && isLetter(expression.charAt(i))) {
+                    i++;
+                }
+                types[count] = TokenList.NAME;
+                names[count] = expression.substring(start, i).intern();
+            } else {
+                types[count] = operatorType(c, i);
+                i++;
+            }
+            count++;
+        }
+        
+        types[count] = TokenList.END;
+        positions[count] = length;
+        count++;
+        return new TokenList(types, numbers, names, positions, count);
+    }
+    
+    private static byte operatorType(char c, int position) {
+        switch (c) {
+            case '+': return TokenList.PLUS;
+            case '-': return TokenList.MINUS;
+            case '*': return TokenList.STAR;
+            case '/': return TokenList.SLASH;
+            case '(': return TokenList.LEFT_BRACKET;
+            case ')': return TokenList.RIGHT_BRACKET;
+            case ',': return TokenList.COMMA;
+            default:
+                throw new IllegalArgumentException(
+                        "Выражение записано некорректно: недопустимый символ '" + c + "' в позиции " + (position + 1));
+        }
+    }
+    
+    private static double parseNumber(String expression, int start, int end) {
+        try {
+            return Double.parseDouble(expression.substring(start, end));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "Некорректное число " + expression.substring(start, end) + " в позиции " + (start + 1));
+        }
+    }
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -1,47 +1,111 @@
-package general;
-import java.util.*;
-/**
- * Главный класс программы для тестирования калькулятора выражений.
- * Предоставляет интерфейс командной строки для ввода выражений.
- * 
- * @author Кристина
- * @version 1.0
- */
-public class Main {
-    public static void main(String[] args) {
-        SimpleCalculator calculator = new SimpleCalculator();
-        Scanner scanner = new Scanner(System.in);
-        
-        System.out.println("=== Калькулятор выражений ===");
-        
-        
-        while (true) {
-            System.out.print("\nВведите выражение (или 'выход'): ");
-            String expression = scanner.nextLine();
-            
-            if (expression.equalsIgnoreCase("выход")) {
-                break;
-            }
-            
-            try {
-                // Ищем переменные в выражении
-                calculator.findVariables(expression);
-                
-                // Если есть переменные - запрашиваем их значения
-                if (calculator.hasVariables()) {
-                    calculator.askForVariables(scanner);
-                }
-                
-                // Вычисляем результат
-                double result = calculator.calculate(expression);
-                System.out.println(">>> Результат: " + result);
-                
-            } catch (Exception e) {
-                System.out.println("ОШИБКА: " + e.getMessage());
-            }
-        }
-        
-        System.out.println("Программа завершена. До свидания!");
-        scanner.close();
-    }
-}
\ No newline at end of file
+package general;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.*;
+/**
+ * Главный класс программы для тестирования калькулятора выражений.
+ * Предоставляет интерфейс командной строки для ввода выражений.
+ * 
+ * @author Кристина
+ * @version 1.0
+ */
+public class Main {
+    public static void main(String[] args) {
+        // Пакетный режим: --csv <выражение> <входной.csv> <выходной файл>
+        if (args.length > 0 && args[0].equals("--csv")) {
+            runCsv(args);
+            return;
+        }
+        // Режим сервера: --server <порт>
+        if (args.length > 0 && args[0].equals("--server")) {
+            runServer(args);
+            return;
+        }
+        
+        SimpleCalculator calculator = new SimpleCalculator();
+        Scanner scanner = new Scanner(System.in);
+        
+        // Пошаговый вывод вычислений включается флагом --trace
+        if (Arrays.asList(args).contains("--trace")) {
+            calculator.setTraceListener(new ConsoleTraceListener());
+        }
+        
+        System.out.println("=== Калькулятор выражений ===");
+        
+        
+        while (true) {
+            System.out.print("\nВведите выражение (или 'выход'): ");
+            String expression = scanner.nextLine();
+            
+            if (expression.equalsIgnoreCase("выход")) {
+                break;
+            }
+            
+            try {
+                // Ищем переменные в выражении
+                calculator.findVariables(expression);
+                
+                // Если есть переменные - запрашиваем их значения
+                if (calculator.hasVariables()) {
+                    calculator.askForVariables(scanner);
+                }
+                
+                // Вычисляем результат
+                double result = calculator.calculate(expression);
+                System.out.println(">>> Результат: " + result);
+                
+            } catch (Exception e) {
+                System.out.println("ОШИБКА: " + e.getMessage());
+            }
+        }
+        
+        System.out.println("Программа завершена. До свидания!");
+        scanner.close();
+    }
+    
+    /**
+     * Вычисляет выражение для каждой строки CSV-файла и пишет результаты в выходной файл.
+     * 
+     * @param args аргументы командной строки: --csv выражение вход выход
+     */
+    private static void runCsv(String[] args) {
+        if (args.length != 4) {
+            System.out.println("Использование: --csv <выражение> <входной.csv> <выходной файл>");
+            return;
+        }
+        try {
+            ExpressionEngine engine = new ExpressionEngine(FunctionRegistry.standard(),
+                    ExpressionLimits.UNTRUSTED, null, null);
+            CompiledExpression expression = engine.compile(args[1]);
+            long rows = new CsvEvaluator(expression).evaluate(Paths.get(args[2]), Paths.get(args[3]));
+            System.out.println("Обработано строк: " + rows);
+        } catch (Exception e) {
+            System.out.println("ОШИБКА: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Запускает HTTP-сервер вычислений и работает, пока процесс не остановят.
+     * 
+     * @param args аргументы командной строки: --server порт
+     */
+    private static void runServer(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Использование: --server <порт>");
+            return;
+        }
+        try {
+            // Ввод приходит из сети, поэтому ограничения строже, чем по умолчанию
+            ExpressionLimits limits = new ExpressionLimits(10_000, 100, 5_000, 1_000);
+            ExpressionEngine engine = new ExpressionEngine(FunctionRegistry.standard(), limits,
+                    new ExpressionCache(10000), new EvaluationMetrics());
+            int processors = Runtime.getRuntime().availableProcessors();
+            EvaluationServer server = new EvaluationServer(engine,
+                    new InetSocketAddress(Integer.parseInt(args[1])), processors, processors * 16);
+            server.start();
+            System.out.println("Сервер принимает запросы: POST http://localhost:" + server.getPort() + "/evaluate");
+        } catch (Exception e) {
+            System.out.println("ОШИБКА: " + e.getMessage());
+        }
+    }
+}
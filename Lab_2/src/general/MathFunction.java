@@ -0,0 +1,153 @@
+package general;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Математическая функция, которую можно вызывать из выражений.
+ * При разборе выражения имя функции один раз разрешается в этот объект,
+ * и дальше узел вызова хранит прямую ссылку на реализацию:
+ * при вычислении имена функций не сравниваются.
+ * <p>
+ * Функции должны быть чистыми: результат зависит только от аргументов.
+ * Поэтому вызовы с постоянными аргументами вычисляются при компиляции,
+ * а одинаковые вызовы внутри выражения вычисляются один раз.
+ * 
+ * @author Кристина
+ * @see FunctionRegistry
+ */
+public final class MathFunction {
+    
+    /**
+     * Функция с переменным числом аргументов. Аргументы передаются
+     * отрезком массива, чтобы вызов не создавал объектов.
+     */
+    @FunctionalInterface
+    public interface Variadic {
+        
+        /**
+         * Вычисляет функцию.
+         * 
+         * @param values массив, в котором лежат аргументы; менять его нельзя
+         * @param offset номер первого аргумента
+         * @param count число аргументов
+         * @return результат функции
+         */
+        double apply(double[] values, int offset, int count);
+    }
+    
+    private static final MathFunction[] BUILTINS = new MathFunction[BuiltinFunction.values().length];
+    
+    static {
+        for (BuiltinFunction builtin : BuiltinFunction.values()) {
+            // min и max принимают любое число аргументов не меньше двух
+            boolean chained = builtin == BuiltinFunction.MIN || builtin == BuiltinFunction.MAX;
+            BUILTINS[builtin.ordinal()] = new MathFunction(builtin.getName(), builtin.getArity(),
+                    chained ? Integer.MAX_VALUE : builtin.getArity(), builtin.unary, builtin.binary, null, builtin);
+        }
+    }
+    
+    private final String name;
+    private final int minArity;
+    private final int maxArity;
+    private final DoubleUnaryOperator unary;
+    private final DoubleBinaryOperator binary;
+    private final Variadic variadic;
+    /** Встроенная функция, которую байткод вызывает напрямую, или null. */
+    final BuiltinFunction builtin;
+    
+    private MathFunction(String name, int minArity, int maxArity, DoubleUnaryOperator unary,
+                         DoubleBinaryOperator binary, Variadic variadic, BuiltinFunction builtin) {
+        this.name = name;
+        this.minArity = minArity;
+        this.maxArity = maxArity;
+        this.unary = unary;
+        this.binary = binary;
+        this.variadic = variadic;
+        this.builtin = builtin;
+    }
+    
+    static MathFunction of(BuiltinFunction builtin) {
+        return BUILTINS[builtin.ordinal()];
+    }
+    
+    /**
+     * @return быстрое приближение встроенной функции или эта же функция
+     * @see BuiltinFunction#approximation()
+     */
+    MathFunction approximation() {
+        return builtin != null ? of(builtin.approximation()) : this;
+    }
+    
+    static MathFunction create(String name, DoubleUnaryOperator function) {
+        return new MathFunction(name, 1, 1, function, null, null, null);
+    }
+    
+    static MathFunction create(String name, DoubleBinaryOperator function) {
+        return new MathFunction(name, 2, 2, null, function, null, null);
+    }
+    
+    static MathFunction create(String name, int minArity, int maxArity, Variadic function) {
+        return new MathFunction(name, minArity, maxArity, null, null, function, null);
+    }
+    
+    /**
+     * @return имя функции в том виде, в котором оно пишется в выражении
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * @return наименьшее число аргументов
+     */
+    public int getMinArity() {
+        return minArity;
+    }
+    
+    /**
+     * @return наибольшее число аргументов ({@link Integer#MAX_VALUE} если не ограничено)
+     */
+    public int getMaxArity() {
+        return maxArity;
+    }
+    
+    /**
+     * Проверяет, можно ли вызвать функцию с таким числом аргументов.
+     * 
+     * @param count число аргументов
+     * @return true если число аргументов допустимо
+     */
+    public boolean accepts(int count) {
+        return count >= minArity && count <= maxArity;
+    }
+    
+    /**
+     * Вычисляет функцию от аргументов, лежащих отрезком массива.
+     * Вызов функций двух аргументов с большим числом аргументов
+     * (как min и max) разворачивается в цепочку попарных вызовов.
+     * 
+     * @param values массив аргументов
+     * @param offset номер первого аргумента
+     * @param count число аргументов
+     * @return результат функции
+     */
+    double apply(double[] values, int offset, int count) {
+        if (unary != null) {
+            return unary.applyAsDouble(values[offset]);
+        }
+        if (binary != null) {
+            double result = binary.applyAsDouble(values[offset], values[offset + 1]);
+            for (int i = 2; i < count; i++) {
+                result = binary.applyAsDouble(result, values[offset + i]);
+            }
+            return result;
+        }
+        return variadic.apply(values, offset, count);
+    }
+    
+    @Override
+    public String toString() {
+        return name;
+    }
+}
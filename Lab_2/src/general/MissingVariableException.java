@@ -0,0 +1,24 @@
+package general;
+
+/**
+ * Не задано значение переменной, которая есть в выражении.
+ * 
+ * @author Кристина
+ */
+public class MissingVariableException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+    
+    private final String variableName;
+    
+    MissingVariableException(String variableName) {
+        super(Bindings.MISSING_VALUE + variableName);
+        this.variableName = variableName;
+    }
+    
+    /**
+     * @return имя переменной без значения
+     */
+    public String getVariableName() {
+        return variableName;
+    }
+}
@@ -0,0 +1,14 @@
+package general;
+
+/**
+ * Квадратный корень из отрицательного числа при вычислении выражения.
+ * 
+ * @author Кристина
+ */
+public class NegativeSqrtException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+    
+    NegativeSqrtException() {
+        super(BuiltinFunction.NEGATIVE_SQRT);
+    }
+}
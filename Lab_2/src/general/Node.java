@@ -0,0 +1,281 @@
+package general;
+
+/**
+ * Узел дерева разобранного выражения.
+ * Дерево неизменяемо, переменные заранее заменены номерами ячеек,
+ * поэтому вычисление не работает со строками.
+ * 
+ * @author Кристина
+ */
+abstract class Node {
+    /** Сообщение об ошибке деления на ноль. */
+    static final String DIVISION_BY_ZERO = "Деление на ноль!";
+    
+    /**
+     * Вычисляет значение поддерева.
+     * 
+     * @param slots значения переменных по номерам ячеек
+     * @return значение поддерева
+     */
+    abstract double evaluate(double[] slots);
+    
+    /**
+     * Число, записанное в выражении.
+     */
+    static final class Constant extends Node {
+        final double value;
+        
+        Constant(double value) {
+            this.value = value;
+        }
+        
+        @Override
+        double evaluate(double[] slots) {
+            return value;
+        }
+    }
+    
+    /**
+     * Переменная, привязанная к ячейке массива значений.
+     */
+    static final class Variable extends Node {
+        final String name;
+        final int slot;
+        
+        Variable(String name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+        
+        @Override
+        double evaluate(double[] slots) {
+            return slots[slot];
+        }
+    }
+    
+    /**
+     * Унарный минус.
+     */
+    static final class Negate extends Node {
+        final Node operand;
+        
+        Negate(Node operand) {
+            this.operand = operand;
+        }
+        
+        @Override
+        double evaluate(double[] slots) {
+            return -operand.evaluate(slots);
+        }
+    }
+    
+    /**
+     * Общий предок бинарных операций.
+     */
+    abstract static class Binary extends Node {
+        final Node left;
+        final Node right;
+        
+        Binary(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+        
+        /**
+         * @return знак операции
+         */
+        abstract char operator();
+        
+        /**
+         * Применяет операцию к уже вычисленным операндам.
+         * 
+         * @param a левый операнд
+         * @param b правый операнд
+         * @return результат операции
+         */
+        abstract double apply(double a, double b);
+    }
+    
+    static final class Add extends Binary {
+        Add(Node left, Node right) {
+            super(left, right);
+        }
+        
+        @Override
+        double evaluate(double[] slots) {
+            return left.evaluate(slots) + right.evaluate(slots);
+        }
+        
+        @Override
+        char operator() {
+            return '+';
+        }
+        
+        @Override
+        double apply(double a, double b) {
+            return a + b;
+        }
+    }
+    
+    static final class Subtract extends Binary {
+        Subtract(Node left, Node right) {
+            super(left, right);
+        }
+        
+        @Override
+        double evaluate(double[] slots) {
+            return left.evaluate(slots) - right.evaluate(slots);
+        }
+        
+        @Override
+        char operator() {
+            return '-';
+        }
+        
+        @Override
+        double apply(double a, double b) {
+            return a - b;
+        }
+    }
+    
+    static final class Multiply extends Binary {
+        Multiply(Node left, Node right) {
+            super(left, right);
+        }
+        
+        @Override
+        double evaluate(double[] slots) {
+            return left.evaluate(slots) * right.evaluate(slots);
+        }
+        
+        @Override
+        char operator() {
+            return '*';
+        }
+        
+        @Override
+        double apply(double a, double b) {
+            return a * b;
+        }
+    }
+    
+    static final class Divide extends Binary {
+        Divide(Node left, Node right) {
+            super(left, right);
+        }
+        
+        @Override
+        double evaluate(double[] slots) {
+            return apply(left.evaluate(slots), right.evaluate(slots));
+        }
+        
+        @Override
+        char operator() {
+            return '/';
+        }
+        
+        @Override
+        double apply(double a, double b) {
+            return divide(a, b);
+        }
+    }
+    
+    /**
+     * Вызов функции. Функция разрешена при разборе, поэтому узел
+     * хранит прямую ссылку на ее реализацию.
+     */
+    static final class Call extends Node {
+        final MathFunction function;
+        final Node[] arguments;
+        
+        Call(MathFunction function, Node... arguments) {
+            this.function = function;
+            this.arguments = arguments;
+        }
+        
+        @Override
+        double evaluate(double[] slots) {
+            double[] values = new double[arguments.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = arguments[i].evaluate(slots);
+            }
+            return function.apply(values, 0, values.length);
+        }
+    }
+    
+    /**
+     * Ссылка на общее подвыражение, вычисленное заранее в блоке {@link Block}.
+     * Значение хранится в ячейке за ячейками переменных.
+     */
+    static final class Temporary extends Node {
+        final int slot;
+        final int number;
+        
+        Temporary(int slot, int number) {
+            this.slot = slot;
+            this.number = number;
+        }
+        
+        @Override
+        double evaluate(double[] slots) {
+            return slots[slot];
+        }
+    }
+    
+    /**
+     * Корень выражения с вынесенными общими подвыражениями.
+     * Сначала по порядку вычисляет определения и кладет их в ячейки
+     * временных значений, затем вычисляет тело, которое на них ссылается.
+     */
+    static final class Block extends Node {
+        final Node[] definitions;
+        final int[] targets;
+        final Node body;
+        
+        Block(Node[] definitions, int[] targets, Node body) {
+            this.definitions = definitions;
+            this.targets = targets;
+            this.body = body;
+        }
+        
+        @Override
+        double evaluate(double[] slots) {
+            for (int i = 0; i < definitions.length; i++) {
+                slots[targets[i]] = definitions[i].evaluate(slots);
+            }
+            return body.evaluate(slots);
+        }
+    }
+    
+    /**
+     * Делит с проверкой делителя. Вынесено в статический метод,
+     * чтобы тем же методом пользовался сгенерированный байткод.
+     * 
+     * @param a делимое
+     * @param b делитель
+     * @return частное
+     * @throws DivisionByZeroException при делении на ноль
+     */
+    static double divide(double a, double b) {
+        if (b == 0) throw new DivisionByZeroException();
+        return a / b;
+    }
+    
+    /**
+     * Создает узел бинарной операции по ее знаку.
+     * 
+     * @param operator знак операции (+, -, *, /)
+     * @param left левый операнд
+     * @param right правый операнд
+     * @return узел операции
+     */
+    static Binary binary(char operator, Node left, Node right) {
+        switch (operator) {
+            case '+': return new Add(left, right);
+            case '-': return new Subtract(left, right);
+            case '*': return new Multiply(left, right);
+            case '/': return new Divide(left, right);
+            default: throw new IllegalArgumentException("Неизвестная операция: " + operator);
+        }
+    }
+}
\ No newline at end of file
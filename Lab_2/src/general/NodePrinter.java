@@ -0,0 +1,151 @@
+package general;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Печатает дерево выражения в виде строки с минимально необходимыми скобками.
+ * Общие подвыражения, вынесенные оптимизатором, печатаются как
+ * определения "t1 = ...;" перед основным выражением.
+ * 
+ * @author Кристина
+ */
+final class NodePrinter {
+    private static final int ADDITIVE = 1;
+    private static final int MULTIPLICATIVE = 2;
+    private static final int UNARY = 3;
+    private static final int PRIMARY = 4;
+    
+    private NodePrinter() {
+    }
+    
+    /**
+     * Возвращает текстовую запись дерева.
+     * 
+     * @param node корень дерева
+     * @return запись выражения
+     */
+    static String print(Node node) {
+        StringBuilder out = new StringBuilder();
+        if (node instanceof Node.Block) {
+            Node.Block block = (Node.Block) node;
+            for (int i = 0; i < block.definitions.length; i++) {
+                out.append('t').append(i + 1).append(" = ");
+                append(out, block.definitions[i]);
+                out.append("; ");
+            }
+            node = block.body;
+        }
+        append(out, node);
+        return out.toString();
+    }
+    
+    private static void append(StringBuilder out, Node root) {
+        // Обход без рекурсии: длинная левая цепочка операций не переполняет стек вызовов.
+        // Кадр - либо узел с приоритетом родителя, либо готовый текст.
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(root, 0, false));
+        
+        while (!frames.isEmpty()) {
+            Frame frame = frames.pop();
+            if (frame.text != null) {
+                out.append(frame.text);
+                continue;
+            }
+            
+            Node node = frame.node;
+            // Правый операнд той же силы берем в скобки: a - (b - c), a / (b * c)
+            int minimumPrecedence = frame.right ? frame.parentPrecedence + 1 : frame.parentPrecedence;
+            if (precedence(node) < minimumPrecedence) {
+                out.append('(');
+                frames.push(new Frame(")"));
+            }
+            
+            if (node instanceof Node.Constant) {
+                appendNumber(out, ((Node.Constant) node).value);
+            } else if (node instanceof Node.Variable) {
+                out.append(((Node.Variable) node).name);
+            } else if (node instanceof Node.Temporary) {
+                out.append('t').append(((Node.Temporary) node).number);
+            } else if (node instanceof Node.Negate) {
+                out.append('-');
+                frames.push(new Frame(((Node.Negate) node).operand, UNARY, false));
+            } else if (node instanceof Node.Call) {
+                Node.Call call = (Node.Call) node;
+                out.append(call.function.getName()).append('(');
+                frames.push(new Frame(")"));
+                for (int i = call.arguments.length - 1; i >= 0; i--) {
+                    frames.push(new Frame(call.arguments[i], 0, false));
+                    if (i > 0) {
+                        frames.push(new Frame(", "));
+                    }
+                }
+            } else {
+                Node.Binary binary = (Node.Binary) node;
+                int precedence = precedence(binary);
+                frames.push(new Frame(binary.right, precedence, true));
+                frames.push(new Frame(" " + binary.operator() + " "));
+                frames.push(new Frame(binary.left, precedence, false));
+            }
+        }
+    }
+    
+    private static int precedence(Node node) {
+        if (node instanceof Node.Add || node instanceof Node.Subtract) {
+            return ADDITIVE;
+        }
+        if (node instanceof Node.Multiply || node instanceof Node.Divide) {
+            return MULTIPLICATIVE;
+        }
+        if (node instanceof Node.Negate
+                || (node instanceof Node.Constant && isNegative(((Node.Constant) node).value))) {
+            return UNARY;
+        }
+        return PRIMARY;
+    }
+    
+    /**
+     * Проверяет знак числа, включая -0.0, которое не меньше нуля при сравнении.
+     */
+    private static boolean isNegative(double value) {
+        return !Double.isNaN(value) && Double.doubleToRawLongBits(value) < 0;
+    }
+    
+    private static void appendNumber(StringBuilder out, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append(value);
+        } else if (value == 0 && isNegative(value)) {
+            // (long) -0.0 == 0, поэтому знак нуля печатаем отдельно
+            out.append("-0");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(BigDecimal.valueOf(value).toPlainString());
+        }
+    }
+    
+    /**
+     * Отложенная часть печати: узел, который надо напечатать, или готовый текст.
+     */
+    private static final class Frame {
+        final Node node;
+        final int parentPrecedence;
+        final boolean right;
+        final String text;
+        
+        Frame(Node node, int parentPrecedence, boolean right) {
+            this.node = node;
+            this.parentPrecedence = parentPrecedence;
+            this.right = right;
+            this.text = null;
+        }
+        
+        Frame(String text) {
+            this.node = null;
+            this.parentPrecedence = 0;
+            this.right = false;
+            this.text = text;
+        }
+    }
+}
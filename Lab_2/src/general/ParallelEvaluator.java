@@ -0,0 +1,153 @@
+package general;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Параллельно вычисляет большие наборы независимых выражений.
+ * Работа делится между потоками пула ForkJoin (рекурсивным делением диапазона)
+ * или произвольного ExecutorService, например с виртуальными потоками.
+ * Результаты возвращаются в порядке заданий; ошибка одного задания,
+ * например деление на ноль, сохраняется в его результате и не прерывает остальные.
+ * Если в ограничениях вычислителя задано время пакета ({@link ExpressionLimits#getBatchTimeMillis()}),
+ * задания, не начатые к этому сроку, не вычисляются и получают ошибку о превышении ограничения.
+ * 
+ * @author Кристина
+ */
+public class ParallelEvaluator {
+    /** Число заданий, которые выполняются в одном потоке без дальнейшего деления. */
+    private static final int CHUNK_SIZE = 256;
+    
+    private final ExpressionEngine engine;
+    private final ForkJoinPool pool;
+    private final ExecutorService executor;
+    
+    /**
+     * Создает вычислитель, работающий в общем пуле ForkJoin.
+     * 
+     * @param engine вычислитель выражений (его кэш используется всеми потоками)
+     */
+    public ParallelEvaluator(ExpressionEngine engine) {
+        this(engine, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Создает вычислитель, работающий в заданном пуле ForkJoin.
+     * 
+     * @param engine вычислитель выражений
+     * @param pool пул потоков
+     */
+    public ParallelEvaluator(ExpressionEngine engine, ForkJoinPool pool) {
+        this.engine = engine;
+        this.pool = pool;
+        this.executor = null;
+    }
+    
+    /**
+     * Создает вычислитель, отправляющий части работы в заданный исполнитель,
+     * например {@code Executors.newVirtualThreadPerTaskExecutor()}.
+     * Исполнитель закрывает вызывающий код.
+     * 
+     * @param engine вычислитель выражений
+     * @param executor исполнитель задач
+     */
+    public ParallelEvaluator(ExpressionEngine engine, ExecutorService executor) {
+        this.engine = engine;
+        this.pool = null;
+        this.executor = executor;
+    }
+    
+    /**
+     * Вычисляет все задания.
+     * 
+     * @param jobs задания
+     * @return результаты в том же порядке, что и задания
+     */
+    public List<JobResult> evaluateAll(List<ExpressionJob> jobs) {
+        ExpressionJob[] input = jobs.toArray(new ExpressionJob[0]);
+        JobResult[] output = new JobResult[input.length];
+        long budget = engine.getLimits().getBatchTimeMillis();
+        // 0 означает, что срока нет; младший бит не дает настоящему сроку совпасть с 0
+        long deadline = budget == 0 ? 0 : (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget)) | 1;
+        
+        if (pool != null) {
+            pool.invoke(new RangeTask(input, output, 0, input.length, deadline));
+        } else {
+            submitChunks(input, output, deadline);
+        }
+        return Arrays.asList(output);
+    }
+    
+    private void submitChunks(ExpressionJob[] input, JobResult[] output, long deadline) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < input.length; from += CHUNK_SIZE) {
+            int start = from;
+            int end = Math.min(input.length, from + CHUNK_SIZE);
+            futures.add(executor.submit(() -> evaluateRange(input, output, start, end, deadline)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Пакетное вычисление прервано");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Сбой пакетного вычисления", e.getCause());
+        }
+    }
+    
+    private void evaluateRange(ExpressionJob[] input, JobResult[] output, int from, int to, long deadline) {
+        for (int i = from; i < to; i++) {
+            if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                JobResult expired = JobResult.failure(ExpressionLimits.exceeded(
+                        "время вычисления пакета больше " + engine.getLimits().getBatchTimeMillis() + " мс"));
+                Arrays.fill(output, i, to, expired);
+                return;
+            }
+            output[i] = evaluate(input[i]);
+        }
+    }
+    
+    private JobResult evaluate(ExpressionJob job) {
+        try {
+            return JobResult.success(engine.evaluate(job.getExpression(), job.getBindings()));
+        } catch (RuntimeException e) {
+            // В том числе исключения пользовательских функций и задания без привязок
+            return JobResult.failure(e);
+        }
+    }
+    
+    /**
+     * Задача ForkJoin, делящая диапазон заданий пополам, пока он больше CHUNK_SIZE.
+     */
+    private final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        // Задачи не сериализуются: Serializable достается им от ForkJoinTask
+        private final transient ExpressionJob[] input;
+        private final transient JobResult[] output;
+        private final int from;
+        private final int to;
+        private final long deadline;
+        
+        RangeTask(ExpressionJob[] input, JobResult[] output, int from, int to, long deadline) {
+            this.input = input;
+            this.output = output;
+            this.from = from;
+            this.to = to;
+            this.deadline = deadline;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                evaluateRange(input, output, from, to, deadline);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(input, output, from, middle, deadline),
+                    new RangeTask(input, output, middle, to, deadline));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package general;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для параллельного вычисления наборов выражений
+ */
+public class ParallelEvaluatorTest {
+    
+    private static List<ExpressionJob> createJobs(int count) {
+        List<ExpressionJob> jobs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (i % 100 == 7) {
+                jobs.add(new ExpressionJob("x / 0", new Bindings().set("x", i)));
+            } else {
+                jobs.add(new ExpressionJob("x * 2 + 1", new Bindings().set("x", i)));
+            }
+        }
+        return jobs;
+    }
+    
+    private static void checkResults(List<JobResult> results) {
+        for (int i = 0; i < results.size(); i++) {
+            JobResult result = results.get(i);
+            if (i % 100 == 7) {
+                assertFalse(result.isSuccess());
+                assertTrue(result.getError() instanceof ArithmeticException);
+                assertTrue(result.getError().getMessage().contains("Деление на ноль"));
+            } else {
+                assertTrue(result.isSuccess());
+                assertEquals(i * 2 + 1.0, result.getValue(), 0.0);
+            }
+        }
+    }
+    
+    // ========== ТЕСТЫ ПУЛОВ ==========
+    
+    @Test
+    public void testForkJoinPool() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelEvaluator evaluator = new ParallelEvaluator(new ExpressionEngine(new ExpressionCache(16)), pool);
+            List<JobResult> results = evaluator.evaluateAll(createJobs(10000));
+            assertEquals(10000, results.size());
+            checkResults(results);
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void testVirtualThreads() {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            ParallelEvaluator evaluator = new ParallelEvaluator(new ExpressionEngine(), executor);
+            checkResults(evaluator.evaluateAll(createJobs(3000)));
+        }
+    }
+    
+    @Test
+    public void testSharedBindings() {
+        // Одни привязки на все задания; выражений много, чтобы каждое оставалось в интерпретаторе
+        Bindings shared = new Bindings().set("x", 3).set("y", 0.5);
+        List<ExpressionJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            jobs.add(new ExpressionJob("(x * " + i % 500 + " + y) * (x - y) + sin(y)", shared));
+        }
+        ForkJoinPool pool = new ForkJoinPool(8);
+        try {
+            List<JobResult> results = new ParallelEvaluator(new ExpressionEngine(), pool).evaluateAll(jobs);
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals((3.0 * (i % 500) + 0.5) * 2.5 + Math.sin(0.5), results.get(i).getValue(), 1e-9);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void testEngineEvaluateAll() {
+        ExpressionEngine engine = new ExpressionEngine();
+        List<JobResult> results = engine.evaluateAll(Arrays.asList(
+                new ExpressionJob("2 + 2"), new ExpressionJob("2 + + 2"), new ExpressionJob("sqrt(-4)")));
+        assertEquals(4.0, results.get(0).getValue(), 0.0);
+        assertTrue(results.get(1).getError() instanceof IllegalArgumentException);
+        assertThrows(IllegalArgumentException.class, () -> {
+            results.get(2).getValue();
+        });
+    }
+    
+    @Test
+    public void testUnexpectedErrorsStayInTheirJobs() {
+        // Ошибка пользовательской функции или задания без привязок не прерывает пакет
+        FunctionRegistry functions = new FunctionRegistry().register("broken", x -> {
+            throw new IllegalStateException("сбой функции");
+        });
+        ExpressionEngine engine = new ExpressionEngine(functions, new ExpressionCache(16), null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<ExpressionJob> jobs = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                jobs.add(new ExpressionJob("x * 2 + 1", new Bindings().set("x", i)));
+            }
+            jobs.set(3, new ExpressionJob("broken(x)", new Bindings().set("x", 1)));
+            jobs.set(500, new ExpressionJob("x + 1", null));
+            
+            List<JobResult> results = new ParallelEvaluator(engine, pool).evaluateAll(jobs);
+            assertTrue(results.get(3).getError() instanceof IllegalStateException);
+            assertEquals("сбой функции", results.get(3).getError().getMessage());
+            assertFalse(results.get(500).isSuccess());
+            for (int i = 0; i < results.size(); i++) {
+                if (i != 3 && i != 500) {
+                    assertEquals(i * 2 + 1.0, results.get(i).getValue(), 0.0);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void testEmptyBatch() {
+        assertTrue(new ExpressionEngine().evaluateAll(new ArrayList<>()).isEmpty());
+    }
+}
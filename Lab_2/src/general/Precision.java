@@ -0,0 +1,24 @@
+package general;
+
+/**
+ * Точность вычисления встроенных тригонометрических функций.
+ * Выбирается для каждого скомпилированного выражения,
+ * см. {@link CompiledExpression#withPrecision(Precision)}.
+ * 
+ * @author Кристина
+ */
+public enum Precision {
+    
+    /** Функции {@link Math}: ошибка не больше одной-двух единиц последнего разряда. */
+    EXACT,
+    
+    /**
+     * Многочленные приближения sin, cos и tan. Для |x| ≤ 100000 погрешность
+     * не больше 1e-7 · max(1, |f(x)|), то есть не больше 1e-7 по абсолютной величине
+     * для значений до единицы и относительной - для больших значений tan.
+     * Для больших аргументов, бесконечностей и NaN используются функции {@link Math}.
+     * Корень и остальные функции всегда точные: {@link Math#sqrt} - одна
+     * инструкция процессора, и приближение не было бы быстрее.
+     */
+    FAST
+}
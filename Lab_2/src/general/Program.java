@@ -0,0 +1,446 @@
+package general;
+
+import java.util.*;
+
+/**
+ * Выражение, записанное в обратной польской записи для стекового интерпретатора.
+ * Код - массив целых чисел: код операции и, для некоторых операций, ее аргументы.
+ * Вызов функции CALL ссылается на таблицу функций программы и хранит число аргументов.
+ * Стек операндов - это хвост того же массива ячеек, где лежат переменные
+ * и временные значения, поэтому вычисление не создает ни одного объекта
+ * и не использует рекурсию, сколь угодно глубоким ни было бы выражение.
+ * 
+ * @author Кристина
+ */
+final class Program implements SlotFunction {
+    static final int CONST = 0;
+    static final int LOAD = 1;
+    static final int STORE = 2;
+    static final int NEG = 3;
+    static final int ADD = 4;
+    static final int SUB = 5;
+    static final int MUL = 6;
+    static final int DIV = 7;
+    static final int CALL = 8;
+    
+    final int[] code;
+    final double[] constants;
+    final MathFunction[] functions;
+    final int stackBase;
+    final int maxStack;
+    
+    private Program(int[] code, double[] constants, MathFunction[] functions, int stackBase, int maxStack) {
+        this.code = code;
+        this.constants = constants;
+        this.functions = functions;
+        this.stackBase = stackBase;
+        this.maxStack = maxStack;
+    }
+    
+    /**
+     * Переводит оптимизированное дерево в программу для стекового интерпретатора.
+     * 
+     * @param root корень дерева
+     * @param slotCount число ячеек переменных и временных значений; стек располагается после них
+     * @return программа
+     */
+    static Program compile(Node root, int slotCount) {
+        Builder builder = new Builder();
+        if (root instanceof Node.Block) {
+            Node.Block block = (Node.Block) root;
+            for (int i = 0; i < block.definitions.length; i++) {
+                builder.emit(block.definitions[i]);
+                builder.add(STORE, block.targets[i]);
+            }
+            root = block.body;
+        }
+        builder.emit(root);
+        return new Program(builder.code(), builder.constants(), builder.functions(), slotCount, builder.maxStack);
+    }
+    
+    /**
+     * Переводит несколько деревьев с общими определениями в одну программу.
+     * Сначала вычисляются общие определения, затем тело каждого дерева,
+     * результат которого записывается в свою ячейку.
+     * 
+     * @param definitions общие определения временных значений
+     * @param targets ячейки определений
+     * @param bodies тела деревьев
+     * @param firstResult ячейка результата первого дерева; результаты остальных идут за ней
+     * @param slotCount число ячеек переменных, временных значений и результатов
+     * @return программа
+     */
+    static Program compile(Node[] definitions, int[] targets, Node[] bodies, int firstResult, int slotCount) {
+        Builder builder = new Builder();
+        for (int i = 0; i < definitions.length; i++) {
+            builder.emit(definitions[i]);
+            builder.add(STORE, targets[i]);
+        }
+        for (int i = 0; i < bodies.length; i++) {
+            builder.emit(bodies[i]);
+            builder.add(STORE, firstResult + i);
+        }
+        return new Program(builder.code(), builder.constants(), builder.functions(), slotCount, builder.maxStack);
+    }
+    
+    /**
+     * Восстанавливает оптимизированное дерево по коду программы, например
+     * прочитанному из файла. Код проверяется: неизвестная операция, ссылка
+     * за пределы таблиц, нехватка операндов или чтение временной ячейки
+     * до записи в нее приводят к исключению здесь, а не при вычислении.
+     * 
+     * @param code код программы
+     * @param constants таблица констант
+     * @param functions таблица функций
+     * @param variableNames имена переменных по номерам ячеек
+     * @param slotCount число ячеек переменных и временных значений
+     * @return корень дерева
+     * @throws IllegalArgumentException если код некорректен
+     */
+    static Node decode(int[] code, double[] constants, MathFunction[] functions,
+                       String[] variableNames, int slotCount) {
+        Node[] variables = new Node[variableNames.length];
+        Node.Temporary[] temporaries = new Node.Temporary[Math.max(0, slotCount - variableNames.length)];
+        List<Node> definitions = new ArrayList<>();
+        Deque<Node> stack = new ArrayDeque<>();
+        int pc = 0;
+        try {
+            while (pc < code.length) {
+                int opcode = code[pc++];
+                switch (opcode) {
+                    case CONST:
+                        stack.push(new Node.Constant(constants[code[pc++]]));
+                        break;
+                    case LOAD: {
+                        int slot = code[pc++];
+                        if (slot < variableNames.length) {
+                            if (variables[slot] == null) {
+                                variables[slot] = new Node.Variable(variableNames[slot], slot);
+                            }
+                            stack.push(variables[slot]);
+                        } else if (temporaries[slot - variableNames.length] != null) {
+                            stack.push(temporaries[slot - variableNames.length]);
+                        } else {
+                            throw invalidCode(pc - 2);
+                        }
+                        break;
+                    }
+                    case STORE: {
+                        // Определения вычисляются по одному до тела выражения
+                        int slot = code[pc++];
+                        if (slot < variableNames.length || stack.size() != 1
+                                || temporaries[slot - variableNames.length] != null) {
+                            throw invalidCode(pc - 2);
+                        }
+                        definitions.add(stack.pop());
+                        temporaries[slot - variableNames.length] = new Node.Temporary(slot, definitions.size());
+                        break;
+                    }
+                    case NEG:
+                        stack.push(new Node.Negate(stack.pop()));
+                        break;
+                    case ADD:
+                    case SUB:
+                    case MUL:
+                    case DIV: {
+                        Node right = stack.pop();
+                        Node left = stack.pop();
+                        stack.push(Node.binary("+-*/".charAt(opcode - ADD), left, right));
+                        break;
+                    }
+                    case CALL: {
+                        MathFunction function = functions[code[pc++]];
+                        int count = code[pc++];
+                        if (!function.accepts(count) || count > stack.size()) {
+                            throw invalidCode(pc - 3);
+                        }
+                        Node[] arguments = new Node[count];
+                        for (int i = count - 1; i >= 0; i--) {
+                            arguments[i] = stack.pop();
+                        }
+                        stack.push(new Node.Call(function, arguments));
+                        break;
+                    }
+                    default:
+                        throw invalidCode(pc - 1);
+                }
+            }
+        } catch (IndexOutOfBoundsException | NoSuchElementException e) {
+            throw invalidCode(pc - 1);
+        }
+        if (stack.size() != 1) {
+            throw invalidCode(code.length);
+        }
+        
+        Node body = stack.pop();
+        if (definitions.isEmpty()) {
+            return body;
+        }
+        int[] targets = new int[definitions.size()];
+        for (Node.Temporary temporary : temporaries) {
+            if (temporary != null) {
+                targets[temporary.number - 1] = temporary.slot;
+            }
+        }
+        return new Node.Block(definitions.toArray(new Node[0]), targets, body);
+    }
+    
+    private static IllegalArgumentException invalidCode(int position) {
+        return new IllegalArgumentException("Некорректный код выражения в позиции " + position);
+    }
+    
+    /**
+     * Вычисляет программу.
+     * 
+     * @param slots ячейки переменных и временных значений; длина не меньше stackBase + maxStack
+     * @return результат вычисления
+     */
+    @Override
+    public double evaluate(double[] slots) {
+        int[] code = this.code;
+        int top = stackBase - 1;
+        int pc = 0;
+        while (pc < code.length) {
+            switch (code[pc++]) {
+                case CONST:
+                    slots[++top] = constants[code[pc++]];
+                    break;
+                case LOAD:
+                    slots[++top] = slots[code[pc++]];
+                    break;
+                case STORE:
+                    slots[code[pc++]] = slots[top--];
+                    break;
+                case NEG:
+                    slots[top] = -slots[top];
+                    break;
+                case ADD:
+                    slots[top - 1] += slots[top];
+                    top--;
+                    break;
+                case SUB:
+                    slots[top - 1] -= slots[top];
+                    top--;
+                    break;
+                case MUL:
+                    slots[top - 1] *= slots[top];
+                    top--;
+                    break;
+                case DIV:
+                    slots[top - 1] = Node.divide(slots[top - 1], slots[top]);
+                    top--;
+                    break;
+                default: {
+                    // Аргументы лежат на вершине стека, результат занимает место первого
+                    MathFunction function = functions[code[pc++]];
+                    int count = code[pc++];
+                    top -= count - 1;
+                    slots[top] = function.apply(slots, top, count);
+                    break;
+                }
+            }
+        }
+        return slots[top];
+    }
+    
+    /**
+     * Вычисляет программу, сообщая слушателю о каждой операции и каждом вызове функции.
+     * Как и {@link #evaluate(double[])}, не использует рекурсию.
+     * 
+     * @param slots ячейки переменных и временных значений; длина не меньше stackBase + maxStack
+     * @param listener слушатель трассировки
+     * @return результат вычисления
+     */
+    double evaluate(double[] slots, TraceListener listener) {
+        int[] code = this.code;
+        int top = stackBase - 1;
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc++];
+            switch (opcode) {
+                case CONST:
+                    slots[++top] = constants[code[pc++]];
+                    break;
+                case LOAD:
+                    slots[++top] = slots[code[pc++]];
+                    break;
+                case STORE:
+                    slots[code[pc++]] = slots[top--];
+                    break;
+                case NEG:
+                    slots[top] = -slots[top];
+                    break;
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV: {
+                    double a = slots[top - 1];
+                    double b = slots[top];
+                    double result;
+                    char operator;
+                    switch (opcode) {
+                        case ADD: result = a + b; operator = '+'; break;
+                        case SUB: result = a - b; operator = '-'; break;
+                        case MUL: result = a * b; operator = '*'; break;
+                        default: result = Node.divide(a, b); operator = '/'; break;
+                    }
+                    slots[--top] = result;
+                    listener.onOperation(operator, a, b, result);
+                    break;
+                }
+                default: {
+                    MathFunction function = functions[code[pc++]];
+                    int count = code[pc++];
+                    top -= count - 1;
+                    double[] arguments = Arrays.copyOfRange(slots, top, top + count);
+                    double result = function.apply(slots, top, count);
+                    slots[top] = result;
+                    if (count == 1) {
+                        listener.onFunction(function.getName(), arguments[0], result);
+                    } else {
+                        listener.onFunction(function.getName(), arguments, result);
+                    }
+                    break;
+                }
+            }
+        }
+        return slots[top];
+    }
+    
+    /**
+     * Собирает код программы, обходя дерево без рекурсии.
+     */
+    private static final class Builder {
+        private int[] code = new int[16];
+        private int length;
+        private final List<Double> constants = new ArrayList<>();
+        private final Map<Long, Integer> constantIndexes = new HashMap<>();
+        private final List<MathFunction> functions = new ArrayList<>();
+        private int stack;
+        int maxStack;
+        
+        /**
+         * Добавляет код, оставляющий значение поддерева на вершине стека.
+         * Узлы выписываются в обратной польской записи: сначала операнды, потом операция.
+         */
+        void emit(Node root) {
+            // Обход "узел, правый, левый" в обратном порядке дает "левый, правый, узел"
+            Deque<Node> pending = new ArrayDeque<>();
+            List<Node> reversed = new ArrayList<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                reversed.add(node);
+                if (node instanceof Node.Binary) {
+                    pending.push(((Node.Binary) node).left);
+                    pending.push(((Node.Binary) node).right);
+                } else if (node instanceof Node.Negate) {
+                    pending.push(((Node.Negate) node).operand);
+                } else if (node instanceof Node.Call) {
+                    for (Node argument : ((Node.Call) node).arguments) {
+                        pending.push(argument);
+                    }
+                }
+            }
+            for (int i = reversed.size() - 1; i >= 0; i--) {
+                emitNode(reversed.get(i));
+            }
+        }
+        
+        private void emitNode(Node node) {
+            if (node instanceof Node.Constant) {
+                add(CONST, constant(((Node.Constant) node).value));
+            } else if (node instanceof Node.Variable) {
+                add(LOAD, ((Node.Variable) node).slot);
+            } else if (node instanceof Node.Temporary) {
+                add(LOAD, ((Node.Temporary) node).slot);
+            } else if (node instanceof Node.Negate) {
+                add(NEG);
+            } else if (node instanceof Node.Call) {
+                Node.Call call = (Node.Call) node;
+                call(function(call.function), call.arguments.length);
+            } else if (node instanceof Node.Binary) {
+                switch (((Node.Binary) node).operator()) {
+                    case '+': add(ADD); break;
+                    case '-': add(SUB); break;
+                    case '*': add(MUL); break;
+                    default: add(DIV); break;
+                }
+            } else {
+                throw new IllegalStateException("Неизвестный узел: " + node.getClass().getSimpleName());
+            }
+        }
+        
+        void add(int opcode) {
+            write(opcode);
+            if (opcode != NEG) {
+                stack--;
+            }
+        }
+        
+        void add(int opcode, int argument) {
+            write(opcode);
+            write(argument);
+            if (opcode == CONST || opcode == LOAD) {
+                stack++;
+                maxStack = Math.max(maxStack, stack);
+            } else if (opcode == STORE) {
+                stack--;
+            }
+        }
+        
+        /**
+         * Вызов функции: аргументы снимаются со стека, результат кладется на их место.
+         */
+        void call(int function, int count) {
+            write(CALL);
+            write(function);
+            write(count);
+            stack += 1 - count;
+            maxStack = Math.max(maxStack, stack);
+        }
+        
+        private void write(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = value;
+        }
+        
+        private int constant(double value) {
+            Long bits = Double.doubleToRawLongBits(value);
+            Integer index = constantIndexes.get(bits);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndexes.put(bits, index);
+            }
+            return index;
+        }
+        
+        private int function(MathFunction function) {
+            int index = functions.indexOf(function);
+            if (index < 0) {
+                index = functions.size();
+                functions.add(function);
+            }
+            return index;
+        }
+        
+        int[] code() {
+            return Arrays.copyOf(code, length);
+        }
+        
+        MathFunction[] functions() {
+            return functions.toArray(new MathFunction[0]);
+        }
+        
+        double[] constants() {
+            double[] result = new double[constants.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = constants.get(i);
+            }
+            return result;
+        }
+    }
+}
@@ -9,12 +9,29 @@ import java.util.*;
  * @author Кристина
  */
 public class SimpleCalculator {
+    private static final int DEFAULT_CACHE_SIZE = 100;
+    
     private Map<String, Double> variables;
+    private final ExpressionEngine engine;
+    private TraceListener traceListener;
+    private double[] workspace = new double[0];
     
     /**
      * Конструктор по умолчанию. Создает пустой калькулятор.
      */
     public SimpleCalculator() {
+        this(new ExpressionEngine(new ExpressionCache(DEFAULT_CACHE_SIZE)));
+    }
+    
+    /**
+     * Создает калькулятор, который компилирует выражения через общий вычислитель.
+     * Сам калькулятор хранит переменные и не потокобезопасен,
+     * а вычислитель можно разделять между калькуляторами разных потоков.
+     * 
+     * @param engine вычислитель выражений
+     */
+    public SimpleCalculator(ExpressionEngine engine) {
+        this.engine = engine;
         variables = new HashMap<>();
     }
     
@@ -38,7 +55,11 @@ public class SimpleCalculator {
     
     /**
      * Основной метод для вычисления математического выражения.
-     * Выполняет проверку корректности, вычисление функций, подстановку переменных и вычисление.
+     * Выражение компилируется через вычислитель (повторные выражения берутся из кэша),
+     * затем вычисляется с текущими значениями переменных.
+     * Если подключен слушатель трассировки, ему передаются шаги вычисления.
+     * Без трассировки повторное вычисление выражения из кэша не выделяет память.
+     * Если у вычислителя есть метрики, вычисление и его ошибки учитываются в них.
      * 
      * @param expression математическое выражение для вычисления
      * @return результат вычисления выражения
@@ -46,397 +67,125 @@ public class SimpleCalculator {
      * @throws ArithmeticException при делении на ноль
      */
     public double calculate(String expression) {
-        System.out.println("Вычисляем: " + expression);
-        
-        if (!isValidExpression(expression)) {
-            throw new IllegalArgumentException("Выражение записано некорректно");
+        CompiledExpression compiled = compile(expression);
+        if (engine.getMetrics() == null) {
+            return evaluateWithVariables(compiled);
         }
-        
-        String step1 = calculateFunctions(expression);
-        System.out.println("После функций: " + step1);
-        
-        String step2 = replaceVariables(step1);
-        System.out.println("После переменных: " + step2);
-        
-        String step3 = calculateBrackets(step2);
-        System.out.println("После скобок: " + step3);
-        
-        double result = calculateSimple(step3);
-        System.out.println("Финальный результат: " + result);
-        
-        return result;
-    }
-    
-    /**
-     * Устанавливает значение переменной.
-     * 
-     * @param name имя переменной
-     * @param value значение переменной
-     */
-    public void setVariable(String name, double value) {
-        variables.put(name, value);
-    }
-    
-    /**
-     * Находит все переменные в выражении и добавляет их в хранилище.
-     * Игнорирует зарезервированные имена функций.
-     * 
-     * @param expression выражение для анализа
-     */
-    public void findVariables(String expression) {
-        variables.clear();
-        
-        for (int i = 0; i < expression.length(); i++) {
-            char c = expression.charAt(i);
-            if (Character.isLetter(c)) {
-                StringBuilder varName = new StringBuilder();
-                while (i < expression.length() && Character.isLetter(expression.charAt(i))) {
-                    varName.append(expression.charAt(i));
-                    i++;
-                }
-                String name = varName.toString();
-                if (!name.equals("sin") && !name.equals("cos") && 
-                    !name.equals("tan") && !name.equals("sqrt")) {
-                    variables.put(name, 0.0);
-                }
-                i--;
-            }
+        long start = engine.startEvaluation();
+        try {
+            return engine.finishEvaluation(start, evaluateWithVariables(compiled));
+        } catch (RuntimeException e) {
+            throw engine.evaluationFailed(e);
         }
     }
     
-    /**
-     * Запрашивает у пользователя значения всех найденных переменных.
-     * 
-     * @param scanner объект Scanner для ввода данных
-     */
-    public void askForVariables(Scanner scanner) {
-        System.out.println("Найдены переменные: " + getVariableNames());
-        
-        for (String varName : getVariableNames()) {
-            while (true) {
-                System.out.print("Введите значение для " + varName + ": ");
-                try {
-                    double value = scanner.nextDouble();
-                    setVariable(varName, value);
-                    break;
-                } catch (Exception e) {
-                    System.out.println("Ошибка! Введите число.");
-                    scanner.nextLine();
-                }
+    private double evaluateWithVariables(CompiledExpression compiled) {
+        if (traceListener == null) {
+            if (workspace.length < compiled.getSlotCount()) {
+                workspace = new double[compiled.getSlotCount()];
             }
+            return compiled.evaluate(variables, workspace);
         }
-        scanner.nextLine();
+        return compiled.evaluate(variables, traceListener);
     }
     
-    //ПРИВАТНЫЕ МЕТОДЫ 
-    
     /**
-     * Проверяет корректность математического выражения.
+     * Подключает слушатель пошаговой трассировки вычислений.
+     * По умолчанию трассировка выключена.
      * 
-     * @param expression выражение для проверки
-     * @return true если выражение корректно, иначе false
+     * @param listener слушатель или null чтобы выключить трассировку
      */
-    private boolean isValidExpression(String expression) {
-        if (expression == null || expression.trim().isEmpty()) {
-            return false;
-        }
-        
-        String expr = expression.replaceAll("\\s+", "");
-        
-        // Проверка на допустимые символы
-        if (!expr.matches("[0-9a-zA-Z+\\-*/().]+")) {
-            return false;
-        }
-        
-        // Проверка баланса скобок
-        int bracketCount = 0;
-        for (int i = 0; i < expr.length(); i++) {
-            char c = expr.charAt(i);
-            if (c == '(') {
-                bracketCount++;
-            } else if (c == ')') {
-                bracketCount--;
-                if (bracketCount < 0) {
-                    return false;
-                }
-            }
-        }
-        if (bracketCount != 0) {
-            return false;
-        }
-        
-        // Проверка что выражение не начинается/не заканчивается оператором
-        if (isOperator(expr.charAt(0)) && expr.charAt(0) != '-') {
-            return false;
-        }
-        if (isOperator(expr.charAt(expr.length() - 1))) {
-            return false;
-        }
-        
-        // Проверка на два оператора подряд
-        for (int i = 0; i < expr.length() - 1; i++) {
-            char current = expr.charAt(i);
-            char next = expr.charAt(i + 1);
-            if (isOperator(current) && isOperator(next) && !(current == '-' && Character.isDigit(next))) {
-                return false;
-            }
-        }
-        
-        return true;
+    public void setTraceListener(TraceListener listener) {
+        this.traceListener = listener;
     }
     
     /**
-     * Вычисляет все математические функции в выражении.
+     * Разбирает выражение один раз и возвращает его скомпилированную форму.
+     * Результат можно вычислять многократно без повторного разбора строки.
      * 
-     * @param expression выражение с функциями
-     * @return выражение с замененными функциями на их значения
-     */
-    private String calculateFunctions(String expression) {
-        String result = expression;
-        String[] functions = {"sin", "cos", "tan", "sqrt"};
-        
-        for (String func : functions) {
-            while (result.contains(func)) {
-                int funcStart = result.indexOf(func);
-                int bracketStart = result.indexOf("(", funcStart);
-                
-                // Проверяем что после имени функции сразу идет скобка
-                if (bracketStart != funcStart + func.length()) {
-                    throw new IllegalArgumentException("Некорректный вызов функции " + func);
-                }
-                
-                int bracketEnd = findMatchingBracket(result, bracketStart);
-                
-                if (bracketEnd == -1) {
-                    throw new IllegalArgumentException("Непарные скобки у функции " + func);
-                }
-                
-                // Вычисляем аргумент функции рекурсивно
-                String insideFunc = result.substring(bracketStart + 1, bracketEnd);
-                double insideValue = calculate(insideFunc);
-                double funcResult = applyFunction(func, insideValue);
-                
-                // Заменяем вызов функции на результат
-                String before = result.substring(0, funcStart);
-                String after = result.substring(bracketEnd + 1);
-                result = before + funcResult + after;
-            }
-        }
-        
-        return result;
-    }
-    
-    /**
-     * Находит парную закрывающую скобку для открывающей.
-     * 
-     * @param expression выражение со скобками
-     * @param startBracket позиция открывающей скобки
-     * @return позиция закрывающей скобки или -1 если не найдена
-     */
-    private int findMatchingBracket(String expression, int startBracket) {
-        int count = 1;
-        for (int i = startBracket + 1; i < expression.length(); i++) {
-            char c = expression.charAt(i);
-            if (c == '(') count++;
-            else if (c == ')') count--;
-            
-            if (count == 0) return i;
-        }
-        return -1;
-    }
-    
-    /**
-     * Применяет математическую функцию к числу.
-     * 
-     * @param funcName имя функции (sin, cos, tan, sqrt)
-     * @param value аргумент функции
-     * @return результат применения функции
-     * @throws IllegalArgumentException при неизвестной функции или корне из отрицательного числа
-     */
-    private double applyFunction(String funcName, double value) {
-        switch (funcName) {
-            case "sin": return Math.sin(value);
-            case "cos": return Math.cos(value);
-            case "tan": return Math.tan(value);
-            case "sqrt":
-                if (value < 0) throw new IllegalArgumentException("Корень из отрицательного числа");
-                return Math.sqrt(value);
-            default: throw new IllegalArgumentException("Неизвестная функция: " + funcName);
-        }
-    }
-    
-    /**
-     * Заменяет имена переменных на их числовые значения.
-     * 
-     * @param expression выражение с переменными
-     * @return выражение с замененными переменными на числа
+     * @param expression математическое выражение
+     * @return скомпилированное выражение
+     * @throws IllegalArgumentException если выражение некорректно
      */
-    private String replaceVariables(String expression) {
-        String result = expression;
-        for (String varName : variables.keySet()) {
-            double value = variables.get(varName);
-            result = result.replace(varName, String.valueOf(value));
-        }
-        return result;
+    public CompiledExpression compile(String expression) {
+        return engine.compile(expression);
     }
     
     /**
-     * Вычисляет все выражения в скобках.
+     * Вычисляет скомпилированное выражение с текущими значениями переменных калькулятора.
      * 
-     * @param expression выражение со скобками
-     * @return выражение с вычисленными скобками
+     * @param expression скомпилированное выражение
+     * @return результат вычисления выражения
+     * @throws IllegalArgumentException если значение какой-то переменной не задано
+     * @throws ArithmeticException при делении на ноль
      */
-    private String calculateBrackets(String expression) {
-        String result = expression;
-        
-        // Обрабатываем самые внутренние скобки 
-        while (result.contains("(")) {
-            int openBracket = result.lastIndexOf("(");
-            int closeBracket = findMatchingBracket(result, openBracket);
-            
-            if (closeBracket == -1) {
-                throw new IllegalArgumentException("Непарные скобки в выражении");
-            }
-            
-            String insideBrackets = result.substring(openBracket + 1, closeBracket);
-            double bracketResult = calculateSimple(insideBrackets);
-            
-            // Заменяем скобки на результат
-            String before = result.substring(0, openBracket);
-            String after = result.substring(closeBracket + 1);
-            result = before + bracketResult + after;
-        }
-        
-        return result;
+    public double evaluate(CompiledExpression expression) {
+        return expression.evaluate(variables);
     }
     
     /**
-     * Вычисляет простое выражение без скобок и функций.
-     * Сначала выполняет умножение и деление, затем сложение и вычитание.
+     * Вычисляет одно выражение для целого набора данных, заданного столбцами.
+     * Выражение разбирается один раз, затем вычисляется в цикле по строкам
+     * без упаковки значений в объекты.
      * 
-     * @param expression простое выражение
-     * @return результат вычисления
+     * @param expression математическое выражение
+     * @param columns массивы значений переменных по именам
+     * @param out массив для результатов, его длина задает число строк
+     * @throws IllegalArgumentException если выражение некорректно или столбцы не подходят
+     * @throws ArithmeticException при делении на ноль
      */
-    private double calculateSimple(String expression) {
-        expression = expression.replaceAll(" ", "");
-        
-        if (expression.isEmpty()) {
-            return 0;
-        }
-        
-        List<String> parts = splitExpression(expression);
-        parts = calculateAllMultiplicationDivision(parts);
-        return calculateAllAdditionSubtraction(parts);
+    public void evaluateBatch(String expression, Map<String, double[]> columns, double[] out) {
+        compile(expression).evaluateBatch(columns, out);
     }
     
     /**
-     * Выполняет все операции умножения и деления в списке частей выражения.
+     * Устанавливает значение переменной.
      * 
-     * @param parts список частей выражения (числа и операторы)
-     * @return список с выполненными операциями умножения и деления
+     * @param name имя переменной
+     * @param value значение переменной
      */
-    private List<String> calculateAllMultiplicationDivision(List<String> parts) {
-        List<String> result = new ArrayList<>(parts);
-        
-        int i = 1;
-        while (i < result.size() - 1) {
-            String operator = result.get(i);
-            
-            if (operator.equals("*") || operator.equals("/")) {
-                double left = Double.parseDouble(result.get(i - 1));
-                double right = Double.parseDouble(result.get(i + 1));
-                double operationResult;
-                
-                if (operator.equals("*")) {
-                    operationResult = left * right;
-                } else {
-                    if (right == 0) throw new ArithmeticException("Деление на ноль!");
-                    operationResult = left / right;
-                }
-                
-                // Заменяем три элемента на результат операции
-                result.set(i - 1, String.valueOf(operationResult));
-                result.remove(i); // удаляем оператор
-                result.remove(i); // удаляем правый операнд
-            } else {
-                i += 2; // переходим к следующему оператору
-            }
-        }
-        
-        return result;
+    public void setVariable(String name, double value) {
+        variables.put(name, value);
     }
     
     /**
-     * Выполняет все операции сложения и вычитания.
+     * Находит все переменные в выражении и добавляет их в хранилище.
+     * Выражение разбирается тем же компилятором, что и при вычислении,
+     * поэтому имена функций в переменные не попадают, а последующий
+     * вызов calculate берет готовый результат разбора из кэша.
      * 
-     * @param parts список частей выражения (после умножения/деления)
-     * @return финальный результат вычисления
+     * @param expression выражение для анализа
+     * @throws IllegalArgumentException если выражение некорректно
      */
-    private double calculateAllAdditionSubtraction(List<String> parts) {
-        double result = Double.parseDouble(parts.get(0));
+    public void findVariables(String expression) {
+        variables.clear();
         
-        for (int i = 1; i < parts.size(); i += 2) {
-            String operator = parts.get(i);
-            double number = Double.parseDouble(parts.get(i + 1));
-            
-            if (operator.equals("+")) {
-                result += number;
-            } else if (operator.equals("-")) {
-                result -= number;
-            }
+        for (String name : compile(expression).getVariableNames()) {
+            variables.put(name, 0.0);
         }
-        
-        return result;
     }
     
     /**
-     * Разбивает выражение на числа и операторы.
+     * Запрашивает у пользователя значения всех найденных переменных.
      * 
-     * @param expression выражение для разбора
-     * @return список чисел и операторов в порядке их следования
+     * @param scanner объект Scanner для ввода данных
      */
-    private List<String> splitExpression(String expression) {
-        List<String> parts = new ArrayList<>();
-        StringBuilder currentNumber = new StringBuilder();
+    public void askForVariables(Scanner scanner) {
+        System.out.println("Найдены переменные: " + getVariableNames());
         
-        for (int i = 0; i < expression.length(); i++) {
-            char c = expression.charAt(i);
-            
-            // Если это оператор
-            if (c == '+' || c == '-' || c == '*' || c == '/') {
-                // Особый случай: минус может быть частью отрицательного числа
-                if (c == '-' && (i == 0 || isOperator(expression.charAt(i - 1)) || expression.charAt(i - 1) == '(')) {
-                    // Это отрицательное число, а не оператор
-                    currentNumber.append(c);
-                } else {
-                    // Это оператор - сохраняем число и оператор
-                    if (currentNumber.length() > 0) {
-                        parts.add(currentNumber.toString());
-                        currentNumber = new StringBuilder();
-                    }
-                    parts.add(String.valueOf(c));
+        for (String varName : getVariableNames()) {
+            while (true) {
+                System.out.print("Введите значение для " + varName + ": ");
+                try {
+                    double value = scanner.nextDouble();
+                    setVariable(varName, value);
+                    break;
+                } catch (Exception e) {
+                    System.out.println("Ошибка! Введите число.");
+                    scanner.nextLine();
                 }
-            } else {
-                // Добавляем символ к текущему числу
-                currentNumber.append(c);
             }
         }
-        
-        // Добавляем последнее число
-        if (currentNumber.length() > 0) {
-            parts.add(currentNumber.toString());
-        }
-        
-        return parts;
-    }
-    
-    /**
-     * Проверяет, является ли символ математическим оператором.
-     * 
-     * @param c символ для проверки
-     * @return true если символ является оператором, иначе false
-     */
-    private boolean isOperator(char c) {
-        return c == '+' || c == '-' || c == '*' || c == '/';
+        scanner.nextLine();
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
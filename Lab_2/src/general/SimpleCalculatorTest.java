@@ -1,4 +1,5 @@
 package general;
+import java.util.*;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -223,4 +224,53 @@ public class SimpleCalculatorTest {
         double result = calculator.calculate("(a + b) * c");
         assertEquals(20.0, result, 0.001);
     }
-}
\ No newline at end of file
+    
+    // ========== ТЕСТЫ ТРАССИРОВКИ ==========
+    
+    @Test
+    public void testTraceListenerReceivesSteps() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        List<String> steps = new ArrayList<>();
+        calculator.setTraceListener(new TraceListener() {
+            @Override
+            public void onStart(String expression) {
+                steps.add("start " + expression);
+            }
+            
+            @Override
+            public void onOperation(char operator, double left, double right, double result) {
+                steps.add(left + " " + operator + " " + right + " = " + result);
+            }
+            
+            @Override
+            public void onFunction(String name, double argument, double result) {
+                steps.add(name + "(" + argument + ") = " + result);
+            }
+            
+            @Override
+            public void onResult(String expression, double result) {
+                steps.add("result " + result);
+            }
+        });
+        
+        double result = calculator.calculate("2 * sqrt(9) + 1");
+        
+        assertEquals(7.0, result, 0.001);
+        assertEquals(Arrays.asList("start 2 * sqrt(9) + 1", "sqrt(9.0) = 3.0",
+                "2.0 * 3.0 = 6.0", "6.0 + 1.0 = 7.0", "result 7.0"), steps);
+    }
+    
+    @Test
+    public void testTraceIsOffByDefault() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        java.io.PrintStream original = System.out;
+        java.io.ByteArrayOutputStream buffer = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(buffer));
+        try {
+            calculator.calculate("2 + 3 * 4");
+        } finally {
+            System.setOut(original);
+        }
+        assertEquals(0, buffer.size());
+    }
+}
\ No newline at end of file
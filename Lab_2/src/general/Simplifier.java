@@ -0,0 +1,418 @@
+package general;
+
+import java.util.*;
+
+/**
+ * Оптимизирует дерево выражения при компиляции.
+ * <ul>
+ * <li>сворачивает поддеревья без переменных в константы;</li>
+ * <li>убирает тождественные операции: x + (-0), (-0) + x, x - 0, x * 1, 1 * x, x / 1, -(-x);</li>
+ * <li>выносит повторяющиеся подвыражения во временные ячейки,
+ *     чтобы при каждом вычислении они считались один раз.</li>
+ * </ul>
+ * Поддерево, вычисление которого приводит к ошибке (например sqrt(-1) или 1 / 0),
+ * не сворачивается, чтобы ошибка возникла при вычислении, как и без оптимизации.
+ * Порядок операций не меняется: перестановка слагаемых и множителей
+ * изменила бы результат в арифметике с плавающей точкой. Поэтому же
+ * x + 0 не упрощается: при x = -0.0 результат равен +0.0, а не x. Тождественны
+ * только прибавление -0.0 и вычитание +0.0, так что результат совпадает
+ * с неоптимизированным деревом до бита.
+ * 
+ * @author Кристина
+ */
+final class Simplifier {
+    private static final double[] NO_SLOTS = new double[0];
+    
+    private final Map<List<Object>, Node> canonical = new HashMap<>();
+    private final Map<Node, Integer> uses = new IdentityHashMap<>();
+    private final Map<Node, Node.Temporary> temporaries = new IdentityHashMap<>();
+    private final List<Node> definitions = new ArrayList<>();
+    private final int firstTemporarySlot;
+    private final Precision precision;
+    
+    private Simplifier(int variableCount, Precision precision) {
+        this.firstTemporarySlot = variableCount;
+        this.precision = precision;
+    }
+    
+    /**
+     * Результат оптимизации: новый корень и число занятых ячеек.
+     */
+    static final class Result {
+        final Node root;
+        final int slotCount;
+        
+        Result(Node root, int slotCount) {
+            this.root = root;
+            this.slotCount = slotCount;
+        }
+    }
+    
+    /**
+     * Результат совместной оптимизации нескольких деревьев: общие определения
+     * временных значений и оптимизированные тела каждого дерева.
+     */
+    static final class SetResult {
+        final Node[] definitions;
+        final int[] targets;
+        final Node[] bodies;
+        final int slotCount;
+        
+        SetResult(Node[] definitions, int[] targets, Node[] bodies, int slotCount) {
+            this.definitions = definitions;
+            this.targets = targets;
+            this.bodies = bodies;
+            this.slotCount = slotCount;
+        }
+    }
+    
+    /**
+     * Оптимизирует дерево выражения.
+     * 
+     * @param root корень исходного дерева
+     * @param variableCount число ячеек, занятых переменными
+     * @return оптимизированное дерево и общее число ячеек с учетом временных
+     */
+    static Result simplify(Node root, int variableCount) {
+        return simplify(root, variableCount, Precision.EXACT);
+    }
+    
+    /**
+     * Оптимизирует дерево выражения, заменяя встроенные функции
+     * их приближениями, если выбрана точность {@link Precision#FAST}.
+     * 
+     * @param root корень исходного дерева
+     * @param variableCount число ячеек, занятых переменными
+     * @param precision точность встроенных функций
+     * @return оптимизированное дерево и общее число ячеек с учетом временных
+     */
+    static Result simplify(Node root, int variableCount, Precision precision) {
+        SetResult result = simplifyAll(new Node[] {root}, variableCount, precision);
+        if (result.definitions.length == 0) {
+            return new Result(result.bodies[0], variableCount);
+        }
+        Node block = new Node.Block(result.definitions, result.targets, result.bodies[0]);
+        return new Result(block, result.slotCount);
+    }
+    
+    /**
+     * Оптимизирует несколько деревьев с общими переменными вместе.
+     * Одинаковые поддеревья разных деревьев объединяются, поэтому подвыражение,
+     * которое встречается в двух деревьях, выносится в общую временную ячейку
+     * и вычисляется один раз для всех.
+     * 
+     * @param roots корни исходных деревьев
+     * @param variableCount число ячеек, занятых переменными
+     * @return общие определения, оптимизированные тела и общее число ячеек с учетом временных
+     */
+    static SetResult simplifyAll(Node[] roots, int variableCount) {
+        return simplifyAll(roots, variableCount, Precision.EXACT);
+    }
+    
+    private static SetResult simplifyAll(Node[] roots, int variableCount, Precision precision) {
+        Simplifier simplifier = new Simplifier(variableCount, precision);
+        Node[] folded = new Node[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            folded[i] = simplifier.fold(roots[i]);
+        }
+        for (Node root : folded) {
+            simplifier.countUses(root);
+        }
+        Node[] bodies = new Node[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            bodies[i] = simplifier.hoist(folded[i]);
+        }
+        
+        List<Node> definitions = simplifier.definitions;
+        int[] targets = new int[definitions.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = variableCount + i;
+        }
+        return new SetResult(definitions.toArray(new Node[0]), targets, bodies, variableCount + targets.length);
+    }
+    
+    /**
+     * Заменяет встроенные функции уже оптимизированного дерева их приближениями,
+     * не меняя остальные узлы и временные ячейки.
+     * 
+     * @param root корень оптимизированного дерева, возможно с общими определениями
+     * @return дерево с приближенными функциями
+     */
+    static Node approximate(Node root) {
+        Simplifier simplifier = new Simplifier(0, Precision.FAST);
+        if (root instanceof Node.Block) {
+            Node.Block block = (Node.Block) root;
+            Node[] definitions = new Node[block.definitions.length];
+            for (int i = 0; i < definitions.length; i++) {
+                definitions[i] = simplifier.transform(block.definitions[i], Simplifier::approximateNode);
+            }
+            Node body = simplifier.transform(block.body, Simplifier::approximateNode);
+            return new Node.Block(definitions, block.targets, body);
+        }
+        return simplifier.transform(root, Simplifier::approximateNode);
+    }
+    
+    private static Node approximateNode(Node node, Node[] children) {
+        if (node instanceof Node.Negate) {
+            return new Node.Negate(children[0]);
+        }
+        if (node instanceof Node.Binary) {
+            return Node.binary(((Node.Binary) node).operator(), children[0], children[1]);
+        }
+        if (node instanceof Node.Call) {
+            return new Node.Call(((Node.Call) node).function.approximation(), children);
+        }
+        return node;
+    }
+    
+    /**
+     * Сворачивает константы, убирает тождества и объединяет одинаковые поддеревья
+     * в один объект, чтобы повторы можно было найти сравнением ссылок.
+     */
+    private Node fold(Node root) {
+        return transform(root, this::foldNode);
+    }
+    
+    private Node foldNode(Node node, Node[] children) {
+        if (node instanceof Node.Negate) {
+            Node operand = children[0];
+            if (operand instanceof Node.Negate) {
+                return ((Node.Negate) operand).operand;
+            }
+            return intern(tryFold(new Node.Negate(operand)), "neg", operand, null);
+        }
+        if (node instanceof Node.Binary) {
+            char operator = ((Node.Binary) node).operator();
+            Node left = children[0];
+            Node right = children[1];
+            
+            Node identity = removeIdentity(operator, left, right);
+            if (identity != null) {
+                return identity;
+            }
+            return intern(tryFold(Node.binary(operator, left, right)), operator, left, right);
+        }
+        if (node instanceof Node.Call) {
+            MathFunction function = ((Node.Call) node).function;
+            if (precision == Precision.FAST) {
+                function = function.approximation();
+            }
+            List<Object> arguments = new ArrayList<>(children.length);
+            for (Node child : children) {
+                arguments.add(identity(child));
+            }
+            return intern(tryFold(new Node.Call(function, children)), function, arguments, null);
+        }
+        if (node instanceof Node.Constant) {
+            return constant(((Node.Constant) node).value);
+        }
+        Node.Variable variable = (Node.Variable) node;
+        return intern(variable, "var", variable.slot, null);
+    }
+    
+    private Node removeIdentity(char operator, Node left, Node right) {
+        switch (operator) {
+            case '+':
+                if (isConstant(right, -0.0)) return left;
+                if (isConstant(left, -0.0)) return right;
+                return null;
+            case '-':
+                if (isConstant(right, 0.0)) return left;
+                return null;
+            case '*':
+                if (isConstant(right, 1)) return left;
+                if (isConstant(left, 1)) return right;
+                return null;
+            case '/':
+                if (isConstant(right, 1)) return left;
+                return null;
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Вычисляет узел заранее, если все его операнды - константы и вычисление проходит без ошибок.
+     */
+    private Node tryFold(Node node) {
+        if (node instanceof Node.Negate && !(((Node.Negate) node).operand instanceof Node.Constant)) {
+            return node;
+        }
+        if (node instanceof Node.Binary) {
+            Node.Binary binary = (Node.Binary) node;
+            if (!(binary.left instanceof Node.Constant) || !(binary.right instanceof Node.Constant)) {
+                return node;
+            }
+        }
+        if (node instanceof Node.Call) {
+            for (Node argument : ((Node.Call) node).arguments) {
+                if (!(argument instanceof Node.Constant)) {
+                    return node;
+                }
+            }
+        }
+        try {
+            return constant(node.evaluate(NO_SLOTS));
+        } catch (RuntimeException e) {
+            // Ошибка должна возникнуть при вычислении, а не при компиляции
+            return node;
+        }
+    }
+    
+    private Node constant(double value) {
+        return intern(new Node.Constant(value), "const", Double.valueOf(value), null);
+    }
+    
+    private Node intern(Node node, Object kind, Object a, Object b) {
+        if (node instanceof Node.Constant && !"const".equals(kind)) {
+            return node;
+        }
+        // Дочерние узлы уже канонические, поэтому для них достаточно сравнения ссылок
+        List<Object> key = Arrays.asList(kind, identity(a), identity(b));
+        Node existing = canonical.putIfAbsent(key, node);
+        return existing != null ? existing : node;
+    }
+    
+    private static Object identity(Object value) {
+        return value instanceof Node ? new IdentityKey((Node) value) : value;
+    }
+    
+    private void countUses(Node root) {
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            Integer count = uses.get(node);
+            uses.put(node, count == null ? 1 : count + 1);
+            if (count == null) {
+                for (Node child : children(node)) {
+                    pending.push(child);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Перестраивает дерево, заменяя поддеревья, которые встречаются больше одного раза,
+     * ссылками на временные ячейки. Определения добавляются в порядке обхода
+     * снизу вверх, поэтому каждое определение вычисляется после тех, на которые ссылается.
+     */
+    private Node hoist(Node root) {
+        return transform(root, this::hoistNode);
+    }
+    
+    private Node hoistNode(Node node, Node[] children) {
+        Node rebuilt;
+        if (node instanceof Node.Negate) {
+            rebuilt = new Node.Negate(children[0]);
+        } else if (node instanceof Node.Binary) {
+            rebuilt = Node.binary(((Node.Binary) node).operator(), children[0], children[1]);
+        } else if (node instanceof Node.Call) {
+            rebuilt = new Node.Call(((Node.Call) node).function, children);
+        } else {
+            return node;
+        }
+        
+        if (uses.get(node) > 1 && !isCheap(node)) {
+            int number = definitions.size() + 1;
+            Node.Temporary temporary = new Node.Temporary(firstTemporarySlot + number - 1, number);
+            definitions.add(rebuilt);
+            temporaries.put(node, temporary);
+            return temporary;
+        }
+        return rebuilt;
+    }
+    
+    /**
+     * Преобразование одного узла, получающее уже преобразованные дочерние узлы.
+     */
+    private interface NodeTransformer {
+        Node apply(Node node, Node[] children);
+    }
+    
+    /**
+     * Обходит дерево снизу вверх без рекурсии, чтобы длинные цепочки
+     * вроде "1 + 1 + ... + 1" не переполняли стек вызовов.
+     * Узлы, для которых уже заведена временная ячейка, повторно не обходятся.
+     */
+    private Node transform(Node root, NodeTransformer transformer) {
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<Integer> visited = new ArrayDeque<>();
+        Deque<Node> results = new ArrayDeque<>();
+        nodes.push(root);
+        visited.push(0);
+        
+        while (!nodes.isEmpty()) {
+            Node node = nodes.peek();
+            Node.Temporary temporary = temporaries.get(node);
+            if (temporary != null) {
+                nodes.pop();
+                visited.pop();
+                results.push(temporary);
+                continue;
+            }
+            
+            List<Node> children = children(node);
+            int next = visited.pop();
+            if (next < children.size()) {
+                visited.push(next + 1);
+                nodes.push(children.get(next));
+                visited.push(0);
+            } else {
+                nodes.pop();
+                Node[] transformed = new Node[children.size()];
+                for (int i = transformed.length - 1; i >= 0; i--) {
+                    transformed[i] = results.pop();
+                }
+                results.push(transformer.apply(node, transformed));
+            }
+        }
+        return results.pop();
+    }
+    
+    private static boolean isCheap(Node node) {
+        return node instanceof Node.Negate && children(node).get(0) instanceof Node.Variable;
+    }
+    
+    private static List<Node> children(Node node) {
+        if (node instanceof Node.Negate) {
+            return Collections.singletonList(((Node.Negate) node).operand);
+        }
+        if (node instanceof Node.Binary) {
+            return Arrays.asList(((Node.Binary) node).left, ((Node.Binary) node).right);
+        }
+        if (node instanceof Node.Call) {
+            return Arrays.asList(((Node.Call) node).arguments);
+        }
+        return Collections.emptyList();
+    }
+    
+    /**
+     * Проверяет, что узел - константа с тем же значением, включая знак нуля.
+     */
+    private static boolean isConstant(Node node, double value) {
+        return node instanceof Node.Constant
+                && Double.doubleToRawLongBits(((Node.Constant) node).value) == Double.doubleToRawLongBits(value);
+    }
+    
+    /**
+     * Обертка для сравнения узлов по ссылке внутри ключа.
+     */
+    private static final class IdentityKey {
+        private final Node node;
+        
+        IdentityKey(Node node) {
+            this.node = node;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof IdentityKey && ((IdentityKey) other).node == node;
+        }
+        
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(node);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package general;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit-тесты для оптимизации выражений при компиляции
+ */
+public class SimplifierTest {
+    
+    // ========== ТЕСТЫ СВОРАЧИВАНИЯ КОНСТАНТ ==========
+    
+    @Test
+    public void testConstantSubtreeIsFolded() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("sqrt(4) * 3 / 2 * x");
+        assertEquals("3 * x", expression.getSimplifiedForm());
+        assertEquals(6.0, expression.evaluate(Collections.singletonMap("x", 2.0)), 0.001);
+    }
+    
+    @Test
+    public void testWholeConstantExpressionIsFolded() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        assertEquals("6.5", calculator.compile("(2 + 3 * 4) / (5 - 1) + sqrt(9)").getSimplifiedForm());
+    }
+    
+    @Test
+    public void testErrorsAreNotFolded() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression division = calculator.compile("x + 5 / 0");
+        assertEquals("x + 5 / 0", division.getSimplifiedForm());
+        assertThrows(ArithmeticException.class, () -> {
+            division.evaluate(Collections.singletonMap("x", 1.0));
+        });
+    }
+    
+    // ========== ТЕСТЫ ТОЖДЕСТВ ==========
+    
+    @Test
+    public void testIdentitiesAreRemoved() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        assertEquals("x", calculator.compile("x * 1 - 0").getSimplifiedForm());
+        assertEquals("x", calculator.compile("1 * (-0 + x) / 1 + -0").getSimplifiedForm());
+        assertEquals("x", calculator.compile("-(-x)").getSimplifiedForm());
+    }
+    
+    @Test
+    public void testSignedZeroIsPreserved() {
+        // -0.0 + 0 = +0.0, поэтому x + 0 и x - (-0) не заменяются на x
+        SimpleCalculator calculator = new SimpleCalculator();
+        assertEquals("x + 0", calculator.compile("x + 0").getSimplifiedForm());
+        assertEquals("0 + x", calculator.compile("0 + x").getSimplifiedForm());
+        String[] sources = {"x + 0", "0 + x", "x - -0", "x - 0", "x + -0", "x * 1"};
+        double[] expected = {0.0, 0.0, 0.0, -0.0, -0.0, -0.0};
+        for (int i = 0; i < sources.length; i++) {
+            double actual = calculator.compile(sources[i]).evaluate(Collections.singletonMap("x", -0.0));
+            assertEquals(Double.doubleToRawLongBits(expected[i]), Double.doubleToRawLongBits(actual), sources[i]);
+        }
+    }
+    
+    @Test
+    public void testNegativeZeroIsPrinted() {
+        // 0 * -1 - 0 сворачивается в -0.0: без знака форма печаталась бы как 1 / 0 + x
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("1 / (0 * -1 - 0) + x");
+        assertEquals("1 / -0 + x", expression.getSimplifiedForm());
+        CompiledExpression reparsed = calculator.compile(expression.getSimplifiedForm());
+        assertEquals(expression.getSimplifiedForm(), reparsed.getSimplifiedForm());
+        assertEquals("x - -0", calculator.compile("x - -0").getSimplifiedForm());
+    }
+    
+    // ========== ТЕСТЫ ОБЩИХ ПОДВЫРАЖЕНИЙ ==========
+    
+    @Test
+    public void testCommonSubexpressionIsHoisted() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("sqrt(a * a + b * b) * x + sqrt(a * a + b * b)");
+        assertEquals("t1 = sqrt(a * a + b * b); t1 * x + t1", expression.getSimplifiedForm());
+        
+        Map<String, Double> variables = new HashMap<>();
+        variables.put("a", 3.0);
+        variables.put("b", 4.0);
+        variables.put("x", 2.0);
+        assertEquals(15.0, expression.evaluate(variables), 0.001);
+    }
+    
+    @Test
+    public void testNestedCommonSubexpressions() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        CompiledExpression expression = calculator.compile("sin(x + 1) * (x + 1) + sin(x + 1)");
+        assertEquals("t1 = x + 1; t2 = sin(t1); t2 * t1 + t2", expression.getSimplifiedForm());
+        assertEquals(Math.sin(3) * 3 + Math.sin(3), expression.evaluate(Collections.singletonMap("x", 2.0)), 1e-12);
+    }
+    
+    @Test
+    public void testBracketsArePreservedInSimplifiedForm() {
+        SimpleCalculator calculator = new SimpleCalculator();
+        assertEquals("a - (b - c)", calculator.compile("a - (b - c)").getSimplifiedForm());
+        assertEquals("(a + b) * c", calculator.compile("(a + b) * c").getSimplifiedForm());
+        assertEquals("a / (b * c)", calculator.compile("a / (b * c)").getSimplifiedForm());
+    }
+}
@@ -0,0 +1,18 @@
+package general;
+
+/**
+ * Вычислимая форма выражения над массивом ячеек.
+ * Реализуется интерпретатором дерева и классами, сгенерированными {@link BytecodeCompiler}.
+ * 
+ * @author Кристина
+ */
+interface SlotFunction {
+    
+    /**
+     * Вычисляет выражение.
+     * 
+     * @param slots значения переменных и место под временные значения
+     * @return результат вычисления
+     */
+    double evaluate(double[] slots);
+}
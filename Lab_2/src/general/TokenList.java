@@ -0,0 +1,57 @@
+package general;
+
+/**
+ * Компактный результат лексического разбора выражения.
+ * Лексемы хранятся в параллельных массивах: тип, числовое значение,
+ * имя и позиция в исходной строке. Числа уже переведены в double,
+ * имена интернированы.
+ * 
+ * @author Кристина
+ */
+final class TokenList {
+    static final byte NUMBER = 0;
+    static final byte NAME = 1;
+    static final byte PLUS = 2;
+    static final byte MINUS = 3;
+    static final byte STAR = 4;
+    static final byte SLASH = 5;
+    static final byte LEFT_BRACKET = 6;
+    static final byte RIGHT_BRACKET = 7;
+    static final byte END = 8;
+    static final byte COMMA = 9;
+    
+    final byte[] types;
+    final double[] numbers;
+    final String[] names;
+    final int[] positions;
+    final int count;
+    
+    TokenList(byte[] types, double[] numbers, String[] names, int[] positions, int count) {
+        this.types = types;
+        this.numbers = numbers;
+        this.names = names;
+        this.positions = positions;
+        this.count = count;
+    }
+    
+    /**
+     * Возвращает текстовое описание лексемы для сообщений об ошибках.
+     * 
+     * @param index номер лексемы
+     * @return описание лексемы
+     */
+    String describe(int index) {
+        switch (types[index]) {
+            case NUMBER: return "число " + numbers[index];
+            case NAME: return "имя " + names[index];
+            case PLUS: return "'+'";
+            case MINUS: return "'-'";
+            case STAR: return "'*'";
+            case SLASH: return "'/'";
+            case LEFT_BRACKET: return "'('";
+            case RIGHT_BRACKET: return "')'";
+            case COMMA: return "','";
+            default: return "конец выражения";
+        }
+    }
+}
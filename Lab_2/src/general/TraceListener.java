@@ -0,0 +1,57 @@
+package general;
+
+/**
+ * Слушатель пошаговой трассировки вычисления выражения.
+ * Трассировка выключена по умолчанию: пока слушатель не подключен,
+ * вычисление не выполняет ввод-вывод и не собирает строк для диагностики.
+ * Методы получают готовые числа, форматирование остается на стороне слушателя.
+ * 
+ * @author Кристина
+ */
+public interface TraceListener {
+    
+    /**
+     * Вызывается перед вычислением выражения.
+     * 
+     * @param expression текст выражения
+     */
+    void onStart(String expression);
+    
+    /**
+     * Вызывается после выполнения бинарной операции.
+     * 
+     * @param operator знак операции (+, -, *, /)
+     * @param left левый операнд
+     * @param right правый операнд
+     * @param result результат операции
+     */
+    void onOperation(char operator, double left, double right, double result);
+    
+    /**
+     * Вызывается после вычисления функции.
+     * 
+     * @param name имя функции
+     * @param argument аргумент функции
+     * @param result результат функции
+     */
+    void onFunction(String name, double argument, double result);
+    
+    /**
+     * Вызывается после вычисления функции, у которой не один аргумент.
+     * По умолчанию ничего не делает.
+     * 
+     * @param name имя функции
+     * @param arguments аргументы функции
+     * @param result результат функции
+     */
+    default void onFunction(String name, double[] arguments, double result) {
+    }
+    
+    /**
+     * Вызывается после успешного вычисления выражения.
+     * 
+     * @param expression текст выражения
+     * @param result результат вычисления
+     */
+    void onResult(String expression, double result);
+}
@@ -0,0 +1,45 @@
+package general;
+
+/**
+ * Рабочие массивы ячеек, свои у каждого потока.
+ * <p>
+ * Массив берется на время одного вычисления и возвращается после него,
+ * поэтому повторные вычисления в том же потоке не выделяют память, а разные
+ * потоки никогда не пишут в один массив, даже если вычисляют по общим привязкам.
+ * Если массив потока уже занят (пользовательская функция сама вычисляет
+ * выражение), вложенное вычисление получает новый массив.
+ * 
+ * @author Кристина
+ */
+final class Workspace {
+    /** Свободный массив потока в единственной ячейке или null, пока он занят. */
+    private static final ThreadLocal<double[][]> FREE = ThreadLocal.withInitial(() -> new double[1][]);
+    
+    private Workspace() {
+    }
+    
+    /**
+     * Берет рабочий массив потока не короче заданного размера.
+     * 
+     * @param size требуемый размер
+     * @return рабочий массив, который нужно вернуть через {@link #release}
+     */
+    static double[] acquire(int size) {
+        double[][] free = FREE.get();
+        double[] slots = free[0];
+        free[0] = null;
+        return slots != null && slots.length >= size ? slots : new double[size];
+    }
+    
+    /**
+     * Возвращает рабочий массив потоку.
+     * 
+     * @param slots массив, полученный из {@link #acquire}
+     */
+    static void release(double[] slots) {
+        double[][] free = FREE.get();
+        if (free[0] == null || free[0].length < slots.length) {
+            free[0] = slots;
+        }
+    }
+}